@@ -0,0 +1,35 @@
+package wiki.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Deterministic page fixtures shared by the benchmark suites.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    public static String markdown(PageSize size) {
+        StringBuilder markdown = new StringBuilder();
+        for (int i = 0; i < size.sections; i++) {
+            markdown.append("# Section ").append(i).append("\n\n")
+                    .append("Some *emphasis*, some **strong text** and a [link](/wiki/Page").append(i).append(").\n")
+                    .append("A second line with `inline code` and a little more prose to wrap.\n\n")
+                    .append("- first item\n- second item\n- third item\n\n")
+                    .append("> A quoted remark.\n\n")
+                    .append("    int answer = ").append(i).append(";\n\n");
+        }
+        return markdown.toString();
+    }
+
+    public static JsonObject page(int id, PageSize size) {
+        String markdown = markdown(size);
+        return new JsonObject()
+                .put("id", id)
+                .put("name", "Page" + id)
+                .put("markdown", markdown)
+                .put("html", Processor.process(markdown));
+    }
+}
@@ -0,0 +1,118 @@
+package wiki.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import wiki.database.Page;
+import wiki.database.WikiDatabaseService;
+import wiki.database.WikiDatabaseVerticle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Concurrent saves of distinct pages to a file HSQLDB database that forces every commit to the disk, each in a
+ * transaction of its own ({@code window} 0) or buffered and committed in groups. Each benchmark thread edits its own
+ * page, so no saves are merged: the difference is the number of commits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class GroupCommitBenchmark {
+
+    private static final String QUEUE = "wikidb.benchmark.queue";
+
+    @Param({"0", "2"})
+    public long window;
+
+    private Vertx vertx;
+    private Context context;
+    private Path directory;
+    private WikiDatabaseService service;
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Editor {
+
+        int pageId;
+        String markdown;
+
+        @Setup
+        public void setUp(GroupCommitBenchmark benchmark) throws Exception {
+            String name = "Page " + benchmark.threads.incrementAndGet();
+            markdown = Fixtures.markdown(PageSize.SMALL);
+            benchmark.<Void>call(handler -> benchmark.service.createPage(name, markdown, handler));
+            pageId = benchmark.<Page>call(handler -> benchmark.service.fetchPage(name, handler)).getId();
+        }
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("wiki-group-commit");
+        JsonObject config = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:" + directory.resolve("wiki") + ";shutdown=true;hsqldb.write_delay=false")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, window)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, QUEUE);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), complete(deployed));
+        deployed.get(30, TimeUnit.SECONDS);
+        service = WikiDatabaseService.createLocalProxy(vertx, QUEUE, DeliveryOptions.DEFAULT_TIMEOUT);
+        context = vertx.getOrCreateContext();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(complete(closed));
+        closed.get(30, TimeUnit.SECONDS);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public Void savePage(Editor editor) throws Exception {
+        return call(handler -> service.savePage(editor.pageId, editor.markdown, handler));
+    }
+
+    private <T> T call(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> operation.accept(complete(result)));
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+        return ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        };
+    }
+}
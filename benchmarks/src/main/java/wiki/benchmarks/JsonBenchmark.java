@@ -0,0 +1,45 @@
+package wiki.benchmarks;
+
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of page payloads, as exchanged by the REST API and the event bus service proxy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public PageSize size;
+
+    private JsonObject page;
+    private String encoded;
+
+    @Setup
+    public void setUp() {
+        page = Fixtures.page(1, size);
+        encoded = page.encode();
+    }
+
+    @Benchmark
+    public String encode() {
+        return page.encode();
+    }
+
+    @Benchmark
+    public JsonObject decode() {
+        return new JsonObject(encoded);
+    }
+
+    @Benchmark
+    public JsonObject copy() {
+        return page.copy();
+    }
+}
@@ -0,0 +1,33 @@
+package wiki.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of rendering page markdown with txtmark, as done for every cache miss on {@code /wiki/:page}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkdownBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public PageSize size;
+
+    private String markdown;
+
+    @Setup
+    public void setUp() {
+        markdown = Fixtures.markdown(size);
+    }
+
+    @Benchmark
+    public String process() {
+        return Processor.process(markdown);
+    }
+}
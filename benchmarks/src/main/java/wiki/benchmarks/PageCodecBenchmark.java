@@ -0,0 +1,60 @@
+package wiki.benchmarks;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import wiki.database.Page;
+import wiki.database.PageCodec;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wire encoding of a page between cluster nodes: the binary {@link PageCodec} against the JSON text of the same page,
+ * as produced by its {@code toJson()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PageCodecBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "HUGE"})
+    public PageSize size;
+
+    private final PageCodec codec = new PageCodec();
+    private Page page;
+    private Buffer binary;
+    private Buffer json;
+
+    @Setup
+    public void setUp() {
+        page = new Page(1, "Page1", Fixtures.markdown(size), 42, System.currentTimeMillis());
+        binary = Buffer.buffer();
+        codec.encodeToWire(binary, page);
+        json = Buffer.buffer(page.toJson().encode());
+    }
+
+    @Benchmark
+    public Buffer encodeBinary() {
+        Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, page);
+        return buffer;
+    }
+
+    @Benchmark
+    public Page decodeBinary() {
+        return codec.decodeFromWire(0, binary);
+    }
+
+    @Benchmark
+    public Buffer encodeJson() {
+        return Buffer.buffer(page.toJson().encode());
+    }
+
+    @Benchmark
+    public Page decodeJson() {
+        return new Page(new JsonObject(json.toString()));
+    }
+}
@@ -0,0 +1,14 @@
+package wiki.benchmarks;
+
+/**
+ * Approximate markdown sizes used by the benchmarks: a short note, a typical article and a very large page.
+ */
+public enum PageSize {
+    SMALL(1), MEDIUM(20), HUGE(1000);
+
+    final int sections;
+
+    PageSize(int sections) {
+        this.sections = sections;
+    }
+}
@@ -0,0 +1,112 @@
+package wiki.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import wiki.database.Page;
+import wiki.database.WikiDatabaseService;
+import wiki.database.WikiDatabaseVerticle;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Restoring page revisions through the {@link WikiDatabaseService} proxy, with and without the revision cache.
+ * <p>
+ * The page is edited {@code 2 * snapshot interval} times, one paragraph at a time: the worst revision to restore is
+ * the last one before a snapshot, which applies {@code snapshot interval - 1} deltas to its base.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RevisionBenchmark {
+
+    private static final String QUEUE = "wikidb.benchmark.queue";
+    private static final int SNAPSHOT_INTERVAL = 16;
+
+    @Param({"MEDIUM", "HUGE"})
+    public PageSize size;
+
+    @Param({"0", "16777216"})
+    public long cacheSize;
+
+    private Vertx vertx;
+    private Context context;
+    private WikiDatabaseService service;
+    private int pageId;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:revisions;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_CACHE_SIZE, cacheSize)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, QUEUE);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), complete(deployed));
+        deployed.get(30, TimeUnit.SECONDS);
+        service = WikiDatabaseService.createProxy(vertx, QUEUE);
+        context = vertx.getOrCreateContext();
+
+        String markdown = Fixtures.markdown(size);
+        this.<Void>call(handler -> service.createPage("Benchmark", markdown, handler));
+        pageId = this.<Page>call(handler -> service.fetchPage("Benchmark", handler)).getId();
+        StringBuilder edited = new StringBuilder(markdown);
+        for (int i = 1; i < 2 * SNAPSHOT_INTERVAL; i++) {
+            int at = edited.indexOf("\n\n", edited.length() * i / (2 * SNAPSHOT_INTERVAL));
+            edited.insert(at < 0 ? edited.length() : at, "\n\nEdit " + i + " of the benchmark page.");
+            String content = edited.toString();
+            this.<Void>call(handler -> service.savePage(pageId, content, handler));
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(complete(closed));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public JsonObject fetchSnapshot() throws Exception {
+        return call(handler -> service.fetchRevision(pageId, SNAPSHOT_INTERVAL + 1, handler));
+    }
+
+    @Benchmark
+    public JsonObject fetchLongestChain() throws Exception {
+        return call(handler -> service.fetchRevision(pageId, SNAPSHOT_INTERVAL, handler));
+    }
+
+    @Benchmark
+    public Page fetchPageById() throws Exception {
+        return call(handler -> service.fetchPageById(pageId, handler));
+    }
+
+    private <T> T call(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> operation.accept(complete(result)));
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+        return ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        };
+    }
+}
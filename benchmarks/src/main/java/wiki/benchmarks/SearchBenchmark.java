@@ -0,0 +1,126 @@
+package wiki.benchmarks;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import wiki.search.SearchIndex;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Query latency of the full-text {@link SearchIndex}, over synthetic pages whose words follow a Zipf distribution
+ * like natural text: {@code rare} and {@code common} are single-term queries at both ends of the distribution,
+ * {@code mixed} is a three-term query. Run with {@code -p pages=1000000} for the million page case (indexing
+ * takes a few minutes).
+ * <p>
+ * The index is closed and opened again once seeded, so that queries run against the memory-mapped segments left by
+ * a restart rather than alongside background flushes and merges.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SearchBenchmark {
+
+    private static final int VOCABULARY = 50000;
+    private static final int WORDS_PER_PAGE = 200;
+
+    @Param({"100000"})
+    public int pages;
+
+    private Vertx vertx;
+    private Path directory;
+    private SearchIndex index;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("search-benchmark");
+        index = open();
+
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            total += 1.0 / (rank + 1);
+            cumulative[rank] = total;
+        }
+        Random random = new Random(42);
+        StringBuilder content = new StringBuilder();
+        for (int id = 0; id < pages; id++) {
+            content.setLength(0);
+            for (int i = 0; i < WORDS_PER_PAGE; i++) {
+                int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                content.append(word(rank < 0 ? -rank - 1 : rank)).append(' ');
+            }
+            index.put(id, "Page" + id, content.toString(), id);
+        }
+        close();
+        index = open();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(v -> closed.complete(null));
+        closed.get(60, TimeUnit.SECONDS);
+    }
+
+    private SearchIndex open() throws Exception {
+        CompletableFuture<SearchIndex> opened = new CompletableFuture<>();
+        SearchIndex.open(vertx, directory.toString(), 10000, ar -> {
+            if (ar.succeeded()) {
+                opened.complete(ar.result());
+            } else {
+                opened.completeExceptionally(ar.cause());
+            }
+        });
+        return opened.get(60, TimeUnit.SECONDS);
+    }
+
+    private void close() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        index.close(ar -> {
+            if (ar.succeeded()) {
+                closed.complete(null);
+            } else {
+                closed.completeExceptionally(ar.cause());
+            }
+        });
+        closed.get(10, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public List<JsonObject> rare() {
+        return index.search(word(VOCABULARY - 1), 10);
+    }
+
+    @Benchmark
+    public List<JsonObject> common() {
+        return index.search(word(0), 10);
+    }
+
+    @Benchmark
+    public List<JsonObject> mixed() {
+        return index.search(word(10) + " " + word(500) + " " + word(20000), 10);
+    }
+
+    private static String word(int rank) {
+        return "w" + Integer.toString(rank, 36);
+    }
+}
@@ -0,0 +1,149 @@
+package wiki.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import org.openjdk.jmh.annotations.*;
+import wiki.database.Page;
+import wiki.database.PageSummary;
+import wiki.database.SqlQuery;
+import wiki.database.WikiDatabaseService;
+import wiki.database.WikiDatabaseVerticle;
+
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Round trips through the {@link WikiDatabaseService} event bus proxy and through the local proxy, which calls a
+ * co-located service directly on its own context, compared with calls on the service implementation itself, all backed
+ * by the same in-memory HSQLDB database.
+ * <p>
+ * All variants dispatch from the benchmark thread onto a Vert.x context and block until the reply arrives, so the
+ * difference between them is the proxy cost: JSON encoding of arguments and results plus the event bus hops, or only
+ * the context switches for the local proxy.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ServiceBenchmark {
+
+    private static final String QUEUE = "wikidb.benchmark.queue";
+
+    @Param({"SMALL", "HUGE"})
+    public PageSize size;
+
+    private Vertx vertx;
+    private Context context;
+    private WikiDatabaseService proxy;
+    private WikiDatabaseService local;
+    private WikiDatabaseService direct;
+    private int pageId;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        JsonObject config = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:benchmark;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, QUEUE);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), complete(deployed));
+        deployed.get(30, TimeUnit.SECONDS);
+        proxy = WikiDatabaseService.createProxy(vertx, QUEUE);
+        local = WikiDatabaseService.createLocalProxy(vertx, QUEUE, DeliveryOptions.DEFAULT_TIMEOUT);
+
+        context = vertx.getOrCreateContext();
+        JDBCClient dbClient = JDBCClient.createShared(vertx, new JsonObject()
+                .put("url", "jdbc:hsqldb:mem:benchmark;shutdown=true")
+                .put("driver_class", "org.hsqldb.jdbcDriver")
+                .put("max_pool_size", 4));
+        HashMap<SqlQuery, String> sqlQueries = sqlQueries();
+        direct = call(handler -> WikiDatabaseService.create(vertx, dbClient, sqlQueries, config, handler));
+
+        this.<Void>call(handler -> direct.createPage("Benchmark", Fixtures.markdown(size), handler));
+        pageId = this.<Page>call(handler -> direct.fetchPage("Benchmark", handler)).getId();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(complete(closed));
+        closed.get(30, TimeUnit.SECONDS);
+    }
+
+    @Benchmark
+    public Page fetchPageByIdProxy() throws Exception {
+        return call(handler -> proxy.fetchPageById(pageId, handler));
+    }
+
+    @Benchmark
+    public Page fetchPageByIdLocal() throws Exception {
+        return call(handler -> local.fetchPageById(pageId, handler));
+    }
+
+    @Benchmark
+    public Page fetchPageByIdDirect() throws Exception {
+        return call(handler -> direct.fetchPageById(pageId, handler));
+    }
+
+    @Benchmark
+    public List<PageSummary> fetchPagesPageProxy() throws Exception {
+        return call(handler -> proxy.fetchPagesPage(0, 100, handler));
+    }
+
+    @Benchmark
+    public List<PageSummary> fetchPagesPageLocal() throws Exception {
+        return call(handler -> local.fetchPagesPage(0, 100, handler));
+    }
+
+    @Benchmark
+    public List<PageSummary> fetchPagesPageDirect() throws Exception {
+        return call(handler -> direct.fetchPagesPage(0, 100, handler));
+    }
+
+    private <T> T call(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> operation.accept(complete(result)));
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+        return ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        };
+    }
+
+    /*
+     * Same mapping as WikiDatabaseVerticle: property keys are the SqlQuery names in lower case with dashes.
+     */
+    private static HashMap<SqlQuery, String> sqlQueries() throws Exception {
+        Properties queriesProps = new Properties();
+        try (InputStream in = ServiceBenchmark.class.getResourceAsStream("/db-queries.properties")) {
+            queriesProps.load(in);
+        }
+        HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
+        for (SqlQuery query : SqlQuery.values()) {
+            sqlQueries.put(query, queriesProps.getProperty(query.name().toLowerCase().replace('_', '-')));
+        }
+        return sqlQueries;
+    }
+}
@@ -0,0 +1,123 @@
+package wiki.benchmarks;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import wiki.database.Page;
+import wiki.database.WikiDatabaseService;
+import wiki.database.WikiDatabaseVerticle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Saves and reads of a page with each storage engine, both on disk in a temporary directory: a file HSQLDB database
+ * through JDBC, and the embedded page log. Both write behind and force their changes to the disk periodically
+ * (HSQLDB's default write delay, and a log sync interval set to the same 500 ms).
+ * <p>
+ * Calls go through the local proxy, so the difference is in the service implementation and the storage below it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    private static final String QUEUE = "wikidb.benchmark.queue";
+
+    @Param({"jdbc", "log"})
+    public String storage;
+
+    @Param({"SMALL", "HUGE"})
+    public PageSize size;
+
+    private Vertx vertx;
+    private Context context;
+    private Path directory;
+    private WikiDatabaseService service;
+    private String markdown;
+    private int pageId;
+
+    @Setup
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("wiki-storage");
+        JsonObject config = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE, storage)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:" + directory.resolve("wiki") + ";shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIRECTORY, directory.resolve("log").toString())
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SYNC_INTERVAL, 500)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, QUEUE);
+
+        CompletableFuture<String> deployed = new CompletableFuture<>();
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(config), complete(deployed));
+        deployed.get(30, TimeUnit.SECONDS);
+        service = WikiDatabaseService.createLocalProxy(vertx, QUEUE, DeliveryOptions.DEFAULT_TIMEOUT);
+        context = vertx.getOrCreateContext();
+
+        markdown = Fixtures.markdown(size);
+        this.<Void>call(handler -> service.createPage("Benchmark", markdown, handler));
+        pageId = this.<Page>call(handler -> service.fetchPage("Benchmark", handler)).getId();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        CompletableFuture<Void> closed = new CompletableFuture<>();
+        vertx.close(complete(closed));
+        closed.get(30, TimeUnit.SECONDS);
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    file.toFile().deleteOnExit();
+                }
+            });
+        }
+    }
+
+    @Benchmark
+    public Void savePage() throws Exception {
+        return call(handler -> service.savePage(pageId, markdown, handler));
+    }
+
+    @Benchmark
+    public Page fetchPageById() throws Exception {
+        return call(handler -> service.fetchPageById(pageId, handler));
+    }
+
+    @Benchmark
+    public Page fetchPage() throws Exception {
+        return call(handler -> service.fetchPage("Benchmark", handler));
+    }
+
+    private <T> T call(Consumer<Handler<AsyncResult<T>>> operation) throws Exception {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        context.runOnContext(v -> operation.accept(complete(result)));
+        return result.get(30, TimeUnit.SECONDS);
+    }
+
+    private static <T> Handler<AsyncResult<T>> complete(CompletableFuture<T> future) {
+        return ar -> {
+            if (ar.succeeded()) {
+                future.complete(ar.result());
+            } else {
+                future.completeExceptionally(ar.cause());
+            }
+        };
+    }
+}
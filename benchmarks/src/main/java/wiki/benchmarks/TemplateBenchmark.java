@@ -0,0 +1,99 @@
+package wiki.benchmarks;
+
+import com.github.rjeschke.txtmark.Processor;
+import freemarker.template.Configuration;
+import freemarker.template.Template;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FreeMarker rendering of the wiki templates.
+ * <p>
+ * The templates are loaded from the wiki jar and rendered against a map shaped like the routing context data that
+ * {@code HttpServerVerticle} puts in place, so this measures the template work without the HTTP stack around it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class PageState {
+
+        @Param({"SMALL", "MEDIUM", "HUGE"})
+        public PageSize size;
+
+        Template template;
+        Map<String, Object> model;
+
+        @Setup
+        public void setUp() throws IOException {
+            template = configuration().getTemplate("page.ftl");
+            String markdown = Fixtures.markdown(size);
+            Map<String, Object> page = new HashMap<>();
+            page.put("title", "Benchmark");
+            page.put("id", 1);
+            page.put("newPage", "no");
+            page.put("rawContent", markdown);
+            page.put("content", Processor.process(markdown));
+            page.put("timestamp", new Date().toString());
+            model = Collections.singletonMap("context", page);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class IndexState {
+
+        @Param({"10", "1000"})
+        public int pageCount;
+
+        Template template;
+        Map<String, Object> model;
+
+        @Setup
+        public void setUp() throws IOException {
+            template = configuration().getTemplate("index.ftl");
+            List<String> pages = new ArrayList<>();
+            for (int i = 0; i < pageCount; i++) {
+                pages.add("Page" + i);
+            }
+            Map<String, Object> index = new HashMap<>();
+            index.put("title", "Wiki home");
+            index.put("pages", pages);
+            index.put("backup_location", "");
+            model = Collections.singletonMap("context", index);
+        }
+    }
+
+    private static Configuration configuration() {
+        Configuration configuration = new Configuration(Configuration.VERSION_2_3_22);
+        configuration.setClassForTemplateLoading(TemplateBenchmark.class, "/templates");
+        configuration.setDefaultEncoding("UTF-8");
+        return configuration;
+    }
+
+    @Benchmark
+    public String renderPage(PageState state) throws Exception {
+        StringWriter out = new StringWriter();
+        state.template.process(state.model, out);
+        return out.toString();
+    }
+
+    @Benchmark
+    public String renderIndex(IndexState state) throws Exception {
+        StringWriter out = new StringWriter();
+        state.template.process(state.model, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,211 @@
+package wiki.benchmarks.load;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.client.WebClientOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.benchmarks.Fixtures;
+import wiki.benchmarks.PageSize;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seeds the wiki with pages, then drives the configured route mix at fixed open-loop rates and completes the report
+ * future with per-route latency percentiles.
+ * <p>
+ * Everything runs on the verticle event loop: the scheduler tick, the web client callbacks and the histograms.
+ */
+public class LoadGenerator extends AbstractVerticle {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final int SEED_BATCH_SIZE = 500;
+    private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private final Future<JsonObject> report;
+
+    private WebClient webClient;
+    private Random random;
+    private String markdown;
+    private final List<Integer> pageIds = new ArrayList<>();
+    private final List<String> pageNames = new ArrayList<>();
+    private final ArrayDeque<Integer> doomedIds = new ArrayDeque<>();
+    private final List<RouteLoad> routes = new ArrayList<>();
+    private long updates;
+
+    public LoadGenerator(Future<JsonObject> report) {
+        this.report = report;
+    }
+
+    @Override
+    public void start() throws Exception {
+        JsonObject config = config();
+        webClient = WebClient.create(vertx, new WebClientOptions()
+                .setDefaultHost(config.getString(LoadTest.CONFIG_HOST, "localhost"))
+                .setDefaultPort(config.getInteger(LoadTest.CONFIG_PORT, 8080))
+                .setMaxPoolSize(config.getInteger(LoadTest.CONFIG_CONNECTIONS, 64))
+                .setKeepAlive(true));
+        random = new Random(config.getLong(LoadTest.CONFIG_SEED, 42L));
+        markdown = Fixtures.markdown(PageSize.valueOf(config.getString(LoadTest.CONFIG_PAGE_SIZE, "MEDIUM")));
+
+        JsonObject rates = config.getJsonObject(LoadTest.CONFIG_RATES, new JsonObject());
+        for (LoadRoute route : LoadRoute.values()) {
+            double rate = rates.getDouble(route.name().toLowerCase(), 0.0);
+            if (rate > 0) {
+                routes.add(new RouteLoad(route, rate));
+            }
+        }
+
+        long warmupSeconds = config.getLong(LoadTest.CONFIG_WARMUP_SECONDS, 5L);
+        long durationSeconds = config.getLong(LoadTest.CONFIG_DURATION_SECONDS, 30L);
+        int pages = config.getInteger(LoadTest.CONFIG_PAGES, 1000);
+        int doomed = (int) Math.ceil(rates.getDouble("delete", 0.0) * (warmupSeconds + durationSeconds)) + 1;
+
+        seed("Page-", pages, 0, seeded -> {
+            if (seeded.failed()) {
+                report.fail(seeded.cause());
+                return;
+            }
+            seed("Doomed-", doomed, 0, doomedSeeded -> {
+                if (doomedSeeded.failed()) {
+                    report.fail(doomedSeeded.cause());
+                    return;
+                }
+                collectIds(-1, collected -> {
+                    if (collected.failed()) {
+                        report.fail(collected.cause());
+                        return;
+                    }
+                    LOGGER.info("Seeded {} pages and {} pages to delete, starting load", pageIds.size(), doomedIds.size());
+                    run(TimeUnit.SECONDS.toNanos(warmupSeconds), TimeUnit.SECONDS.toNanos(durationSeconds));
+                });
+            });
+        });
+    }
+
+    @Override
+    public void stop() throws Exception {
+        webClient.close();
+    }
+
+    private void seed(String prefix, int count, int from, Handler<AsyncResult<Void>> done) {
+        if (from >= count) {
+            done.handle(Future.succeededFuture());
+            return;
+        }
+        JsonArray batch = new JsonArray();
+        for (int i = from; i < Math.min(count, from + SEED_BATCH_SIZE); i++) {
+            batch.add(new JsonObject().put("name", prefix + i).put("markdown", markdown));
+        }
+        webClient.post("/api/pages/_bulk").sendJson(batch, ar -> {
+            if (ar.failed()) {
+                done.handle(Future.failedFuture(ar.cause()));
+            } else if (ar.result().statusCode() != 201) {
+                done.handle(Future.failedFuture("Seeding failed with status " + ar.result().statusCode()));
+            } else {
+                seed(prefix, count, from + SEED_BATCH_SIZE, done);
+            }
+        });
+    }
+
+    private void collectIds(int after, Handler<AsyncResult<Void>> done) {
+        webClient.get("/api/pages?limit=1000&after=" + after).send(ar -> {
+            if (ar.failed()) {
+                done.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            JsonObject body = ar.result().bodyAsJsonObject();
+            for (Object entry : body.getJsonArray("pages")) {
+                JsonObject page = (JsonObject) entry;
+                if (page.getString("name").startsWith("Doomed-")) {
+                    doomedIds.add(page.getInteger("id"));
+                } else {
+                    pageIds.add(page.getInteger("id"));
+                    pageNames.add(page.getString("name"));
+                }
+            }
+            if (body.containsKey("next")) {
+                collectIds(body.getInteger("next"), done);
+            } else {
+                done.handle(Future.succeededFuture());
+            }
+        });
+    }
+
+    private void run(long warmupNanos, long durationNanos) {
+        long startNanos = System.nanoTime();
+        long measureFromNanos = startNanos + warmupNanos;
+        long endNanos = measureFromNanos + durationNanos;
+        vertx.setPeriodic(1, timer -> {
+            long now = System.nanoTime();
+            for (RouteLoad load : routes) {
+                long due;
+                while ((due = load.nextDueNanos(startNanos)) <= now && due < endNanos) {
+                    load.scheduled();
+                    send(load, due, due >= measureFromNanos);
+                }
+            }
+            if (now >= endNanos) {
+                long outstanding = routes.stream().mapToLong(RouteLoad::outstanding).sum();
+                if (outstanding == 0 || now >= endNanos + DRAIN_TIMEOUT_NANOS) {
+                    vertx.cancelTimer(timer);
+                    report.complete(report(durationNanos, outstanding));
+                }
+            }
+        });
+    }
+
+    private void send(RouteLoad load, long dueNanos, boolean measured) {
+        long sentNanos = System.nanoTime();
+        Handler<AsyncResult<HttpResponse<Buffer>>> handler = ar -> load.record(measured,
+                ar.succeeded() ? ar.result().statusCode() : 0, dueNanos, sentNanos, System.nanoTime());
+        switch (load.route) {
+            case WIKI:
+                webClient.get("/wiki/" + pageNames.get(random.nextInt(pageNames.size()))).send(handler);
+                break;
+            case LIST:
+                webClient.get("/api/pages").send(handler);
+                break;
+            case GET:
+                webClient.get("/api/pages/" + randomPageId()).send(handler);
+                break;
+            case UPDATE:
+                webClient.put("/api/pages/" + randomPageId())
+                        .sendJsonObject(new JsonObject().put("markdown", markdown + "\nUpdate " + (++updates) + "\n"), handler);
+                break;
+            case DELETE:
+                Integer id = doomedIds.poll();
+                webClient.delete("/api/pages/" + (id != null ? id : -1)).send(handler);
+                break;
+        }
+    }
+
+    private int randomPageId() {
+        return pageIds.get(random.nextInt(pageIds.size()));
+    }
+
+    private JsonObject report(long durationNanos, long outstanding) {
+        double measuredSeconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        JsonObject results = new JsonObject();
+        routes.forEach(load -> results.put(load.route.name().toLowerCase(), load.toJson(measuredSeconds)));
+        return new JsonObject()
+                .put("finishedAt", Instant.now())
+                .put("config", config())
+                .put("measuredSeconds", measuredSeconds)
+                .put("outstanding", outstanding)
+                .put("routes", results);
+    }
+}
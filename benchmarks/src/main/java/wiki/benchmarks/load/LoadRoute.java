@@ -0,0 +1,32 @@
+package wiki.benchmarks.load;
+
+/**
+ * Routes that can be part of a load mix, named as in the {@code rates} object of the load test configuration.
+ */
+enum LoadRoute {
+
+    /**
+     * {@code GET /wiki/:page}, the rendered HTML page.
+     */
+    WIKI,
+
+    /**
+     * {@code GET /api/pages}, the first page of the page listing.
+     */
+    LIST,
+
+    /**
+     * {@code GET /api/pages/:id}.
+     */
+    GET,
+
+    /**
+     * {@code PUT /api/pages/:id}.
+     */
+    UPDATE,
+
+    /**
+     * {@code DELETE /api/pages/:id}, on pages seeded only to be deleted.
+     */
+    DELETE
+}
@@ -0,0 +1,120 @@
+package wiki.benchmarks.load;
+
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Future;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.MainVerticle;
+import wiki.database.WikiDatabaseVerticle;
+import wiki.http.HttpServerVerticle;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end HTTP load test: deploys {@link MainVerticle} in-process over an in-memory HSQLDB database, drives it with
+ * a {@link LoadGenerator} and writes the JSON report.
+ * <p>
+ * Usage: {@code java -cp benchmarks/target/benchmarks.jar wiki.benchmarks.load.LoadTest [config.json]}, where the
+ * optional configuration overrides the defaults below, e.g.
+ * <pre>
+ * {
+ *   "durationSeconds": 60,
+ *   "rates": { "wiki": 500, "list": 50, "get": 500, "update": 50, "delete": 5 },
+ *   "output": "reports/load-1.2.json"
+ * }
+ * </pre>
+ * Rates are requests per second for each route; routes without a rate are not exercised.
+ */
+public class LoadTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadTest.class);
+
+    public static final String CONFIG_HOST = "host";
+    public static final String CONFIG_PORT = "port";
+    public static final String CONFIG_CONNECTIONS = "connections";
+    public static final String CONFIG_PAGES = "pages";
+    public static final String CONFIG_PAGE_SIZE = "pageSize";
+    public static final String CONFIG_WARMUP_SECONDS = "warmupSeconds";
+    public static final String CONFIG_DURATION_SECONDS = "durationSeconds";
+    public static final String CONFIG_SEED = "seed";
+    public static final String CONFIG_RATES = "rates";
+    public static final String CONFIG_OUTPUT = "output";
+
+    private static final JsonObject DEFAULTS = new JsonObject()
+            .put(CONFIG_HOST, "localhost")
+            .put(CONFIG_PORT, 8080)
+            .put(CONFIG_CONNECTIONS, 64)
+            .put(CONFIG_PAGES, 1000)
+            .put(CONFIG_PAGE_SIZE, "MEDIUM")
+            .put(CONFIG_WARMUP_SECONDS, 5)
+            .put(CONFIG_DURATION_SECONDS, 30)
+            .put(CONFIG_SEED, 42)
+            .put(CONFIG_RATES, new JsonObject()
+                    .put("wiki", 200)
+                    .put("list", 20)
+                    .put("get", 200)
+                    .put("update", 20)
+                    .put("delete", 2))
+            .put(CONFIG_OUTPUT, "target/load-report.json");
+
+    public static void main(String[] args) throws Exception {
+        JsonObject config = DEFAULTS.copy();
+        if (args.length > 0) {
+            config.mergeIn(new JsonObject(new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8)));
+        }
+        if (config.getInteger(CONFIG_PAGES) < 1) {
+            throw new IllegalArgumentException("At least one page must be seeded");
+        }
+
+        Vertx vertx = Vertx.vertx();
+        try {
+            JsonObject wikiConfig = new JsonObject()
+                    .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:loadtest;shutdown=true")
+                    .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                    .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, config.getInteger(CONFIG_PORT));
+            CompletableFuture<String> deployed = new CompletableFuture<>();
+            vertx.deployVerticle(new MainVerticle(), new DeploymentOptions().setConfig(wikiConfig), ar -> {
+                if (ar.succeeded()) {
+                    deployed.complete(ar.result());
+                } else {
+                    deployed.completeExceptionally(ar.cause());
+                }
+            });
+            deployed.get(60, TimeUnit.SECONDS);
+
+            CompletableFuture<JsonObject> done = new CompletableFuture<>();
+            Future<JsonObject> report = Future.future();
+            report.setHandler(ar -> {
+                if (ar.succeeded()) {
+                    done.complete(ar.result());
+                } else {
+                    done.completeExceptionally(ar.cause());
+                }
+            });
+            vertx.deployVerticle(new LoadGenerator(report), new DeploymentOptions().setConfig(config));
+            JsonObject result = done.get();
+
+            File output = new File(config.getString(CONFIG_OUTPUT));
+            if (output.getAbsoluteFile().getParentFile() != null) {
+                output.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            Files.write(output.toPath(), result.encodePrettily().getBytes(StandardCharsets.UTF_8));
+            result.getJsonObject("routes").forEach(route -> {
+                JsonObject latency = ((JsonObject) route.getValue()).getJsonObject("latencyMicros");
+                LOGGER.info("{}: p50={}us p99={}us p99.9={}us max={}us", route.getKey(),
+                        latency.getLong("p50"), latency.getLong("p99"), latency.getLong("p999"), latency.getLong("max"));
+            });
+            LOGGER.info("Report written to {}", output.getAbsolutePath());
+        } finally {
+            CompletableFuture<Void> closed = new CompletableFuture<>();
+            vertx.close(ar -> closed.complete(null));
+            closed.get(30, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package wiki.benchmarks.load;
+
+import io.vertx.core.json.JsonObject;
+import org.HdrHistogram.Histogram;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open-loop schedule and latency recording for one route of the load mix.
+ * <p>
+ * Requests are due at fixed intervals from the start of the run, whether or not earlier requests have completed.
+ * The corrected histogram measures from the time a request was due, so that a stalled server is charged for the
+ * requests it held back (coordinated omission); the uncorrected histogram measures from the time it was sent.
+ * Instances are confined to the load generator event loop.
+ */
+class RouteLoad {
+
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+
+    final LoadRoute route;
+    final double rate;
+    private final long intervalNanos;
+
+    private long scheduled;
+    private long completed;
+    private long errors;
+    private final JsonObject statusCodes = new JsonObject();
+    private final Histogram corrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+    private final Histogram uncorrected = new Histogram(HIGHEST_TRACKABLE_MICROS, 3);
+
+    RouteLoad(LoadRoute route, double rate) {
+        this.route = route;
+        this.rate = rate;
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / rate);
+    }
+
+    /**
+     * @return the time the next request is due, relative to {@code startNanos}
+     */
+    long nextDueNanos(long startNanos) {
+        return startNanos + scheduled * intervalNanos;
+    }
+
+    void scheduled() {
+        scheduled++;
+    }
+
+    void record(boolean measured, int statusCode, long dueNanos, long sentNanos, long endNanos) {
+        completed++;
+        if (!measured) {
+            return;
+        }
+        if (statusCode < 200 || statusCode >= 300) {
+            errors++;
+        }
+        String key = statusCode > 0 ? String.valueOf(statusCode) : "failed";
+        statusCodes.put(key, statusCodes.getLong(key, 0L) + 1);
+        corrected.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(endNanos - dueNanos)));
+        uncorrected.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, TimeUnit.NANOSECONDS.toMicros(endNanos - sentNanos)));
+    }
+
+    long outstanding() {
+        return scheduled - completed;
+    }
+
+    JsonObject toJson(double measuredSeconds) {
+        long measured = corrected.getTotalCount();
+        return new JsonObject()
+                .put("targetRate", rate)
+                .put("achievedRate", measuredSeconds > 0 ? measured / measuredSeconds : 0.0)
+                .put("requests", measured)
+                .put("errors", errors)
+                .put("statusCodes", statusCodes)
+                .put("latencyMicros", percentiles(corrected))
+                .put("uncorrectedLatencyMicros", percentiles(uncorrected))
+                .put("histogram", encode(corrected));
+    }
+
+    private static JsonObject percentiles(Histogram histogram) {
+        return new JsonObject()
+                .put("min", histogram.getMinValue())
+                .put("mean", histogram.getMean())
+                .put("p50", histogram.getValueAtPercentile(50))
+                .put("p90", histogram.getValueAtPercentile(90))
+                .put("p99", histogram.getValueAtPercentile(99))
+                .put("p999", histogram.getValueAtPercentile(99.9))
+                .put("max", histogram.getMaxValue());
+    }
+
+    /*
+     * Compressed HdrHistogram encoding, so that runs can be merged or re-plotted later without losing resolution.
+     */
+    private static String encode(Histogram histogram) {
+        ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+        int length = histogram.encodeIntoCompressedByteBuffer(buffer);
+        byte[] bytes = new byte[length];
+        buffer.flip();
+        buffer.get(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+}
@@ -39,16 +39,18 @@ import io.vertx.serviceproxy.ProxyHelper;
 import io.vertx.serviceproxy.ProxyHandler;
 import io.vertx.serviceproxy.ServiceException;
 import io.vertx.serviceproxy.ServiceExceptionMessageCodec;
-import io.vertx.core.json.JsonArray;
-import java.util.List;
 import wiki.database.WikiDatabaseService;
-import io.vertx.ext.jdbc.JDBCClient;
 import wiki.database.SqlQuery;
 import io.vertx.core.Vertx;
-import io.vertx.core.json.JsonObject;
 import java.util.HashMap;
+import wiki.database.PageSummary;
+import io.vertx.core.json.JsonArray;
+import java.util.List;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.core.json.JsonObject;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
+import wiki.database.Page;
 
 /*
   Generated Proxy code - DO NOT EDIT
@@ -131,8 +133,32 @@ public class WikiDatabaseServiceVertxProxyHandler extends ProxyHandler {
           service.fetchAllPages(createHandler(msg));
           break;
         }
+        case "fetchPageNames": {
+          service.fetchPageNames((java.lang.String)json.getValue("prefix"), (java.lang.String)json.getValue("after"), json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), res -> {
+            if (res.failed()) {
+              if (res.cause() instanceof ServiceException) {
+                msg.reply(res.cause());
+              } else {
+                msg.reply(new ServiceException(-1, res.cause().getMessage()));
+              }
+            } else {
+              msg.reply(new JsonArray(res.result().stream().map(PageSummary::toJson).collect(Collectors.toList())));
+            }
+         });
+          break;
+        }
         case "fetchPage": {
-          service.fetchPage((java.lang.String)json.getValue("name"), createHandler(msg));
+          service.fetchPage((java.lang.String)json.getValue("name"), res -> {
+            if (res.failed()) {
+              if (res.cause() instanceof ServiceException) {
+                msg.reply(res.cause());
+              } else {
+                msg.reply(new ServiceException(-1, res.cause().getMessage()));
+              }
+            } else {
+              msg.reply(res.result() == null ? null : res.result().toJson());
+            }
+         });
           break;
         }
         case "createPage": {
@@ -143,14 +169,91 @@ public class WikiDatabaseServiceVertxProxyHandler extends ProxyHandler {
           service.savePage(json.getValue("id") == null ? null : (json.getLong("id").intValue()), (java.lang.String)json.getValue("markdown"), createHandler(msg));
           break;
         }
+        case "savePageIfVersion": {
+          service.savePageIfVersion(json.getValue("id") == null ? null : (json.getLong("id").intValue()), json.getValue("version") == null ? null : (json.getLong("version").intValue()), (java.lang.String)json.getValue("markdown"), createHandler(msg));
+          break;
+        }
         case "deletePage": {
           service.deletePage(json.getValue("id") == null ? null : (json.getLong("id").intValue()), createHandler(msg));
           break;
         }
         case "fetchAllPagesData": {
-          service.fetchAllPagesData(createListHandler(msg));
+          service.fetchAllPagesData(res -> {
+            if (res.failed()) {
+              if (res.cause() instanceof ServiceException) {
+                msg.reply(res.cause());
+              } else {
+                msg.reply(new ServiceException(-1, res.cause().getMessage()));
+              }
+            } else {
+              msg.reply(new JsonArray(res.result().stream().map(Page::toJson).collect(Collectors.toList())));
+            }
+         });
+          break;
+        }
+        case "fetchPageById": {
+          service.fetchPageById(json.getValue("id") == null ? null : (json.getLong("id").intValue()), res -> {
+            if (res.failed()) {
+              if (res.cause() instanceof ServiceException) {
+                msg.reply(res.cause());
+              } else {
+                msg.reply(new ServiceException(-1, res.cause().getMessage()));
+              }
+            } else {
+              msg.reply(res.result() == null ? null : res.result().toJson());
+            }
+         });
+          break;
+        }
+        case "fetchPagesPage": {
+          service.fetchPagesPage(json.getValue("afterId") == null ? null : (json.getLong("afterId").intValue()), json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), res -> {
+            if (res.failed()) {
+              if (res.cause() instanceof ServiceException) {
+                msg.reply(res.cause());
+              } else {
+                msg.reply(new ServiceException(-1, res.cause().getMessage()));
+              }
+            } else {
+              msg.reply(new JsonArray(res.result().stream().map(PageSummary::toJson).collect(Collectors.toList())));
+            }
+         });
+          break;
+        }
+        case "streamPagesData": {
+          service.streamPagesData((java.lang.String)json.getValue("address"), json.getValue("batchSize") == null ? null : (json.getLong("batchSize").intValue()), createHandler(msg));
           break;
         }
+        case "createPages": {
+          service.createPages(convertList(json.getJsonArray("pages").getList()), createHandler(msg));
+          break;
+        }
+        case "savePages": {
+          service.savePages(convertList(json.getJsonArray("pages").getList()), createHandler(msg));
+          break;
+        }
+        case "search": {
+          service.search((java.lang.String)json.getValue("query"), json.getValue("limit") == null ? null : (json.getLong("limit").intValue()), createListHandler(msg));
+          break;
+        }
+        case "fetchRevisions": {
+          service.fetchRevisions(json.getValue("id") == null ? null : (json.getLong("id").intValue()), createListHandler(msg));
+          break;
+        }
+        case "fetchRevision": {
+          service.fetchRevision(json.getValue("id") == null ? null : (json.getLong("id").intValue()), json.getValue("revision") == null ? null : (json.getLong("revision").intValue()), createHandler(msg));
+          break;
+        }
+        case "fetchRevisionDiff": {
+          service.fetchRevisionDiff(json.getValue("id") == null ? null : (json.getLong("id").intValue()), json.getValue("from") == null ? null : (json.getLong("from").intValue()), json.getValue("to") == null ? null : (json.getLong("to").intValue()), createHandler(msg));
+          break;
+        }
+        case "fetchPoolMetrics": {
+          service.fetchPoolMetrics(createHandler(msg));
+          break;
+        }
+
+
+
 
 
         default: {
@@ -3,7 +3,10 @@ package wiki;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.json.JsonObject;
+import wiki.database.ReadModelVerticle;
 import wiki.database.WikiDatabaseVerticle;
+import wiki.http.HttpServerVerticle;
 
 /**
  * Created by Administrator on 2017/9/7.
@@ -12,15 +15,37 @@ public class MainVerticle extends AbstractVerticle {
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
+        int cores = Runtime.getRuntime().availableProcessors();  //默认的实例数取决于CPU核数：默认的事件循环线程数为核数的两倍，HTTP和数据库各占一部分
+        int httpInstances = config().getInteger(HttpServerVerticle.CONFIG_HTTP_SERVER_INSTANCES, cores);
+        int dbInstances = config().getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_INSTANCES, Math.max(1, cores / 2));
+
         Future<String> dbVerticleDeployment = Future.future();  //(1)部署一个verticle是一个异步操作，所以我们需要一个Future。该String参数的类型是因为成功地部署当verticle得到的标识符。
-        vertx.deployVerticle(new WikiDatabaseVerticle(), dbVerticleDeployment.completer());  //(2)一个选择是创建一个verticle实例new，并将对象引用传递给该deploy方法。该completer返回值是简单地完成其未来的处理程序
+        vertx.deployVerticle(
+                "wiki.database.WikiDatabaseVerticle",  //(2)部署多个实例时必须使用类名，每个实例在自己的事件循环上处理请求，共享同一个服务实现
+                new DeploymentOptions().setInstances(dbInstances).setConfig(config()),
+                dbVerticleDeployment.completer());
+
+        boolean readModel = config().getBoolean(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL, false);  //页面读取由内存中的读模型响应，写入仍由数据库服务处理
+        JsonObject httpConfig = !readModel ? config() : config().copy()  //HTTP verticle改用读模型的队列，并跟随读模型重新发布的变更事件，以免缓存读模型尚未应用的页面
+                .put(HttpServerVerticle.CONFIG_WIKIDB_QUEUE, config().getString(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_QUEUE, "wikidb.read_model.queue"))
+                .put(HttpServerVerticle.CONFIG_WIKIDB_CHANGES, config().getString(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.events"))  //变更流仍取自数据库服务，保持序号顺序
+                .put(HttpServerVerticle.CONFIG_WIKIDB_EVENTS, config().getString(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_EVENTS, "wikidb.read_model.events"));
+
+        dbVerticleDeployment.compose(id -> {
+            Future<String> readModelDeployment = Future.future();
+            if (readModel) {
+                vertx.deployVerticle(new ReadModelVerticle(), new DeploymentOptions().setConfig(config()), readModelDeployment.completer());
+            } else {
+                readModelDeployment.complete();
+            }
+            return readModelDeployment;
 
-        dbVerticleDeployment.compose(id -> {  //(3)顺序组合compose允许在另一个之后运行一个异步操作。当初始未来成功完成时，将调用组合函数
+        }).compose(id -> {  //(3)顺序组合compose允许在另一个之后运行一个异步操作。当初始未来成功完成时，将调用组合函数
 
             Future<String> httpVerticleDeployment = Future.future();
             vertx.deployVerticle(
                     "wiki.http.HttpServerVerticle",  //(4)作为字符串的类名称也是指定要部署的垂直线的选项。对于其他JVM语言，基于字符串的约定允许指定模块/脚本。
-            new DeploymentOptions().setInstances(2),   // (5)在DeploymentOption类允许指定的若干参数，特别是实例来部署的数目。
+            new DeploymentOptions().setInstances(httpInstances).setConfig(httpConfig),   // (5)在DeploymentOption类允许指定的若干参数，特别是实例来部署的数目。
             httpVerticleDeployment.completer());
 
             return httpVerticleDeployment;  //(6)组合函数返回下一个未来。其完成将触发复合操作的完成。
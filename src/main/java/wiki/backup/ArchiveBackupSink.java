@@ -0,0 +1,95 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes pages as a gzip-compressed NDJSON archive (one {@code {id, name, content}} JSON object per line) to a
+ * {@link WriteStream}. Compressed bytes are handed to the stream after each batch, so memory use is bounded by the
+ * batch size, and writes complete only once the stream has drained.
+ */
+public abstract class ArchiveBackupSink implements BackupSink {
+
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream(64 * 1024);
+    private final GZIPOutputStream gzip;
+    private long rawBytes;
+    private long archiveBytes;
+
+    protected ArchiveBackupSink() {
+        try {
+            gzip = new GZIPOutputStream(compressed, 64 * 1024);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Where the compressed archive goes.
+     */
+    protected abstract WriteStream<Buffer> stream();
+
+    /**
+     * Called once the whole archive has been written to {@link #stream()}.
+     */
+    protected abstract void finish(Handler<AsyncResult<String>> handler);
+
+    @Override
+    public void write(List<JsonObject> pages, Handler<AsyncResult<Void>> handler) {
+        try {
+            for (JsonObject page : pages) {
+                byte[] line = (page.encode() + '\n').getBytes(StandardCharsets.UTF_8);
+                rawBytes += line.length;
+                gzip.write(line);
+            }
+        } catch (IOException e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        flush();
+        if (stream().writeQueueFull()) {
+            stream().drainHandler(v -> {
+                stream().drainHandler(null);  //只对这一批生效，否则以后每次排空都会再次调用它
+                handler.handle(Future.succeededFuture());
+            });
+        } else {
+            handler.handle(Future.succeededFuture());
+        }
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<String>> handler) {
+        try {
+            gzip.finish();
+        } catch (IOException e) {
+            handler.handle(Future.failedFuture(e));
+            return;
+        }
+        flush();
+        finish(handler);
+    }
+
+    private void flush() {
+        if (compressed.size() > 0) {
+            archiveBytes += compressed.size();
+            stream().write(Buffer.buffer(compressed.toByteArray()));
+            compressed.reset();
+        }
+    }
+
+    @Override
+    public JsonObject stats() {
+        return new JsonObject()
+                .put("rawBytes", rawBytes)
+                .put("archiveBytes", archiveBytes);
+    }
+}
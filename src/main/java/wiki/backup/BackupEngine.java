@@ -0,0 +1,118 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.database.Page;
+import wiki.database.PageCodec;
+import wiki.database.WikiDatabaseService;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Streams every page from the database to a {@link BackupSink}, one batch at a time, using
+ * {@link WikiDatabaseService#streamPagesData(String, int, Handler)}. A batch is only acknowledged to the database
+ * once the sink has written it, so heap use does not depend on the size of the wiki (for sinks that do not buffer).
+ * <p>
+ * Progress is logged periodically, and the result handler gets a report with throughput metrics.
+ */
+public class BackupEngine {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BackupEngine.class);
+
+    private static final long PROGRESS_INTERVAL = 5000;
+
+    private final Vertx vertx;
+    private final WikiDatabaseService dbService;
+    private final int batchSize;
+
+    public BackupEngine(Vertx vertx, WikiDatabaseService dbService, int batchSize) {
+        this.vertx = vertx;
+        this.dbService = dbService;
+        this.batchSize = batchSize;
+        PageCodec.register(vertx);
+    }
+
+    public void run(BackupSink sink, Handler<AsyncResult<JsonObject>> resultHandler) {
+        String address = "wiki.backup." + UUID.randomUUID();
+        long startedAt = System.nanoTime();
+        long[] pageCount = new long[1];
+
+        MessageConsumer<Object> consumer = vertx.eventBus().consumer(address);
+        long progressTimer = vertx.setPeriodic(PROGRESS_INTERVAL, tick ->
+                LOGGER.info("Backup in progress: " + report(sink, startedAt, pageCount[0]).encode()));
+
+        Future<JsonObject> done = Future.future();
+        done.setHandler(ar -> {
+            vertx.cancelTimer(progressTimer);
+            consumer.unregister();
+            if (ar.succeeded()) {
+                LOGGER.info("Backup completed: " + ar.result().encode());
+            } else {
+                LOGGER.error("Backup failed", ar.cause());
+                sink.abort();
+            }
+            resultHandler.handle(ar);
+        });
+
+        consumer.handler(message -> {
+            if (message.body() instanceof List) {
+                @SuppressWarnings("unchecked")
+                List<Page> batch = (List<Page>) message.body();
+                List<JsonObject> pages = new ArrayList<>(batch.size());
+                batch.forEach(page -> pages.add(page.toJson()));
+                sink.write(pages, written -> {
+                    if (written.succeeded()) {
+                        pageCount[0] += pages.size();
+                        message.reply(null);
+                    } else {
+                        message.fail(500, String.valueOf(written.cause().getMessage()));
+                        done.tryFail(written.cause());
+                    }
+                });
+            } else if (((JsonObject) message.body()).containsKey("error")) {
+                done.tryFail(((JsonObject) message.body()).getString("error"));
+            } else {
+                sink.end(ended -> {
+                    if (ended.succeeded()) {
+                        done.tryComplete(report(sink, startedAt, pageCount[0]).put("location", ended.result()));
+                    } else {
+                        done.tryFail(ended.cause());
+                    }
+                });
+            }
+        });
+
+        consumer.completionHandler(registered -> {
+            if (registered.failed()) {
+                done.tryFail(registered.cause());
+                return;
+            }
+            dbService.streamPagesData(address, batchSize, started -> {
+                if (started.failed()) {
+                    done.tryFail(started.cause());
+                }
+            });
+        });
+    }
+
+    private JsonObject report(BackupSink sink, long startedAt, long pages) {
+        long elapsedMillis = Math.max(1, (System.nanoTime() - startedAt) / 1_000_000);
+        JsonObject report = new JsonObject()
+                .put("pages", pages)
+                .put("elapsedMillis", elapsedMillis)
+                .put("pagesPerSecond", pages * 1000 / elapsedMillis);
+        sink.stats().forEach(stat -> report.put(stat.getKey(), stat.getValue()));
+        if (report.containsKey("rawBytes")) {
+            report.put("rawBytesPerSecond", report.getLong("rawBytes") * 1000 / elapsedMillis);
+        }
+        return report;
+    }
+}
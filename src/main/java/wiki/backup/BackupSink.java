@@ -0,0 +1,36 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+
+import java.util.List;
+
+/**
+ * Destination of a backup run by {@link BackupEngine}. Pages are handed over batch by batch, and the next batch only
+ * comes once the previous write has completed, so a sink applies backpressure by completing writes late.
+ */
+public interface BackupSink {
+
+    /**
+     * Writes a batch of pages, each being a {@code {id, name, content}} object.
+     */
+    void write(List<JsonObject> pages, Handler<AsyncResult<Void>> handler);
+
+    /**
+     * All pages have been written. The handler gets where the backup went (a file path or a URL).
+     */
+    void end(Handler<AsyncResult<String>> handler);
+
+    /**
+     * The backup failed, the sink releases whatever it holds.
+     */
+    void abort();
+
+    /**
+     * Sink specific metrics, added to the backup report.
+     */
+    default JsonObject stats() {
+        return new JsonObject();
+    }
+}
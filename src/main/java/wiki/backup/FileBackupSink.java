@@ -0,0 +1,56 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.streams.WriteStream;
+
+import java.io.File;
+
+/**
+ * Writes the backup archive to a local file.
+ */
+public class FileBackupSink extends ArchiveBackupSink {
+
+    private final Vertx vertx;
+    private final String path;
+    private final AsyncFile file;
+
+    private FileBackupSink(Vertx vertx, String path, AsyncFile file) {
+        this.vertx = vertx;
+        this.path = path;
+        this.file = file;
+    }
+
+    public static void open(Vertx vertx, String path, Handler<AsyncResult<BackupSink>> handler) {
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        vertx.fileSystem().mkdirs(parent.getPath(), mkdirs -> {
+            if (mkdirs.failed()) {
+                handler.handle(Future.failedFuture(mkdirs.cause()));
+                return;
+            }
+            vertx.fileSystem().open(path, new OpenOptions().setCreate(true).setTruncateExisting(true), ar ->
+                    handler.handle(ar.map(file -> new FileBackupSink(vertx, path, file))));
+        });
+    }
+
+    @Override
+    protected WriteStream<Buffer> stream() {
+        return file;
+    }
+
+    @Override
+    protected void finish(Handler<AsyncResult<String>> handler) {
+        file.close(ar -> handler.handle(ar.map(path)));
+    }
+
+    @Override
+    public void abort() {
+        file.close(ar -> vertx.fileSystem().delete(path, deleted -> {
+        }));
+    }
+}
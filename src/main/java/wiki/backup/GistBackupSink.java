@@ -0,0 +1,74 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.HttpResponse;
+import io.vertx.ext.web.client.WebClient;
+import io.vertx.ext.web.codec.BodyCodec;
+
+import java.util.List;
+
+/**
+ * Creates a GitHub gist with one file per page.
+ * <p>
+ * The gist API takes the whole gist as a single JSON document, so unlike the archive sinks this one holds every page
+ * in memory until the end of the backup.
+ */
+public class GistBackupSink implements BackupSink {
+
+    private final WebClient webClient;
+    private final JsonObject filesObject = new JsonObject();
+    private final JsonObject gistPayload = new JsonObject() //(1)Gist创建请求有效负载是GitHub API文档中概述的JSON 文档
+            .put("files", filesObject)
+            .put("description", "A wiki backup")
+            .put("public", true);
+
+    public GistBackupSink(WebClient webClient) {
+        this.webClient = webClient;
+    }
+
+    @Override
+    public void write(List<JsonObject> pages, Handler<AsyncResult<Void>> handler) {
+        pages.forEach(page -> {
+            JsonObject fileObject = new JsonObject(); //(2)每个文件是files有效负载对象下的条目，其中标题是关键字，值是文本
+            filesObject.put(page.getString("name"), fileObject);
+            fileObject.put("content", page.getString("content"));
+        });
+        handler.handle(Future.succeededFuture());
+    }
+
+    @Override
+    public void end(Handler<AsyncResult<String>> handler) {
+        webClient.post(443, "api.github.com", "/gists") //(3)Web客户端需要POST在端口443（HTTPS）上发出请求，路径必须为/gists
+                .putHeader("Accept", "application/vnd.github.v3+json") //(4)Accept在application/vnd.github.v3+jsonMIME类型的请求中必须有头，否则请求失败。在下一行指定有效负载是JSON对象也很重要
+                .putHeader("Content-Type", "application/json")
+                .as(BodyCodec.jsonObject()) //(5)BodyCodec类提供了一个辅助指定该响应将被直接转换为Vert.x JsonObject实例
+                .sendJsonObject(gistPayload, ar -> {  //(6)sendJsonObject 是使用JSON有效负载触发HTTP请求的帮手
+                    if (ar.succeeded()) {
+                        HttpResponse<JsonObject> response = ar.result();
+                        if (response.statusCode() == 201) {
+                            handler.handle(Future.succeededFuture(response.body().getString("html_url")));  //(7)成功后，我们可以遍历JSON数据（html_url密钥）以获取新创建的Gist的用户友好的URL
+                        } else {
+                            StringBuilder message = new StringBuilder()
+                                    .append("Could not backup the wiki: ")
+                                    .append(response.statusMessage());
+                            JsonObject body = response.body();
+                            if (body != null) {
+                                message.append(System.getProperty("line.separator"))
+                                        .append(body.encodePrettily());
+                            }
+                            handler.handle(Future.failedFuture(message.toString()));
+                        }
+                    } else {
+                        handler.handle(Future.failedFuture(ar.cause()));
+                    }
+                });
+    }
+
+    @Override
+    public void abort() {
+        filesObject.clear();
+    }
+}
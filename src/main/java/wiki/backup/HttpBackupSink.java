@@ -0,0 +1,72 @@
+package wiki.backup;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientRequest;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.streams.WriteStream;
+
+import java.util.List;
+
+/**
+ * Uploads the backup archive to an HTTP endpoint, as the chunked body of a single {@code POST} request.
+ */
+public class HttpBackupSink extends ArchiveBackupSink {
+
+    private final HttpClientRequest request;
+    private final Future<String> response = Future.future();
+    private Handler<AsyncResult<String>> finishHandler;
+
+    public HttpBackupSink(HttpClient client, String url) {
+        this.request = client.postAbs(url, resp -> {
+            if (resp.statusCode() / 100 == 2) {
+                String location = resp.getHeader("Location");
+                response.tryComplete(location != null ? location : url);
+            } else {
+                response.tryFail("Could not upload the backup: " + resp.statusCode() + " " + resp.statusMessage());
+            }
+        });
+        request.setChunked(true)
+                .putHeader("Content-Type", "application/x-ndjson")
+                .putHeader("Content-Encoding", "gzip")
+                .exceptionHandler(response::tryFail);
+        response.setHandler(ar -> {
+            if (finishHandler != null) {
+                finishHandler.handle(ar);
+            }
+        });
+    }
+
+    @Override
+    public void write(List<JsonObject> pages, Handler<AsyncResult<Void>> handler) {
+        if (response.failed()) {
+            handler.handle(Future.failedFuture(response.cause()));
+        } else {
+            super.write(pages, handler);
+        }
+    }
+
+    @Override
+    protected WriteStream<Buffer> stream() {
+        return request;
+    }
+
+    @Override
+    protected void finish(Handler<AsyncResult<String>> handler) {
+        if (response.isComplete()) {
+            handler.handle(response);
+            return;
+        }
+        finishHandler = handler;
+        request.end();
+    }
+
+    @Override
+    public void abort() {
+        response.tryFail("Backup aborted");
+        request.reset();
+    }
+}
@@ -0,0 +1,48 @@
+package wiki.database;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Publishes the page change events of a database service: {@code {"sequence", "change", "id", "name", "version"}}.
+ * Sequence numbers start at 1 when the service starts and have no gaps; events are published in sequence order, so
+ * that a consumer that sees a gap knows it missed an event. Every event has the id of its page. The version is the one
+ * the page has after the change; it is missing from deletions, and so is a name the service does not know.
+ * <p>
+ * Sequence numbers give the order in which events are published, not the order in which changes are committed: the
+ * service publishes once a change completes, and changes complete concurrently. Consumers that keep something per
+ * page must compare versions, as an event may come after one about a newer version of the same page (only the log
+ * storage publishes the events of a page in version order).
+ * <p>
+ * It is thread-safe: the service publishes from the event loops of all the instances of its verticle, and from worker
+ * threads. Events are published before the caller of the change gets its reply, so that caches subscribed to the
+ * events address (e.g. the rendered page cache of each HttpServerVerticle) drop stale entries first.
+ */
+final class ChangeFeed {
+
+    private final Vertx vertx;
+    private final String address;
+    private long sequence;
+
+    ChangeFeed(Vertx vertx, String address) {
+        this.vertx = vertx;
+        this.address = address;
+    }
+
+    /*
+     * Numbering and publishing under the same lock is what keeps the events in sequence order on the event bus.
+     */
+    synchronized void publish(PageChange change, int id, String name, Integer version) {
+        JsonObject event = new JsonObject()
+                .put("sequence", ++sequence)
+                .put("change", change.name())
+                .put("id", id);
+        if (name != null) {
+            event.put("name", name);
+        }
+        if (version != null) {
+            event.put("version", version);
+        }
+        vertx.eventBus().publish(address, event);
+    }
+}
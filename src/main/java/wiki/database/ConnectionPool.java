@@ -0,0 +1,302 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.jdbc.JDBCClient;
+import io.vertx.ext.sql.SQLConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.metrics.LatencyHistogram;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Connection lifecycle wrapper around the {@link JDBCClient} pool: every connection handed out by
+ * {@link #withConnection(Handler, BiConsumer)} goes back to the pool once the work completes, whatever the outcome.
+ * <p>
+ * It also keeps pool metrics and, when a leak detection threshold is set, logs where any connection held for longer
+ * than that threshold was acquired. Leak detection is meant for diagnosis: it records a stack trace at every checkout.
+ * <p>
+ * After {@link #pin(int, Collection, Handler)}, work runs on a fixed set of long-lived connections instead, with the
+ * statements already prepared. A JDBC connection runs its statements one after the other from a queue, so requests
+ * sent to a pinned connection are pipelined rather than waiting for a connection checkout.
+ * <p>
+ * It is thread-safe, as it is shared by all the instances of the service verticle.
+ */
+class ConnectionPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionPool.class);
+
+    private static final class Lease {
+        final SQLConnection connection;
+        final PinnedConnection pinned;
+        final long acquiredAt = System.nanoTime();
+        final Throwable acquisitionSite;
+        volatile boolean reported;
+
+        Lease(SQLConnection connection, PinnedConnection pinned, Throwable acquisitionSite) {
+            this.connection = connection;
+            this.pinned = pinned;
+            this.acquisitionSite = acquisitionSite;
+        }
+    }
+
+    private static final class PinnedConnection {
+        final SQLConnection connection;
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        PinnedConnection(SQLConnection connection) {
+            this.connection = connection;
+        }
+    }
+
+    private final JDBCClient dbClient;
+    private final int maxPoolSize;
+    private final long leakThresholdNanos;
+    private final Vertx vertx;
+    private volatile List<PinnedConnection> pinned = Collections.emptyList();
+
+    private final Set<Lease> leases = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder acquisitionFailures = new LongAdder();
+    private final LongAdder leaksDetected = new LongAdder();
+    private final LatencyHistogram acquisitionLatency = new LatencyHistogram();
+    private final LatencyHistogram holdTime = new LatencyHistogram();
+
+    ConnectionPool(Vertx vertx, JDBCClient dbClient, int maxPoolSize, long leakThresholdMillis) {
+        this.vertx = vertx;
+        this.dbClient = dbClient;
+        this.maxPoolSize = maxPoolSize;
+        this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+        if (leakThresholdMillis > 0) {
+            vertx.setPeriodic(Math.max(leakThresholdMillis / 2, 100), tick -> detectLeaks());
+        }
+    }
+
+    /**
+     * Runs some work with a pooled connection. The work completes the given future, after which the connection is
+     * released and the result handler called. Failures are logged.
+     */
+    <T> void withConnection(Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> work) {
+        if (!pinned.isEmpty()) {
+            PinnedConnection connection = leastBusy();
+            connection.inFlight.incrementAndGet();
+            acquired.increment();
+            run(new Lease(connection.connection, connection, leakSite()), resultHandler, work);
+            return;
+        }
+        checkout(resultHandler, lease -> run(lease, resultHandler, work));
+    }
+
+    /**
+     * Like {@link #withConnection(Handler, BiConsumer)}, but always on a connection of its own, even when connections
+     * are pinned. This is meant for long running work such as streaming queries, which would stall pipelined requests.
+     */
+    <T> void withExclusiveConnection(Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> work) {
+        checkout(resultHandler, lease -> run(lease, resultHandler, work));
+    }
+
+    /**
+     * Runs some work in a transaction on a connection of its own (never a pinned one): the transaction is committed
+     * when the work succeeds and rolled back when it fails.
+     */
+    <T> void inTransaction(Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> work) {
+        checkout(resultHandler, lease -> run(lease, resultHandler, (connection, result) ->
+                connection.setAutoCommit(false, begin -> {
+                    if (begin.failed()) {
+                        result.fail(begin.cause());
+                        return;
+                    }
+                    Future<T> outcome = Future.future();
+                    outcome.setHandler(ar -> {
+                        Handler<AsyncResult<Void>> end = done -> connection.setAutoCommit(true, restored -> {
+                            if (ar.succeeded() && done.failed()) {
+                                result.fail(done.cause());
+                            } else {
+                                result.handle(ar);
+                            }
+                        });
+                        if (ar.succeeded()) {
+                            connection.commit(end);
+                        } else {
+                            connection.rollback(end);
+                        }
+                    });
+                    try {
+                        work.accept(connection, outcome);
+                    } catch (RuntimeException e) {
+                        outcome.tryFail(e);
+                    }
+                })));
+    }
+
+    private <T> void checkout(Handler<AsyncResult<T>> resultHandler, Handler<Lease> leaseHandler) {
+        long requestedAt = System.nanoTime();
+        waiting.incrementAndGet();
+        dbClient.getConnection(car -> {
+            waiting.decrementAndGet();
+            acquisitionLatency.recordNanos(System.nanoTime() - requestedAt);
+            if (car.failed()) {
+                acquisitionFailures.increment();
+                LOGGER.error("Could not get a database connection", car.cause());
+                resultHandler.handle(Future.failedFuture(car.cause()));
+                return;
+            }
+            acquired.increment();
+            leaseHandler.handle(new Lease(car.result(), null, leakSite()));
+        });
+    }
+
+    /**
+     * Opens the given number of connections, prepares the given statements on each of them and from then on runs all
+     * work on those connections. The JDBC pool needs statement caching enabled for the prepared statements to be kept.
+     */
+    void pin(int connections, Collection<String> statements, Handler<AsyncResult<Void>> readyHandler) {
+        List<Future> acquisitions = new ArrayList<>();
+        for (int i = 0; i < connections; i++) {
+            Future<SQLConnection> acquisition = Future.future();
+            dbClient.getConnection(acquisition.completer());
+            acquisitions.add(acquisition.compose(connection -> prepare(connection, statements)));
+        }
+        CompositeFuture.join(acquisitions).setHandler(ar -> {
+            List<PinnedConnection> ready = new ArrayList<>();
+            for (Future acquisition : acquisitions) {
+                if (acquisition.succeeded()) {
+                    ready.add(new PinnedConnection((SQLConnection) acquisition.result()));
+                }
+            }
+            if (ar.succeeded()) {
+                pinned = ready;
+                readyHandler.handle(Future.succeededFuture());
+            } else {
+                LOGGER.error("Could not open the pinned database connections", ar.cause());
+                ready.forEach(connection -> connection.connection.close());
+                readyHandler.handle(Future.failedFuture(ar.cause()));
+            }
+        });
+    }
+
+    private Future<SQLConnection> prepare(SQLConnection connection, Collection<String> statements) {
+        Future<SQLConnection> prepared = Future.future();
+        vertx.<SQLConnection>executeBlocking(future -> {
+            Connection jdbcConnection = connection.unwrap();
+            try {
+                for (String sql : statements) {
+                    // Same flags as the vertx-jdbc-client query and update actions, so that they hit the statement cache
+                    boolean query = sql.trim().regionMatches(true, 0, "select", 0, 6);
+                    try (PreparedStatement ignored = query
+                            ? jdbcConnection.prepareStatement(sql)
+                            : jdbcConnection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+                        LOGGER.debug("Prepared {}", sql);
+                    }
+                }
+                future.complete(connection);
+            } catch (SQLException e) {
+                future.fail(e);
+            }
+        }, false, ar -> {
+            if (ar.failed()) {
+                connection.close();
+            }
+            prepared.handle(ar);
+        });
+        return prepared;
+    }
+
+    private PinnedConnection leastBusy() {
+        PinnedConnection best = pinned.get(0);
+        for (PinnedConnection connection : pinned) {
+            if (connection.inFlight.get() < best.inFlight.get()) {
+                best = connection;
+            }
+        }
+        return best;
+    }
+
+    private Throwable leakSite() {
+        return leakThresholdNanos > 0 ? new Throwable("Connection acquired here") : null;
+    }
+
+    private <T> void run(Lease lease, Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> work) {
+        leases.add(lease);
+        Future<T> result = Future.future();
+        result.setHandler(ar -> {
+            release(lease);
+            if (ar.failed()) {
+                LOGGER.error("Database query error", ar.cause());
+            }
+            resultHandler.handle(ar);
+        });
+        try {
+            work.accept(lease.connection, result);
+        } catch (RuntimeException e) {
+            result.tryFail(e);
+        }
+    }
+
+    private void release(Lease lease) {
+        if (leases.remove(lease)) {
+            long heldNanos = System.nanoTime() - lease.acquiredAt;
+            holdTime.recordNanos(heldNanos);
+            if (lease.reported) {
+                LOGGER.warn("Leaked connection returned to the pool after {} ms", TimeUnit.NANOSECONDS.toMillis(heldNanos));
+            }
+            if (lease.pinned != null) {
+                lease.pinned.inFlight.decrementAndGet();
+            } else {
+                lease.connection.close();
+            }
+        }
+    }
+
+    private void detectLeaks() {
+        long now = System.nanoTime();
+        for (Lease lease : leases) {
+            long heldNanos = now - lease.acquiredAt;
+            if (!lease.reported && heldNanos > leakThresholdNanos) {
+                lease.reported = true;
+                leaksDetected.increment();
+                LOGGER.warn("Connection held for " + TimeUnit.NANOSECONDS.toMillis(heldNanos) + " ms, possible leak",
+                        lease.acquisitionSite);
+            }
+        }
+    }
+
+    /**
+     * Idle is derived from the configured maximum pool size, i.e. it counts the connections that can still be
+     * handed out without waiting, whether or not the pool has opened them yet. With pinned connections, active
+     * counts the requests in flight on them.
+     */
+    JsonObject metrics() {
+        int active = leases.size();
+        return new JsonObject()
+                .put("maxPoolSize", maxPoolSize)
+                .put("pinned", pinned.size())
+                .put("active", active)
+                .put("idle", Math.max(0, maxPoolSize - (pinned.isEmpty() ? active : pinned.size())))
+                .put("waiting", waiting.get())
+                .put("acquired", acquired.sum())
+                .put("acquisitionFailures", acquisitionFailures.sum())
+                .put("leaksDetected", leaksDetected.sum())
+                .put("acquisitionLatency", acquisitionLatency.toJson())
+                .put("holdTime", holdTime.toJson());
+    }
+}
@@ -0,0 +1,268 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLConnection;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Write-behind buffer of the page writes of a {@link WikiDatabaseServiceImpl}: instead of a transaction each, writes
+ * wait in the buffer for up to {@code windowMillis}, or until {@code maxBatch} of them are waiting, and are then
+ * committed together in one transaction. While a batch is being committed the next one fills up, so that during a burst
+ * of edits there is one commit in flight at a time, whatever the number of writes.
+ * <p>
+ * An unconditional save of a page is merged into a save of the same page still waiting in the buffer, unless another
+ * write to that page was queued in between: the page gets one new version instead of several, and the callers of both
+ * saves get its result. The effects of the save that follow its commit (reindexing, change event) then happen once,
+ * with the content of the latest of the merged saves. Results are delivered once the batch is committed, in the order
+ * the writes were queued; the service turns off the write delay of the database, so that a commit is on the disk by
+ * then. When a batch fails, its writes are retried in a transaction each, so that a failing write (e.g. the creation
+ * of a page with a name that is taken) only fails its own callers.
+ * <p>
+ * It is thread-safe, as writes come from the event loops of all the instances of the service verticle.
+ */
+final class GroupCommit {
+
+    private static final class Write<T> {
+
+        BiConsumer<SQLConnection, Future<T>> operation;
+        BiConsumer<T, Future<Void>> committed;  // Once for the write, completed before its callers get its result; may be null
+        final List<Handler<AsyncResult<T>>> callers = new ArrayList<>(1);
+        AsyncResult<T> outcome;
+
+        Write(BiConsumer<SQLConnection, Future<T>> operation, BiConsumer<T, Future<Void>> committed, Handler<AsyncResult<T>> caller) {
+            this.operation = operation;
+            this.committed = committed;
+            callers.add(caller);
+        }
+
+        /*
+         * Runs the operation within the transaction of a batch, keeping its result until the batch is committed.
+         */
+        void apply(SQLConnection connection, Handler<AsyncResult<Void>> next) {
+            Future<T> result = Future.future();
+            result.setHandler(ar -> {
+                outcome = ar;
+                next.handle(ar.mapEmpty());
+            });
+            try {
+                operation.accept(connection, result);
+            } catch (RuntimeException e) {
+                result.tryFail(e);
+            }
+        }
+
+        void deliver() {
+            complete(outcome);
+        }
+
+        void fail(Throwable cause) {
+            complete(Future.failedFuture(cause));
+        }
+
+        void retry(ConnectionPool pool, Handler<Void> next) {
+            pool.<T>inTransaction(ar -> {
+                complete(ar);
+                next.handle(null);
+            }, operation);
+        }
+
+        private void complete(AsyncResult<T> result) {
+            if (result.succeeded() && committed != null) {
+                Future<Void> done = Future.future();
+                done.setHandler(v -> callers.forEach(caller -> caller.handle(result)));
+                committed.accept(result.result(), done);
+            } else {
+                callers.forEach(caller -> caller.handle(result));
+            }
+        }
+    }
+
+    private final Vertx vertx;
+    private final ConnectionPool pool;
+    private final long windowMillis;
+    private final int maxBatch;
+
+    private final LatencyHistogram commitTime;
+    private final LongAdder batches;
+    private final LongAdder committedWrites;
+    private final LongAdder coalesced;
+    private final LongAdder retried;
+    private final LongAdder queued;
+
+    private List<Write<?>> pending = new ArrayList<>();
+    private final Map<Integer, Write<JsonObject>> saves = new HashMap<>();  // Pending saves that can be merged into, by page id
+    private long timer = -1;
+    private boolean committing;
+
+    GroupCommit(Vertx vertx, ConnectionPool pool, long windowMillis, int maxBatch) {
+        this.vertx = vertx;
+        this.pool = pool;
+        this.windowMillis = Math.max(1, windowMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+        MetricsRegistry metrics = MetricsRegistry.get(vertx);
+        this.commitTime = metrics.histogram("wiki_db_group_commit_seconds", "Time to commit a batch of buffered writes");
+        this.batches = metrics.counter("wiki_db_group_commit_batches_total", "Batches of buffered writes, committed or not");
+        this.committedWrites = metrics.counter("wiki_db_group_commit_writes_total", "Buffered writes committed in a batch");
+        this.coalesced = metrics.counter("wiki_db_group_commit_coalesced_total", "Saves merged into a buffered save of the same page");
+        this.retried = metrics.counter("wiki_db_group_commit_retried_total", "Writes of failed batches retried on their own");
+        this.queued = metrics.gauge("wiki_db_group_commit_queued", "Writes waiting in the buffer");
+    }
+
+    /**
+     * Queues a write.
+     *
+     * @param page the page it modifies, or {@code null} for a creation
+     */
+    <T> void submit(Integer page, Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> operation) {
+        List<Write<?>> batch;
+        synchronized (this) {
+            if (page != null) {
+                saves.remove(page);
+            }
+            batch = enqueue(new Write<>(operation, null, resultHandler));
+        }
+        commit(batch);
+    }
+
+    /**
+     * Queues an unconditional save of a page, or merges it into one that is already queued.
+     *
+     * @param committed called with the result of the save once it is committed, and only once for merged saves: that
+     *                  of the latest save replaces that of the queued one. Its callers get the result when it completes
+     *                  the future it is given
+     */
+    void save(int page, Handler<AsyncResult<JsonObject>> resultHandler, BiConsumer<SQLConnection, Future<JsonObject>> operation, BiConsumer<JsonObject, Future<Void>> committed) {
+        List<Write<?>> batch;
+        synchronized (this) {
+            Write<JsonObject> queuedSave = saves.get(page);
+            if (queuedSave != null) {
+                queuedSave.operation = operation;
+                queuedSave.committed = committed;
+                queuedSave.callers.add(resultHandler);
+                coalesced.increment();
+                return;
+            }
+            Write<JsonObject> write = new Write<>(operation, committed, resultHandler);
+            saves.put(page, write);
+            batch = enqueue(write);
+        }
+        commit(batch);
+    }
+
+    /*
+     * With the lock held. Returns the batch to commit right away, if any.
+     */
+    private List<Write<?>> enqueue(Write<?> write) {
+        pending.add(write);
+        queued.increment();
+        if (committing) {
+            return null;  // Taken as soon as the commit in flight completes
+        }
+        if (pending.size() >= maxBatch) {
+            return take();
+        }
+        if (timer < 0) {
+            timer = vertx.setTimer(windowMillis, id -> {
+                List<Write<?>> batch;
+                synchronized (this) {
+                    if (timer == id) {
+                        timer = -1;
+                    }
+                    batch = committing ? null : take();
+                }
+                commit(batch);
+            });
+        }
+        return null;
+    }
+
+    /*
+     * With the lock held.
+     */
+    private List<Write<?>> take() {
+        if (pending.isEmpty()) {
+            return null;
+        }
+        if (timer >= 0) {
+            vertx.cancelTimer(timer);
+            timer = -1;
+        }
+        List<Write<?>> batch = pending;
+        pending = new ArrayList<>();
+        saves.clear();
+        queued.add(-batch.size());
+        committing = true;
+        return batch;
+    }
+
+    private void commit(List<Write<?>> batch) {
+        if (batch == null) {
+            return;
+        }
+        long start = System.nanoTime();
+        pool.<Void>inTransaction(ar -> {
+            commitTime.recordNanos(System.nanoTime() - start);
+            batches.increment();
+            if (ar.succeeded()) {
+                committedWrites.add(batch.size());
+                batch.forEach(Write::deliver);
+                committed();
+            } else if (batch.size() == 1) {
+                batch.get(0).fail(ar.cause());
+                committed();
+            } else {
+                retried.add(batch.size());
+                retry(batch, 0);
+            }
+        }, (connection, result) -> apply(connection, batch, 0, result));
+    }
+
+    private static void apply(SQLConnection connection, List<Write<?>> batch, int index, Future<Void> result) {
+        if (index == batch.size()) {
+            result.complete();
+            return;
+        }
+        batch.get(index).apply(connection, ar -> {
+            if (ar.failed()) {
+                result.fail(ar.cause());
+            } else {
+                apply(connection, batch, index + 1, result);
+            }
+        });
+    }
+
+    /*
+     * One at a time, so that writes to the same page keep their order.
+     */
+    private void retry(List<Write<?>> batch, int index) {
+        if (index == batch.size()) {
+            committed();
+        } else {
+            batch.get(index).retry(pool, v -> retry(batch, index + 1));
+        }
+    }
+
+    /*
+     * The writes queued during a commit have waited for long enough: they are committed at once.
+     */
+    private void committed() {
+        List<Write<?>> batch;
+        synchronized (this) {
+            committing = false;
+            batch = take();
+        }
+        commit(batch);
+    }
+}
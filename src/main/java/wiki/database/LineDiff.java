@@ -0,0 +1,265 @@
+package wiki.database;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-based differences between two texts, computed with Myers' O(ND) algorithm after stripping the common prefix and
+ * suffix (so that the usual small edit of a large page is cheap).
+ * <p>
+ * A delta is a text of operations, one per line: {@code =n} copies the next {@code n} lines of the original,
+ * {@code -n} skips them, and {@code +n} is followed by {@code n} lines to insert.
+ */
+final class LineDiff {
+
+    /**
+     * Beyond this number of differing lines, texts are considered entirely different rather than spending quadratic
+     * time and memory on a minimal edit script.
+     */
+    private static final int MAX_EDIT_DISTANCE = 2048;
+
+    private static final int EQUAL = 0;
+    private static final int DELETE = 1;
+    private static final int INSERT = 2;
+
+    private LineDiff() {
+    }
+
+    static String delta(String from, String to) {
+        String[] a = lines(from);
+        String[] b = lines(to);
+        StringBuilder delta = new StringBuilder();
+        int j = 0;
+        for (int[] run : script(a, b)) {
+            if (run[0] == EQUAL) {
+                delta.append('=').append(run[1]).append('\n');
+                j += run[1];
+            } else if (run[0] == DELETE) {
+                delta.append('-').append(run[1]).append('\n');
+            } else {
+                delta.append('+').append(run[1]).append('\n');
+                for (int end = j + run[1]; j < end; j++) {
+                    delta.append(b[j]).append('\n');
+                }
+            }
+        }
+        return delta.toString();
+    }
+
+    static String apply(String from, String delta) {
+        return String.join("\n", apply(Arrays.asList(lines(from)), delta));
+    }
+
+    /**
+     * Applies a delta to a text split into lines, so that a chain of deltas splits and joins the text only once.
+     */
+    static List<String> apply(List<String> from, String delta) {
+        List<String> to = new ArrayList<>(from.size() + 16);
+        int i = 0;
+        int position = 0;
+        while (position < delta.length()) {
+            int end = delta.indexOf('\n', position);
+            char operation = delta.charAt(position);
+            int count = Integer.parseInt(delta.substring(position + 1, end));
+            position = end + 1;
+            switch (operation) {
+                case '=':
+                    to.addAll(from.subList(i, i + count));
+                    i += count;
+                    break;
+                case '-':
+                    i += count;
+                    break;
+                case '+':
+                    for (int k = 0; k < count; k++) {
+                        end = delta.indexOf('\n', position);
+                        to.add(delta.substring(position, end));
+                        position = end + 1;
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Bad delta operation: " + operation);
+            }
+        }
+        return to;
+    }
+
+    /**
+     * Differences as unified diff hunks ({@code @@ -l,s +l,s @@} headers followed by lines prefixed with a space,
+     * {@code -} or {@code +}), with the given number of context lines.
+     */
+    static String unified(String from, String to, int context) {
+        String[] a = lines(from);
+        String[] b = lines(to);
+        List<int[]> script = script(a, b);
+        // Expand the runs to one operation per line, with the line numbers in both texts.
+        int size = 0;
+        for (int[] run : script) {
+            size += run[1];
+        }
+        int[] operations = new int[size];
+        int[] aLines = new int[size];
+        int[] bLines = new int[size];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        for (int[] run : script) {
+            for (int k = 0; k < run[1]; k++, n++) {
+                operations[n] = run[0];
+                aLines[n] = i;
+                bLines[n] = j;
+                if (run[0] != INSERT) {
+                    i++;
+                }
+                if (run[0] != DELETE) {
+                    j++;
+                }
+            }
+        }
+
+        StringBuilder diff = new StringBuilder();
+        int start = 0;
+        while (start < size) {
+            while (start < size && operations[start] == EQUAL) {
+                start++;
+            }
+            if (start == size) {
+                break;
+            }
+            int hunkStart = Math.max(0, start - context);
+            int end = start;
+            int lastChange = start;
+            while (end < size && end - lastChange <= 2 * context) {
+                if (operations[end] != EQUAL) {
+                    lastChange = end;
+                }
+                end++;
+            }
+            int hunkEnd = Math.min(size, lastChange + context + 1);
+            int aCount = 0;
+            int bCount = 0;
+            for (int k = hunkStart; k < hunkEnd; k++) {
+                aCount += operations[k] != INSERT ? 1 : 0;
+                bCount += operations[k] != DELETE ? 1 : 0;
+            }
+            diff.append("@@ -").append(aLines[hunkStart] + (aCount > 0 ? 1 : 0)).append(',').append(aCount)
+                    .append(" +").append(bLines[hunkStart] + (bCount > 0 ? 1 : 0)).append(',').append(bCount)
+                    .append(" @@\n");
+            for (int k = hunkStart; k < hunkEnd; k++) {
+                if (operations[k] == EQUAL) {
+                    diff.append(' ').append(a[aLines[k]]);
+                } else if (operations[k] == DELETE) {
+                    diff.append('-').append(a[aLines[k]]);
+                } else {
+                    diff.append('+').append(b[bLines[k]]);
+                }
+                diff.append('\n');
+            }
+            start = hunkEnd;
+        }
+        return diff.toString();
+    }
+
+    static String[] lines(String text) {
+        return text.split("\n", -1);
+    }
+
+    /**
+     * Edit script turning {@code a} into {@code b}, as runs of {@code {operation, count}}.
+     */
+    private static List<int[]> script(String[] a, String[] b) {
+        int prefix = 0;
+        while (prefix < a.length && prefix < b.length && a[prefix].equals(b[prefix])) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < a.length - prefix && suffix < b.length - prefix
+                && a[a.length - 1 - suffix].equals(b[b.length - 1 - suffix])) {
+            suffix++;
+        }
+
+        List<int[]> runs = new ArrayList<>();
+        add(runs, EQUAL, prefix);
+        int[] middle = middle(a, b, prefix, a.length - suffix, b.length - suffix);
+        for (int operation : middle) {
+            add(runs, operation, 1);
+        }
+        add(runs, EQUAL, suffix);
+        return runs;
+    }
+
+    private static void add(List<int[]> runs, int operation, int count) {
+        if (count == 0) {
+            return;
+        }
+        int[] last = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+        if (last != null && last[0] == operation) {
+            last[1] += count;
+        } else {
+            runs.add(new int[]{operation, count});
+        }
+    }
+
+    /**
+     * Myers' greedy algorithm on {@code a[start, aEnd)} and {@code b[start, bEnd)}, one operation per line.
+     */
+    private static int[] middle(String[] a, String[] b, int start, int aEnd, int bEnd) {
+        int n = aEnd - start;
+        int m = bEnd - start;
+        int max = Math.min(n + m, MAX_EDIT_DISTANCE);
+        int offset = max + 1;
+        int[] v = new int[2 * max + 3];
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= max; d++) {
+            trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[start + x].equals(b[start + y])) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    return backtrack(trace, n, m, d);
+                }
+            }
+        }
+        // Too many differences: replace everything.
+        int[] operations = new int[n + m];
+        Arrays.fill(operations, 0, n, DELETE);
+        Arrays.fill(operations, n, n + m, INSERT);
+        return operations;
+    }
+
+    private static int[] backtrack(List<int[]> trace, int n, int m, int distance) {
+        int[] operations = new int[n + m];
+        int position = operations.length;
+        int x = n;
+        int y = m;
+        for (int d = distance; d > 0; d--) {
+            int[] v = trace.get(d);
+            int k = x - y;
+            int previousK = k == -d || (k != d && v[k - 1 + d + 1] < v[k + 1 + d + 1]) ? k + 1 : k - 1;
+            int previousX = v[previousK + d + 1];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                operations[--position] = EQUAL;
+                x--;
+                y--;
+            }
+            operations[--position] = x == previousX ? INSERT : DELETE;
+            x = previousX;
+            y = previousY;
+        }
+        while (x > 0 && y > 0) {
+            operations[--position] = EQUAL;
+            x--;
+            y--;
+        }
+        return Arrays.copyOfRange(operations, position, operations.length);
+    }
+}
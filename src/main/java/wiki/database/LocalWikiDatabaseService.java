@@ -0,0 +1,257 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.ReplyException;
+import io.vertx.core.eventbus.ReplyFailure;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Client of a {@link WikiDatabaseService} that calls the service implementation directly when it is deployed in the
+ * same Vert.x instance, and goes through the event bus proxy otherwise (e.g. from another node of a cluster).
+ * <p>
+ * A direct call still runs on the service's own context and delivers its result on the caller's context, as over the
+ * event bus, but arguments and results are passed by reference instead of being encoded to JSON and copied: neither
+ * side may modify them after the call. The binding is looked up on every call, so that the client falls back to the
+ * event bus as soon as the service verticle is undeployed.
+ * <p>
+ * When several instances of the service verticle are deployed, each call goes to the instance with the fewest calls
+ * in flight, preferring the caller's own context on a tie. The event bus, by contrast, delivers to them in turn.
+ * <p>
+ * Both kinds of call fail with a {@link ReplyFailure#TIMEOUT} when the service has not answered in time, so that a
+ * stuck call still completes. A late result is then dropped.
+ */
+class LocalWikiDatabaseService implements WikiDatabaseService {
+
+    private static final String BINDINGS = "wikidb.local.bindings";
+
+    private static final class Binding {
+
+        final WikiDatabaseService service;
+        final Context context;
+        final AtomicInteger inFlight = new AtomicInteger();
+
+        Binding(WikiDatabaseService service, Context context) {
+            this.service = service;
+            this.context = context;
+        }
+    }
+
+    /*
+     * The instances bound to an address. The holder itself is never removed, so that binding and unbinding need no
+     * coordination with the map.
+     */
+    private static final class Bindings implements Shareable {
+
+        final List<Binding> instances = new CopyOnWriteArrayList<>();
+    }
+
+    private final Vertx vertx;
+    private final LocalMap<String, Bindings> bindings;
+    private final String address;
+    private final WikiDatabaseService proxy;
+    private final long timeoutMillis;
+
+    LocalWikiDatabaseService(Vertx vertx, String address, long timeoutMillis) {
+        this.vertx = vertx;
+        this.bindings = vertx.sharedData().getLocalMap(BINDINGS);
+        this.address = address;
+        this.timeoutMillis = timeoutMillis;
+        this.proxy = new WikiDatabaseServiceVertxEBProxy(vertx, address, new DeliveryOptions().setSendTimeout(timeoutMillis));
+    }
+
+    /**
+     * Makes a service implementation, which runs on the given context, directly callable by the clients of its address.
+     * The same implementation may be bound once per context.
+     */
+    static void bind(Vertx vertx, String address, WikiDatabaseService service, Context context) {
+        bindings(vertx, address).instances.add(new Binding(service, context));
+    }
+
+    static void unbind(Vertx vertx, String address, WikiDatabaseService service, Context context) {
+        bindings(vertx, address).instances.removeIf(binding -> binding.service == service && binding.context == context);
+    }
+
+    private static Bindings bindings(Vertx vertx, String address) {
+        LocalMap<String, Bindings> bindings = vertx.sharedData().getLocalMap(BINDINGS);
+        Bindings created = new Bindings();
+        Bindings existing = bindings.putIfAbsent(address, created);
+        return existing != null ? existing : created;
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchAllPages(reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchPageNames(prefix, after, limit, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchPage(name, reply));
+    }
+
+    @Override
+    public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.createPage(title, markdown, reply));
+    }
+
+    @Override
+    public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.savePage(id, markdown, reply));
+    }
+
+    @Override
+    public WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.savePageIfVersion(id, version, markdown, reply));
+    }
+
+    @Override
+    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.deletePage(id, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchAllPagesData(reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchPageById(id, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchPagesPage(afterId, limit, reply));
+    }
+
+    @Override
+    public WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.streamPagesData(address, batchSize, reply));
+    }
+
+    @Override
+    public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.createPages(pages, reply));
+    }
+
+    @Override
+    public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.savePages(pages, reply));
+    }
+
+    @Override
+    public WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.search(query, limit, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchRevisions(id, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchRevision(id, revision, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchRevisionDiff(id, from, to, reply));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        return call(resultHandler, (service, reply) -> service.fetchPoolMetrics(reply));
+    }
+
+    /*
+     * No context switch is needed when the caller already runs on the service's context.
+     */
+    private <T> WikiDatabaseService call(Handler<AsyncResult<T>> resultHandler, BiConsumer<WikiDatabaseService, Handler<AsyncResult<T>>> action) {
+        Context caller = vertx.getOrCreateContext();
+        Binding binding = leastBusy(caller);
+        if (binding == null) {
+            action.accept(proxy, resultHandler);
+            return this;
+        }
+        binding.inFlight.incrementAndGet();
+        Handler<AsyncResult<T>> once = withTimeout(resultHandler);
+        if (caller == binding.context) {
+            invoke(binding.service, action, ar -> {
+                binding.inFlight.decrementAndGet();
+                once.handle(ar);
+            });
+        } else {
+            Handler<AsyncResult<T>> reply = ar -> {
+                binding.inFlight.decrementAndGet();
+                caller.runOnContext(v -> once.handle(ar));
+            };
+            binding.context.runOnContext(v -> invoke(binding.service, action, reply));
+        }
+        return this;
+    }
+
+    /*
+     * Called on the caller's context. The slot stays counted as in flight until the service really answers.
+     */
+    private <T> Handler<AsyncResult<T>> withTimeout(Handler<AsyncResult<T>> resultHandler) {
+        boolean[] done = new boolean[1];
+        long timer = vertx.setTimer(timeoutMillis, id -> {
+            done[0] = true;
+            resultHandler.handle(Future.failedFuture(new ReplyException(ReplyFailure.TIMEOUT,
+                    "Timed out after waiting " + timeoutMillis + "(ms) for a reply from " + address)));
+        });
+        return ar -> {
+            if (!done[0]) {
+                done[0] = true;
+                vertx.cancelTimer(timer);
+                resultHandler.handle(ar);
+            }
+        };
+    }
+
+    private Binding leastBusy(Context caller) {
+        Bindings bound = bindings.get(address);
+        if (bound == null) {
+            return null;
+        }
+        Binding best = null;
+        int bestInFlight = Integer.MAX_VALUE;
+        for (Binding binding : bound.instances) {
+            int inFlight = binding.inFlight.get();
+            if (inFlight < bestInFlight || (inFlight == bestInFlight && binding.context == caller)) {
+                best = binding;
+                bestInFlight = inFlight;
+            }
+        }
+        return best;
+    }
+
+    /*
+     * Like the event bus proxy handler, an exception thrown by the service becomes a failed result.
+     */
+    private static <T> void invoke(WikiDatabaseService service, BiConsumer<WikiDatabaseService, Handler<AsyncResult<T>>> action, Handler<AsyncResult<T>> resultHandler) {
+        try {
+            action.accept(service, resultHandler);
+        } catch (RuntimeException e) {
+            resultHandler.handle(Future.failedFuture(e));
+        }
+    }
+}
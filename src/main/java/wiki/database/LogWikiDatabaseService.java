@@ -0,0 +1,482 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+import wiki.search.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * {@link WikiDatabaseService} storing pages in an embedded {@link PageLog} instead of a JDBC database, selected with
+ * {@code "wikidb.storage": "log"}. Saving a page appends one record to the log, with no SQL to parse, no connection
+ * to check out and no page rewritten in place.
+ * <p>
+ * Calls to the log run on worker threads. The name and search indexes, and change events, work as with
+ * {@link WikiDatabaseServiceImpl}; the revision history is the last {@code wikidb.log.revisions} versions of each
+ * page, all of them full copies. The writes of a page are serialized by a lock of the page (one of a fixed set of
+ * stripes), held from the log call to its change event, so that the search index and the events follow the versions
+ * of each page in order.
+ */
+class LogWikiDatabaseService implements WikiDatabaseService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogWikiDatabaseService.class);
+
+    private static final int DIFF_CONTEXT_LINES = 3;
+    private static final int ANY_VERSION = -1;
+    private static final DeliveryOptions PAGE_BATCH = new DeliveryOptions().setCodecName(PageCodec.BATCH);
+    private static final int PAGE_LOCK_STRIPES = 64;
+
+    private final Vertx vertx;
+    private final ChangeFeed changes;
+    private final long syncInterval;
+    private final PageNameIndex names = new PageNameIndex();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ReentrantLock[] pageLocks = new ReentrantLock[PAGE_LOCK_STRIPES];
+    private final LatencyHistogram readTime;
+    private final LatencyHistogram writeTime;
+    private final LatencyHistogram syncTime;
+    private final LatencyHistogram compactionTime;
+    private PageLog log;
+    private SearchIndex searchIndex;
+
+    LogWikiDatabaseService(Vertx vertx, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+        this.vertx = vertx;
+        this.changes = new ChangeFeed(vertx, config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.events"));
+        this.syncInterval = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SYNC_INTERVAL, 0L);
+        MetricsRegistry metrics = MetricsRegistry.get(vertx);
+        this.readTime = metrics.histogram("wiki_db_log_seconds", "Time spent in page log operations", "operation", "read");
+        this.writeTime = metrics.histogram("wiki_db_log_seconds", "Time spent in page log operations", "operation", "write");
+        this.syncTime = metrics.histogram("wiki_db_log_seconds", "Time spent in page log operations", "operation", "sync");
+        this.compactionTime = metrics.histogram("wiki_db_log_seconds", "Time spent in page log operations", "operation", "compaction");
+        for (int i = 0; i < pageLocks.length; i++) {
+            pageLocks[i] = new ReentrantLock();
+        }
+
+        Future<PageLog> open = Future.future();
+        vertx.executeBlocking(future -> {
+            try {
+                PageLog opened = PageLog.open(
+                        config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIRECTORY, "db/log"),
+                        config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 64 * 1024 * 1024),
+                        config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_REVISIONS, 16),
+                        config.getDouble(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_COMPACTION_THRESHOLD, 0.5));
+                opened.forEach(page -> names.put(page.getId(), page.getName()));
+                future.complete(opened);
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, open);
+        open.compose(opened -> {
+            log = opened;
+            vertx.getOrCreateContext().addCloseHook(this::close);
+            if (syncInterval > 0) {
+                long timer = vertx.setPeriodic(syncInterval, id -> blocking(syncTime, ar -> {
+                    if (ar.failed()) {
+                        LOGGER.error("Page log sync error", ar.cause());
+                    }
+                }, () -> {
+                    log.sync();
+                    return null;
+                }));
+                vertx.getOrCreateContext().addCloseHook(completion -> {
+                    vertx.cancelTimer(timer);
+                    completion.handle(Future.succeededFuture());
+                });
+            }
+            compactIfNeeded();
+            return openSearchIndex(config);
+        }).setHandler(ready -> {
+            if (ready.failed()) {
+                LOGGER.error("Page log preparation error", ready.cause());
+                readyHandler.handle(Future.failedFuture(ready.cause()));
+            } else {
+                readyHandler.handle(Future.succeededFuture(this));
+            }
+        });
+    }
+
+    /*
+     * As with the JDBC storage, the index is rebuilt unless it still holds the same pages.
+     */
+    private Future<Void> openSearchIndex(JsonObject config) {
+        Future<SearchIndex> open = Future.future();
+        SearchIndex.open(vertx,
+                config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "db/search"),
+                config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_FLUSH_THRESHOLD, 10000), open);
+        return open.compose(index -> {
+            searchIndex = index;
+            vertx.getOrCreateContext().addCloseHook(index::close);
+            Future<Void> rebuild = Future.future();
+            blocking(readTime, rebuild, () -> {
+                JsonObject fingerprint = log.fingerprint();
+                if (!fingerprint.equals(index.fingerprint())) {
+                    LOGGER.info("Rebuilding the search index of {} pages", fingerprint.getLong("pages"));
+                    index.clear();
+                    log.forEach(page -> index.putIfNewer(page.getId(), page.getName(), page.getContent(), page.getModified()));
+                }
+                return null;
+            });
+            return rebuild;
+        });
+    }
+
+    /*
+     * The log is forced to the disk; writes still in flight then fail.
+     */
+    private void close(Handler<AsyncResult<Void>> completionHandler) {
+        vertx.<Void>executeBlocking(future -> {
+            try {
+                log.close();
+                future.complete();
+            } catch (Exception e) {
+                future.fail(e);
+            }
+        }, completionHandler);
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(new JsonArray(names.names())));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(names.pages(prefix, after, Math.max(0, limit))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+        blocking(readTime, resultHandler, () -> log.get(name));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        blocking(writeTime, ar -> {
+            if (ar.succeeded()) {
+                compactIfNeeded();
+            }
+            resultHandler.handle(ar.mapEmpty());
+        }, () -> {
+            int id = log.nextIds(1);  //先保留Id并持有其锁：页面一旦可读，对它的保存就要等到创建事件发布之后
+            return locked(Collections.singletonList(id), () -> indexed(synced(log.create(id, title, markdown, modified))));
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        savePage(id, ANY_VERSION, markdown, ar -> resultHandler.handle(ar.mapEmpty()));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        savePage(id, Math.max(0, version), markdown, resultHandler);
+        return this;
+    }
+
+    private void savePage(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        blocking(writeTime, ar -> {
+            if (ar.succeeded() && ar.result().getBoolean("saved")) {
+                compactIfNeeded();
+            }
+            resultHandler.handle(ar);
+        }, () -> locked(Collections.singletonList(id), () -> {
+            JsonObject result = synced(log.save(id, version, markdown, modified));
+            if (result.getBoolean("saved")) {
+                reindex(id, markdown, modified);
+                changes.publish(PageChange.UPDATED, id, names.name(id), result.getInteger("version"));
+            }
+            return result;
+        }));
+    }
+
+    @Override
+    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+        blocking(writeTime, ar -> {
+            if (ar.succeeded() && ar.result() != null) {
+                compactIfNeeded();
+            }
+            resultHandler.handle(ar.mapEmpty());
+        }, () -> locked(Collections.singletonList(id), () -> {
+            String name = synced(log.delete(id));
+            if (name != null) {
+                names.remove(id);
+                searchIndex.remove(id);
+                changes.publish(PageChange.DELETED, id, name, null);
+            }
+            return name;
+        }));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler) {
+        blocking(readTime, resultHandler, () -> log.pages(-1, Integer.MAX_VALUE));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler) {
+        blocking(readTime, resultHandler, () -> log.get(id));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        blocking(readTime, resultHandler, () -> log.summaries(afterId, Math.max(0, limit)));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture());
+        streamPagesAfter(address, Math.max(1, batchSize), -1);
+        return this;
+    }
+
+    /*
+     * The log has no cursor: each batch is read after the id of the last page sent, once the receiver has replied.
+     */
+    private void streamPagesAfter(String address, int batchSize, int afterId) {
+        blocking(readTime, batch -> {
+            if (batch.failed()) {
+                vertx.eventBus().send(address, new JsonObject().put("error", batch.cause().getMessage()));
+            } else if (batch.result().isEmpty()) {
+                vertx.eventBus().send(address, new JsonObject().put("end", true));
+            } else {
+                List<Page> pages = batch.result();
+                vertx.eventBus().send(address, pages, PAGE_BATCH, reply -> {
+                    if (reply.succeeded()) {
+                        streamPagesAfter(address, batchSize, pages.get(pages.size() - 1).getId());
+                    } else {
+                        vertx.eventBus().send(address, new JsonObject().put("error", reply.cause().getMessage()));
+                    }
+                });
+            }
+        }, () -> log.pages(afterId, batchSize));
+    }
+
+    @Override
+    public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        if (pages.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return this;
+        }
+        blocking(writeTime, ar -> {
+            if (ar.succeeded()) {
+                compactIfNeeded();
+            }
+            resultHandler.handle(ar.mapEmpty());
+        }, () -> {
+            int firstId = log.nextIds(pages.size());
+            return locked(IntStream.range(firstId, firstId + pages.size()).boxed().collect(Collectors.toList()), () -> {
+                List<Page> created = synced(log.createAll(firstId, pages, modified));
+                created.forEach(this::indexed);
+                return created;
+            });
+        });
+        return this;
+    }
+
+    /*
+     * Unlike a transaction, a bulk update is not atomic: pages saved before a failure stay saved, though they are only
+     * reindexed on the next start.
+     */
+    @Override
+    public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        if (pages.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return this;
+        }
+        blocking(writeTime, ar -> {
+            if (ar.succeeded()) {
+                compactIfNeeded();
+            }
+            resultHandler.handle(ar.mapEmpty());
+        }, () -> locked(pages.stream().map(page -> page.getInteger("id")).collect(Collectors.toList()), () -> {
+            List<JsonObject> results = new ArrayList<>(pages.size());
+            for (JsonObject page : pages) {
+                results.add(log.save(page.getInteger("id"), ANY_VERSION, page.getString("markdown"), modified));
+            }
+            synced(results);
+            for (int i = 0; i < pages.size(); i++) {
+                int id = pages.get(i).getInteger("id");
+                if (results.get(i).getBoolean("saved")) {
+                    reindex(id, pages.get(i).getString("markdown"), modified);
+                    changes.publish(PageChange.UPDATED, id, names.name(id), results.get(i).getInteger("version"));
+                }
+            }
+            return results;
+        }));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        vertx.<List<JsonObject>>executeBlocking(future -> future.complete(searchIndex.search(query, Math.max(1, Math.min(limit, 1000)))), false, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        blocking(readTime, resultHandler, () -> {
+            List<JsonObject> history = log.history(id);
+            history.forEach(revision -> revision.put("snapshot", true));
+            return history;
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+        blocking(readTime, resultHandler, () -> {
+            Page page = log.revision(id, revision);
+            if (page == null) {
+                return new JsonObject().put("found", false);
+            }
+            return new JsonObject()
+                    .put("found", true)
+                    .put("id", id)
+                    .put("revision", revision)
+                    .put("content", page.getContent())
+                    .put("modified", page.getModified());
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+        blocking(readTime, resultHandler, () -> {
+            Page older = log.revision(id, from);
+            Page newer = log.revision(id, to);
+            if (older == null || newer == null) {
+                return new JsonObject().put("found", false);
+            }
+            return new JsonObject()
+                    .put("found", true)
+                    .put("id", id)
+                    .put("from", from)
+                    .put("to", to)
+                    .put("diff", LineDiff.unified(older.getContent(), newer.getContent(), DIFF_CONTEXT_LINES));
+        });
+        return this;
+    }
+
+    /**
+     * Statistics of the log rather than of a connection pool: {@code {"storage": "log", "segments", "bytes",
+     * "liveBytes", "pages", "tombstones", "compactions", "reclaimedBytes"}}.
+     */
+    @Override
+    public WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        blocking(readTime, resultHandler, () -> log.stats().put("storage", "log"));  //stats()与写入共用日志的锁，不在事件循环上等待
+        return this;
+    }
+
+    private Page indexed(Page page) {
+        names.put(page.getId(), page.getName());
+        searchIndex.put(page.getId(), page.getName(), page.getContent(), page.getModified());
+        changes.publish(PageChange.CREATED, page.getId(), page.getName(), page.getVersion());
+        return page;
+    }
+
+    /*
+     * Called with the lock of the page held, right after the save: the content is that of the latest version.
+     */
+    private void reindex(int id, String markdown, long modified) {
+        String name = names.name(id);
+        if (name != null) {
+            searchIndex.put(id, name, markdown, modified);
+        }
+    }
+
+    /*
+     * By default every write is forced to the disk before it is acknowledged. A positive wikidb.log.sync_interval
+     * syncs on a timer instead, and a crash can then lose the writes acknowledged since the last sync.
+     */
+    private <T> T synced(T result) {
+        if (syncInterval <= 0) {
+            long start = System.nanoTime();
+            log.sync();
+            syncTime.recordNanos(System.nanoTime() - start);
+        }
+        return result;
+    }
+
+    /*
+     * One compaction runs at a time, in the background, until no segment has enough garbage left.
+     */
+    private void compactIfNeeded() {
+        if (log.needsCompaction() && compacting.compareAndSet(false, true)) {
+            blocking(compactionTime, ar -> {
+                compacting.set(false);
+                if (ar.failed()) {
+                    LOGGER.error("Page log compaction error", ar.cause());
+                }
+            }, () -> {
+                while (log.compact()) {
+                    LOGGER.debug("Compacted a page log segment: {}", log.stats());
+                }
+                return null;
+            });
+        }
+    }
+
+    /*
+     * Runs a write with the locks of its pages held, taken in stripe order so that writes of several pages cannot
+     * deadlock.
+     */
+    private <T> T locked(List<Integer> ids, Callable<T> action) throws Exception {
+        int[] stripes = ids.stream().mapToInt(id -> Math.floorMod(id, PAGE_LOCK_STRIPES)).distinct().sorted().toArray();
+        for (int stripe : stripes) {
+            pageLocks[stripe].lock();
+        }
+        try {
+            return action.call();
+        } finally {
+            for (int i = stripes.length - 1; i >= 0; i--) {
+                pageLocks[stripes[i]].unlock();
+            }
+        }
+    }
+
+    /*
+     * Calls to the log are not ordered: they run concurrently, on as many worker threads as there are calls. Writes
+     * of the same page are ordered by its lock, see locked().
+     */
+    private <T> void blocking(LatencyHistogram histogram, Handler<AsyncResult<T>> resultHandler, Callable<T> action) {
+        vertx.<T>executeBlocking(future -> {
+            long start = System.nanoTime();
+            try {
+                future.complete(action.call());
+            } catch (Exception e) {
+                future.fail(e);
+            } finally {
+                histogram.recordNanos(System.nanoTime() - start);
+            }
+        }, false, resultHandler);
+    }
+}
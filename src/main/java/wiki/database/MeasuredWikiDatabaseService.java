@@ -0,0 +1,179 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+
+import java.util.List;
+
+/**
+ * Decorator of a {@link WikiDatabaseService} proxy that records the round-trip time of every action, from the call
+ * to the result handler being invoked.
+ */
+class MeasuredWikiDatabaseService implements WikiDatabaseService {
+
+    private static final String ROUND_TRIP = "wiki_eventbus_roundtrip_seconds";
+    private static final String ROUND_TRIP_HELP = "Round-trip time of WikiDatabaseService actions over the event bus";
+
+    private final WikiDatabaseService delegate;
+
+    private final LatencyHistogram fetchAllPages;
+    private final LatencyHistogram fetchPageNames;
+    private final LatencyHistogram fetchPage;
+    private final LatencyHistogram createPage;
+    private final LatencyHistogram savePage;
+    private final LatencyHistogram savePageIfVersion;
+    private final LatencyHistogram deletePage;
+    private final LatencyHistogram fetchAllPagesData;
+    private final LatencyHistogram fetchPageById;
+    private final LatencyHistogram fetchPagesPage;
+    private final LatencyHistogram streamPagesData;
+    private final LatencyHistogram createPages;
+    private final LatencyHistogram savePages;
+    private final LatencyHistogram search;
+    private final LatencyHistogram fetchRevisions;
+    private final LatencyHistogram fetchRevision;
+    private final LatencyHistogram fetchRevisionDiff;
+    private final LatencyHistogram fetchPoolMetrics;
+
+    MeasuredWikiDatabaseService(WikiDatabaseService delegate, MetricsRegistry metrics) {
+        this.delegate = delegate;
+        this.fetchAllPages = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchAllPages");
+        this.fetchPageNames = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchPageNames");
+        this.fetchPage = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchPage");
+        this.createPage = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "createPage");
+        this.savePage = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "savePage");
+        this.savePageIfVersion = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "savePageIfVersion");
+        this.deletePage = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "deletePage");
+        this.fetchAllPagesData = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchAllPagesData");
+        this.fetchPageById = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchPageById");
+        this.fetchPagesPage = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchPagesPage");
+        this.streamPagesData = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "streamPagesData");
+        this.createPages = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "createPages");
+        this.savePages = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "savePages");
+        this.search = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "search");
+        this.fetchRevisions = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchRevisions");
+        this.fetchRevision = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchRevision");
+        this.fetchRevisionDiff = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchRevisionDiff");
+        this.fetchPoolMetrics = metrics.histogram(ROUND_TRIP, ROUND_TRIP_HELP, "action", "fetchPoolMetrics");
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+        delegate.fetchAllPages(timed(fetchAllPages, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        delegate.fetchPageNames(prefix, after, limit, timed(fetchPageNames, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+        delegate.fetchPage(name, timed(fetchPage, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPage(title, markdown, timed(createPage, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.savePage(id, markdown, timed(savePage, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.savePageIfVersion(id, version, markdown, timed(savePageIfVersion, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.deletePage(id, timed(deletePage, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler) {
+        delegate.fetchAllPagesData(timed(fetchAllPagesData, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler) {
+        delegate.fetchPageById(id, timed(fetchPageById, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        delegate.fetchPagesPage(afterId, limit, timed(fetchPagesPage, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.streamPagesData(address, batchSize, timed(streamPagesData, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.createPages(pages, timed(createPages, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        delegate.savePages(pages, timed(savePages, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.search(query, limit, timed(search, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        delegate.fetchRevisions(id, timed(fetchRevisions, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchRevision(id, revision, timed(fetchRevision, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchRevisionDiff(id, from, to, timed(fetchRevisionDiff, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        delegate.fetchPoolMetrics(timed(fetchPoolMetrics, resultHandler));
+        return this;
+    }
+
+    private static <T> Handler<AsyncResult<T>> timed(LatencyHistogram histogram, Handler<AsyncResult<T>> resultHandler) {
+        long start = System.nanoTime();
+        return ar -> {
+            histogram.recordNanos(System.nanoTime() - start);
+            resultHandler.handle(ar);
+        };
+    }
+}
@@ -0,0 +1,70 @@
+package wiki.database;
+
+import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * A wiki page: its id, name, markdown content, version and modification time (in milliseconds since the epoch, 0 when
+ * unknown).
+ * <p>
+ * Pages are immutable, so they can be shared between verticles without copies: see {@link PageCodec} for the event
+ * bus and {@link LocalWikiDatabaseService} for direct service calls.
+ */
+@DataObject
+public class Page {
+
+    private final int id;
+    private final String name;
+    private final String content;
+    private final int version;
+    private final long modified;
+
+    public Page(int id, String name, String content, int version, long modified) {
+        this.id = id;
+        this.name = name;
+        this.content = content;
+        this.version = version;
+        this.modified = modified;
+    }
+
+    public Page(Page other) {
+        this(other.id, other.name, other.content, other.version, other.modified);
+    }
+
+    public Page(JsonObject json) {
+        this(json.getInteger("id", -1),
+                json.getString("name"),
+                json.getString("content"),
+                json.getInteger("version", 1),
+                json.getLong("modified", 0L));
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("id", id)
+                .put("name", name)
+                .put("content", content)
+                .put("version", version)
+                .put("modified", modified);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+}
@@ -0,0 +1,7 @@
+package wiki.database;
+
+public enum PageChange {
+    CREATED,
+    UPDATED,
+    DELETED
+}
@@ -0,0 +1,166 @@
+package wiki.database;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.EventBus;
+import io.vertx.core.eventbus.MessageCodec;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Event bus codec of {@link Page}s, the default one for that class.
+ * <p>
+ * Pages are immutable, so local delivery passes them by reference. Between cluster nodes a page is written as varints
+ * (id, version, modification time, and the byte length of each string) followed by the UTF-8 bytes of its name and
+ * content, which is smaller and cheaper to produce and parse than its JSON text.
+ * <p>
+ * {@link Batch} encodes lists of pages the same way, and is selected with
+ * {@code new DeliveryOptions().setCodecName(PageCodec.BATCH)}.
+ */
+public class PageCodec implements MessageCodec<Page, Page> {
+
+    public static final String NAME = "wiki.page";
+    public static final String BATCH = "wiki.pages";
+
+    /**
+     * Registers both codecs on the event bus of a Vert.x instance, unless they already are. Every node that sends or
+     * receives pages must do so.
+     */
+    public static synchronized void register(Vertx vertx) {
+        EventBus eventBus = vertx.eventBus();
+        try {
+            eventBus.registerDefaultCodec(Page.class, new PageCodec());
+            eventBus.registerCodec(new Batch());
+        } catch (IllegalStateException alreadyRegistered) {
+            // Registered by another verticle of this Vert.x instance
+        }
+    }
+
+    @Override
+    public void encodeToWire(Buffer buffer, Page page) {
+        write(buffer, page);
+    }
+
+    @Override
+    public Page decodeFromWire(int pos, Buffer buffer) {
+        return read(buffer, new int[]{pos});
+    }
+
+    @Override
+    public Page transform(Page page) {
+        return page;
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public byte systemCodecID() {
+        return -1;
+    }
+
+    public static class Batch implements MessageCodec<List<Page>, List<Page>> {
+
+        @Override
+        public void encodeToWire(Buffer buffer, List<Page> pages) {
+            writeVarint(buffer, pages.size());
+            for (Page page : pages) {
+                write(buffer, page);
+            }
+        }
+
+        @Override
+        public List<Page> decodeFromWire(int pos, Buffer buffer) {
+            int[] position = {pos};
+            int size = (int) readVarint(buffer, position);
+            List<Page> pages = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                pages.add(read(buffer, position));
+            }
+            return Collections.unmodifiableList(pages);
+        }
+
+        @Override
+        public List<Page> transform(List<Page> pages) {
+            return Collections.unmodifiableList(pages);
+        }
+
+        @Override
+        public String name() {
+            return BATCH;
+        }
+
+        @Override
+        public byte systemCodecID() {
+            return -1;
+        }
+    }
+
+    static void write(Buffer buffer, Page page) {
+        writeVarint(buffer, page.getId() & 0xffffffffL);
+        writeString(buffer, page.getName());
+        writeString(buffer, page.getContent());
+        writeVarint(buffer, page.getVersion() & 0xffffffffL);
+        writeVarint(buffer, page.getModified());
+    }
+
+    static Page read(Buffer buffer, int[] position) {
+        int id = (int) readVarint(buffer, position);
+        String name = readString(buffer, position);
+        String content = readString(buffer, position);
+        int version = (int) readVarint(buffer, position);
+        long modified = readVarint(buffer, position);
+        return new Page(id, name, content, version, modified);
+    }
+
+    /*
+     * Lengths are shifted by one so that 0 stands for null.
+     */
+    private static void writeString(Buffer buffer, String value) {
+        if (value == null) {
+            writeVarint(buffer, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(buffer, bytes.length + 1L);
+        buffer.appendBytes(bytes);
+    }
+
+    private static String readString(Buffer buffer, int[] position) {
+        int length = (int) readVarint(buffer, position) - 1;
+        if (length < 0) {
+            return null;
+        }
+        String value = buffer.getString(position[0], position[0] + length, "UTF-8");
+        position[0] += length;
+        return value;
+    }
+
+    /*
+     * Unsigned LEB128: seven bits per byte, least significant first, with the high bit set on all but the last byte.
+     */
+    private static void writeVarint(Buffer buffer, long value) {
+        while ((value & ~0x7fL) != 0) {
+            buffer.appendByte((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.appendByte((byte) value);
+    }
+
+    private static long readVarint(Buffer buffer, int[] position) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.getByte(position[0]++);
+            value |= (long) (b & 0x7f) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+}
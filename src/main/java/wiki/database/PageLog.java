@@ -0,0 +1,661 @@
+package wiki.database;
+
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiki.search.SearchIndex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Log-structured page storage: every page version and every deletion is a record appended to the end of a log made
+ * of memory-mapped segment files, and an in-memory index maps page ids and names to the location of their records.
+ * Writes are thus sequential and never rewrite a page in place. Layout of a record, big-endian:
+ * <pre>
+ * length    of the body
+ * checksum  CRC32 of the body
+ * body      type (PUT or DELETE), page id, version, modification time, then name and content as UTF-8 prefixed with
+ *           their byte length (-1 for none)
+ * </pre>
+ * The last {@code retainedRevisions} versions of each page stay in the log as its revision history; older versions,
+ * and all the versions of deleted pages, are garbage. Once garbage makes up {@code compactionThreshold} of a sealed
+ * segment, {@link #compact()} copies its live records to the end of the log and deletes it. Deletions are recorded
+ * as tombstones, which are kept (they are small) so that copies of older records can never bring a page back.
+ * <p>
+ * Opening the log replays its segments in order. Replay stops at the first record whose checksum does not match,
+ * which is where a write was torn by a crash, and appending resumes from there.
+ * <p>
+ * Changes are written to the mapped segments and reach the disk when the operating system writes the pages out, or
+ * at the latest on {@link #sync()}. Instances are thread-safe, but blocking: use them from worker threads.
+ */
+final class PageLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PageLog.class);
+
+    private static final byte PUT = 1;
+    private static final byte DELETE = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int NAME_OFFSET = 17;  // After the type, id, version and modification time
+    private static final int FIXED_BODY_SIZE = NAME_OFFSET + 8;
+    private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d+)\\.log");
+    private static final byte[] ZEROS = new byte[1 << 16];
+
+    private static final class Segment {
+        final long sequence;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int size;
+        long live;
+
+        Segment(long sequence, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.sequence = sequence;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        final int length;
+        final int version;
+        final long modified;
+
+        Location(Segment segment, int offset, int length, int version, long modified) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.modified = modified;
+        }
+    }
+
+    private static final class Entry {
+        final String name;
+        final List<Location> history = new ArrayList<>();  // By version, the last one is current
+
+        Entry(String name) {
+            this.name = name;
+        }
+
+        Location current() {
+            return history.get(history.size() - 1);
+        }
+    }
+
+    private final Path directory;
+    private final boolean persistent;
+    private final int segmentSize;
+    private final int retainedRevisions;
+    private final double compactionThreshold;
+    private final CRC32 crc = new CRC32();
+
+    private final List<Segment> segments = new ArrayList<>();
+    private final TreeMap<Integer, Entry> pages = new TreeMap<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final Map<Integer, Location> tombstones = new HashMap<>();
+    private int maxId = -1;
+    private boolean dirty;
+    private boolean closed;
+    private long compactions;
+    private long reclaimedBytes;
+
+    private PageLog(Path directory, boolean persistent, int segmentSize, int retainedRevisions, double compactionThreshold) {
+        this.directory = directory;
+        this.persistent = persistent;
+        this.segmentSize = segmentSize;
+        this.retainedRevisions = Math.max(1, retainedRevisions);
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    /**
+     * Opens the log stored in a directory, or a temporary one that is deleted on close if {@code directory} is empty.
+     */
+    static PageLog open(String directory, int segmentSize, int retainedRevisions, double compactionThreshold) throws IOException {
+        PageLog log = directory.isEmpty()
+                ? new PageLog(Files.createTempDirectory("wiki-log"), false, segmentSize, retainedRevisions, compactionThreshold)
+                : new PageLog(Files.createDirectories(Paths.get(directory)), true, segmentSize, retainedRevisions, compactionThreshold);
+        log.recover();
+        return log;
+    }
+
+    synchronized Page get(int id) {
+        Entry entry = pages.get(id);
+        return entry != null ? read(entry.current()) : null;
+    }
+
+    synchronized Page get(String name) {
+        Integer id = ids.get(name);
+        return id != null ? read(pages.get(id).current()) : null;
+    }
+
+    /**
+     * Up to {@code limit} pages with an id greater than {@code afterId}, in id order.
+     */
+    synchronized List<Page> pages(int afterId, int limit) {
+        List<Page> result = new ArrayList<>();
+        for (Entry entry : pages.tailMap(afterId, false).values()) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(read(entry.current()));
+        }
+        return result;
+    }
+
+    synchronized List<PageSummary> summaries(int afterId, int limit) {
+        List<PageSummary> result = new ArrayList<>();
+        for (Map.Entry<Integer, Entry> entry : pages.tailMap(afterId, false).entrySet()) {
+            if (result.size() == limit) {
+                break;
+            }
+            result.add(new PageSummary(entry.getKey(), entry.getValue().name));
+        }
+        return result;
+    }
+
+    synchronized void forEach(Consumer<Page> action) {
+        pages.values().forEach(entry -> action.accept(read(entry.current())));
+    }
+
+    /**
+     * The retained versions of a page, newest first, as {@code {"revision", "modified"}}.
+     */
+    synchronized List<JsonObject> history(int id) {
+        List<JsonObject> history = new ArrayList<>();
+        Entry entry = pages.get(id);
+        if (entry != null) {
+            for (int i = entry.history.size() - 1; i >= 0; i--) {
+                Location location = entry.history.get(i);
+                history.add(new JsonObject().put("revision", location.version).put("modified", location.modified));
+            }
+        }
+        return history;
+    }
+
+    /**
+     * A retained version of a page, or {@code null}.
+     */
+    synchronized Page revision(int id, int version) {
+        Entry entry = pages.get(id);
+        if (entry != null) {
+            for (Location location : entry.history) {
+                if (location.version == version) {
+                    return read(location);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reserves the ids of {@code count} pages to create, and returns the first of them. A reserved id is not given to
+     * any other page, even if its creation fails.
+     */
+    synchronized int nextIds(int count) {
+        checkOpen();
+        int first = maxId + 1;
+        maxId += count;
+        return first;
+    }
+
+    /**
+     * @param id an id reserved with {@link #nextIds}
+     * @throws IllegalStateException when there already is a page with that name
+     */
+    synchronized Page create(int id, String name, String content, long modified) throws IOException {
+        checkOpen();
+        if (ids.containsKey(name)) {
+            throw new IllegalStateException("There already is a page named " + name);
+        }
+        return put(id, name, content, modified);
+    }
+
+    /**
+     * Creates all the pages, from {@code {"name", "markdown"}} objects, or none of them if a name is taken.
+     *
+     * @param firstId the first of {@code pages.size()} ids reserved with {@link #nextIds}
+     */
+    synchronized List<Page> createAll(int firstId, List<JsonObject> pages, long modified) throws IOException {
+        checkOpen();
+        Set<String> names = new HashSet<>();
+        for (JsonObject page : pages) {
+            String name = page.getString("name");
+            if (ids.containsKey(name) || !names.add(name)) {
+                throw new IllegalStateException("There already is a page named " + name);
+            }
+        }
+        List<Page> created = new ArrayList<>(pages.size());
+        for (JsonObject page : pages) {
+            created.add(put(firstId + created.size(), page.getString("name"), page.getString("markdown"), modified));
+        }
+        return created;
+    }
+
+    private Page put(int id, String name, String content, long modified) throws IOException {
+        Entry entry = new Entry(name);
+        entry.history.add(append(PUT, id, 1, modified, name, content));
+        maxId = Math.max(maxId, id);
+        pages.put(id, entry);
+        ids.put(name, id);
+        return new Page(id, name, content, 1, modified);
+    }
+
+    /**
+     * Saves a new version of a page, unless its current version is not {@code expectedVersion} (when that is not
+     * negative). Returns {@code {"found", "saved", "version"}} as {@link WikiDatabaseService#savePageIfVersion}.
+     */
+    synchronized JsonObject save(int id, int expectedVersion, String content, long modified) throws IOException {
+        checkOpen();
+        Entry entry = pages.get(id);
+        if (entry == null) {
+            return new JsonObject().put("found", false).put("saved", false);
+        }
+        int version = entry.current().version;
+        if (expectedVersion >= 0 && expectedVersion != version) {
+            return new JsonObject().put("found", true).put("saved", false).put("version", version);
+        }
+        entry.history.add(append(PUT, id, version + 1, modified, entry.name, content));
+        while (entry.history.size() > retainedRevisions) {
+            Location dropped = entry.history.remove(0);
+            dropped.segment.live -= dropped.length;
+        }
+        return new JsonObject().put("found", true).put("saved", true).put("version", version + 1);
+    }
+
+    /**
+     * @return the name of the deleted page, or {@code null} if there was none
+     */
+    synchronized String delete(int id) throws IOException {
+        checkOpen();
+        Entry entry = pages.get(id);
+        if (entry == null) {
+            return null;
+        }
+        tombstones.put(id, append(DELETE, id, entry.current().version, System.currentTimeMillis(), null, null));
+        pages.remove(id);
+        ids.remove(entry.name);
+        entry.history.forEach(location -> location.segment.live -= location.length);
+        return entry.name;
+    }
+
+    /**
+     * The {@link SearchIndex#fingerprint(long, long, long)} of the current pages.
+     */
+    synchronized JsonObject fingerprint() {
+        long idSum = 0;
+        long modifiedSum = 0;
+        for (Map.Entry<Integer, Entry> entry : pages.entrySet()) {
+            idSum += entry.getKey();
+            modifiedSum += entry.getValue().current().modified;
+        }
+        return SearchIndex.fingerprint(pages.size(), idSum, modifiedSum);
+    }
+
+    /**
+     * Forces the changes written since the last call to the disk.
+     */
+    synchronized void sync() {
+        if (dirty && !closed) {
+            active().buffer.force();
+            dirty = false;
+        }
+    }
+
+    synchronized boolean needsCompaction() {
+        return !closed && victim() != null;
+    }
+
+    /**
+     * Moves the live records of the sealed segment with the largest share of garbage (if it is over the threshold) to
+     * the end of the log, and deletes it. Records are moved one at a time, so that writes are only held back briefly.
+     *
+     * @return whether a segment was compacted
+     */
+    boolean compact() throws IOException {
+        Segment victim;
+        synchronized (this) {
+            victim = closed ? null : victim();
+            if (victim == null) {
+                return false;
+            }
+        }
+        // A sealed segment never changes, so it can be read without the lock
+        ByteBuffer view = victim.buffer.duplicate();
+        int offset = 0;
+        long moved = 0;
+        while (offset < victim.size) {
+            int length = HEADER_SIZE + view.getInt(offset);
+            synchronized (this) {
+                if (closed) {
+                    return false;
+                }
+                moved += relocate(victim, view, offset, length);
+            }
+            offset += length;
+        }
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            active().buffer.force();  // The copies must be on disk before the originals go
+            segments.remove(victim);
+            victim.channel.close();
+            Files.deleteIfExists(victim.path);
+            compactions++;
+            reclaimedBytes += victim.size - moved;
+        }
+        return true;
+    }
+
+    /*
+     * Copies the record at an offset of a segment being compacted if it is live, and returns the bytes copied.
+     */
+    private int relocate(Segment victim, ByteBuffer view, int offset, int length) throws IOException {
+        int body = offset + HEADER_SIZE;
+        int id = view.getInt(body + 1);
+        if (view.get(body) == DELETE) {
+            Location tombstone = tombstones.get(id);
+            if (tombstone != null && tombstone.segment == victim && tombstone.offset == offset) {
+                tombstones.put(id, copy(tombstone));
+                return length;
+            }
+            return 0;
+        }
+        Entry entry = pages.get(id);
+        if (entry != null) {
+            for (int i = 0; i < entry.history.size(); i++) {
+                Location location = entry.history.get(i);
+                if (location.segment == victim && location.offset == offset) {
+                    entry.history.set(i, copy(location));
+                    return length;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private Location copy(Location location) throws IOException {
+        byte[] record = new byte[location.length];
+        ByteBuffer view = location.segment.buffer.duplicate();
+        view.position(location.offset);
+        view.get(record);
+        location.segment.live -= location.length;
+        return write(record, location.version, location.modified);
+    }
+
+    private Segment victim() {
+        Segment victim = null;
+        double worst = compactionThreshold;
+        for (int i = 0; i < segments.size() - 1; i++) {
+            Segment segment = segments.get(i);
+            double garbage = segment.size == 0 ? 1 : 1 - (double) segment.live / segment.size;
+            if (garbage >= worst) {
+                victim = segment;
+                worst = garbage;
+            }
+        }
+        return victim;
+    }
+
+    synchronized JsonObject stats() {
+        long bytes = 0;
+        long live = 0;
+        for (Segment segment : segments) {
+            bytes += segment.size;
+            live += segment.live;
+        }
+        return new JsonObject()
+                .put("segments", segments.size())
+                .put("bytes", bytes)
+                .put("liveBytes", live)
+                .put("pages", pages.size())
+                .put("tombstones", tombstones.size())
+                .put("compactions", compactions)
+                .put("reclaimedBytes", reclaimedBytes);
+    }
+
+    /**
+     * Forces the log to the disk and closes it, deleting it if it is temporary.
+     */
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        sync();
+        closed = true;
+        for (Segment segment : segments) {
+            segment.channel.close();
+            if (!persistent) {
+                Files.deleteIfExists(segment.path);
+            }
+        }
+        if (!persistent) {
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("The page log is closed");
+        }
+    }
+
+    private Location append(byte type, int id, int version, long modified, String name, String content) throws IOException {
+        byte[] nameBytes = name != null ? name.getBytes(StandardCharsets.UTF_8) : null;
+        byte[] contentBytes = content != null ? content.getBytes(StandardCharsets.UTF_8) : null;
+        int bodyLength = FIXED_BODY_SIZE + length(nameBytes) + length(contentBytes);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + bodyLength);
+        record.putInt(bodyLength).putInt(0)
+                .put(type).putInt(id).putInt(version).putLong(modified);
+        putBytes(record, nameBytes);
+        putBytes(record, contentBytes);
+        crc.reset();
+        crc.update(record.array(), HEADER_SIZE, bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        return write(record.array(), version, modified);
+    }
+
+    private Location write(byte[] record, int version, long modified) throws IOException {
+        Segment active = active();
+        if (active.size + record.length > active.buffer.capacity()) {
+            active.buffer.force();
+            active = roll(record.length);
+        }
+        ByteBuffer view = active.buffer.duplicate();
+        view.position(active.size);
+        view.put(record);
+        Location location = new Location(active, active.size, record.length, version, modified);
+        active.size += record.length;
+        active.live += record.length;
+        dirty = true;
+        return location;
+    }
+
+    private Page read(Location location) {
+        ByteBuffer view = location.segment.buffer.duplicate();
+        int body = location.offset + HEADER_SIZE;
+        view.position(body + NAME_OFFSET);
+        int id = view.getInt(body + 1);
+        String name = getString(view);
+        String content = getString(view);
+        return new Page(id, name, content, location.version, location.modified);
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes != null ? bytes.length : 0;
+    }
+
+    private static void putBytes(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment roll(int minCapacity) throws IOException {
+        long sequence = segments.isEmpty() ? 1 : active().sequence + 1;
+        Segment segment = map(directory.resolve(String.format("segment-%08d.log", sequence)), sequence, Math.max(segmentSize, minCapacity));
+        segments.add(segment);
+        return segment;
+    }
+
+    /*
+     * Mapping a new file past its end grows it to the given capacity, with zeros.
+     */
+    private static Segment map(Path path, long sequence, long capacity) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            return new Segment(sequence, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size())));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "segment-*.log")) {
+            for (Path file : stream) {
+                if (SEGMENT_NAME.matcher(file.getFileName().toString()).matches()) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(Comparator.comparingLong(PageLog::sequence));
+        for (Path file : files) {
+            Segment segment = map(file, sequence(file), 0);
+            segments.add(segment);
+            replay(segment);
+        }
+        if (segments.isEmpty()) {
+            roll(segmentSize);
+        } else {
+            // Appending resumes after the last valid record: clear whatever a torn write left behind it
+            Segment active = active();
+            ByteBuffer view = active.buffer.duplicate();
+            view.position(active.size);
+            while (view.hasRemaining()) {
+                view.put(ZEROS, 0, Math.min(ZEROS.length, view.remaining()));
+            }
+        }
+        for (Entry entry : pages.values()) {
+            entry.history.forEach(location -> location.segment.live += location.length);
+        }
+        tombstones.values().forEach(location -> location.segment.live += location.length);
+        if (!files.isEmpty()) {
+            LOGGER.info("Recovered {} pages from {} log segments", pages.size(), segments.size());
+        }
+    }
+
+    private static long sequence(Path file) {
+        Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    private void replay(Segment segment) {
+        ByteBuffer view = segment.buffer.duplicate();
+        int offset = 0;
+        while (offset + HEADER_SIZE <= view.capacity()) {
+            int length = view.getInt(offset);
+            if (length == 0) {
+                break;
+            }
+            if (length < FIXED_BODY_SIZE || length > view.capacity() - offset - HEADER_SIZE
+                    || checksum(view, offset + HEADER_SIZE, length) != view.getInt(offset + 4)) {
+                LOGGER.warn("Torn or corrupt record at offset {} of {}, ignoring the rest of the segment", offset, segment.path);
+                break;
+            }
+            apply(segment, view, offset, HEADER_SIZE + length);
+            offset += HEADER_SIZE + length;
+        }
+        segment.size = offset;
+    }
+
+    private int checksum(ByteBuffer view, int from, int length) {
+        ByteBuffer body = view.duplicate();
+        body.limit(from + length).position(from);
+        crc.reset();
+        crc.update(body);
+        return (int) crc.getValue();
+    }
+
+    /*
+     * Compaction appends copies of older records after newer ones, and a crash during compaction leaves both the
+     * original and the copy: versions, not positions in the log, tell which is current.
+     */
+    private void apply(Segment segment, ByteBuffer view, int offset, int length) {
+        int body = offset + HEADER_SIZE;
+        int id = view.getInt(body + 1);
+        Location location = new Location(segment, offset, length, view.getInt(body + 5), view.getLong(body + 9));
+        maxId = Math.max(maxId, id);
+        if (view.get(body) == DELETE) {
+            Entry deleted = pages.remove(id);
+            if (deleted != null) {
+                ids.remove(deleted.name);
+            }
+            tombstones.put(id, location);
+            return;
+        }
+        if (tombstones.containsKey(id)) {
+            return;
+        }
+        Entry entry = pages.get(id);
+        if (entry == null) {
+            view.position(offset + HEADER_SIZE + NAME_OFFSET);
+            entry = new Entry(getString(view));
+            pages.put(id, entry);
+            ids.put(entry.name, id);
+        }
+        int i = entry.history.size();
+        while (i > 0 && entry.history.get(i - 1).version > location.version) {
+            i--;
+        }
+        if (i > 0 && entry.history.get(i - 1).version == location.version) {
+            entry.history.set(i - 1, location);
+        } else {
+            entry.history.add(i, location);
+        }
+        while (entry.history.size() > retainedRevisions) {
+            entry.history.remove(0);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package wiki.database;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Names of all pages, sorted case-insensitively, so that the page list, its pagination and name suggestions are
+ * answered from memory in logarithmic time instead of reading and sorting every name from the database.
+ * <p>
+ * It is loaded when the service starts and kept up to date as pages are created and deleted (page names never
+ * change). It is thread-safe.
+ */
+class PageNameIndex {
+
+    private final ConcurrentSkipListMap<String, PageSummary> byKey = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<Integer, String> byId = new ConcurrentHashMap<>();
+
+    void put(int id, String name) {
+        String previous = byId.put(id, name);
+        if (previous != null) {
+            byKey.remove(key(previous));
+        }
+        byKey.put(key(name), new PageSummary(id, name));
+    }
+
+    void remove(int id) {
+        String name = byId.remove(id);
+        if (name != null) {
+            byKey.remove(key(name));
+        }
+    }
+
+    String name(int id) {
+        return byId.get(id);
+    }
+
+    List<String> names() {
+        List<String> names = new ArrayList<>(byKey.size());
+        byKey.values().forEach(page -> names.add(page.getName()));
+        return names;
+    }
+
+    /**
+     * Up to {@code limit} pages, in name order, whose names start with a prefix (ignoring
+     * case) and come after a given name.
+     *
+     * @param prefix the prefix, or {@code null} for all pages
+     * @param after  the name to start after, or {@code null} to start with the first page
+     */
+    List<PageSummary> pages(String prefix, String after, int limit) {
+        String from = "";
+        boolean inclusive = true;
+        String to = null;
+        if (prefix != null && !prefix.isEmpty()) {
+            from = prefix.toLowerCase(Locale.ROOT);
+            to = from + Character.MAX_VALUE;
+        }
+        if (after != null && key(after).compareTo(from) >= 0) {
+            from = key(after);
+            inclusive = false;
+        }
+        if (to != null && from.compareTo(to) >= 0) {
+            return new ArrayList<>();
+        }
+        NavigableMap<String, PageSummary> range = to == null
+                ? byKey.tailMap(from, inclusive)
+                : byKey.subMap(from, inclusive, to, false);
+        List<PageSummary> pages = new ArrayList<>(Math.min(limit, 1024));
+        for (Map.Entry<String, PageSummary> entry : range.entrySet()) {
+            if (pages.size() == limit) {
+                break;
+            }
+            pages.add(entry.getValue());
+        }
+        return pages;
+    }
+
+    /*
+     * Names differing only by case sort next to each other, ordered by their exact spelling.
+     */
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT) + '\u0000' + name;
+    }
+}
@@ -0,0 +1,102 @@
+package wiki.database;
+
+import io.vertx.core.json.JsonArray;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * History of page contents, stored in the PageRevisions table: revision {@code n} of a page is its content at version
+ * {@code n}. A revision is stored either as a full snapshot or as a {@link LineDiff} delta from the previous revision,
+ * and each row records the revision of its snapshot (its base). A snapshot is taken every {@code snapshotInterval}
+ * revisions, so restoring any revision reads one snapshot and applies at most {@code snapshotInterval - 1} deltas.
+ * <p>
+ * Restored revisions are kept in an LRU cache bounded by their total length, shared by all threads.
+ */
+final class PageRevisions {
+
+    static final class Revision {
+
+        final String content;
+        final long modified;
+
+        Revision(String content, long modified) {
+            this.content = content;
+            this.modified = modified;
+        }
+    }
+
+    private final int snapshotInterval;
+    private final long cacheCapacity;
+    private final LinkedHashMap<Long, Revision> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cacheSize;
+
+    PageRevisions(int snapshotInterval, long cacheCapacity) {
+        this.snapshotInterval = Math.max(1, snapshotInterval);
+        this.cacheCapacity = cacheCapacity;
+    }
+
+    /**
+     * Parameters of the {@link SqlQuery#CREATE_REVISION} statement for a new revision of a page, given the previous
+     * revision (its content and base, both {@code null} when there is none).
+     */
+    JsonArray row(int id, int revision, String previous, Integer previousBase, String content, long modified) {
+        boolean snapshot = previous == null || previousBase == null || revision - previousBase >= snapshotInterval;
+        return new JsonArray()
+                .add(id)
+                .add(revision)
+                .add(snapshot ? revision : previousBase)
+                .add(snapshot ? content : LineDiff.delta(previous, content))
+                .add(modified);
+    }
+
+    /**
+     * Restores a revision from the rows of {@link SqlQuery#RESTORE_REVISION}: its base snapshot followed by the deltas
+     * up to it, as (Revision, Data, Modified).
+     */
+    static Revision restore(List<JsonArray> rows) {
+        if (rows.size() == 1) {
+            return new Revision(rows.get(0).getString(1), rows.get(0).getLong(2));
+        }
+        List<String> lines = Arrays.asList(LineDiff.lines(rows.get(0).getString(1)));
+        for (int i = 1; i < rows.size(); i++) {
+            lines = LineDiff.apply(lines, rows.get(i).getString(1));
+        }
+        return new Revision(String.join("\n", lines), rows.get(rows.size() - 1).getLong(2));
+    }
+
+    synchronized Revision cached(int id, int revision) {
+        return cache.get(key(id, revision));
+    }
+
+    synchronized void cache(int id, int revision, Revision content) {
+        Revision previous = cache.put(key(id, revision), content);
+        if (previous != null) {
+            cacheSize -= previous.content.length();
+        }
+        cacheSize += content.content.length();
+        Iterator<Revision> eldest = cache.values().iterator();
+        while (cacheSize > cacheCapacity && eldest.hasNext()) {
+            cacheSize -= eldest.next().content.length();
+            eldest.remove();
+        }
+    }
+
+    synchronized void forget(int id) {
+        Iterator<Map.Entry<Long, Revision>> entries = cache.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Long, Revision> entry = entries.next();
+            if ((int) (entry.getKey() >>> 32) == id) {
+                cacheSize -= entry.getValue().content.length();
+                entries.remove();
+            }
+        }
+    }
+
+    private static long key(int id, int revision) {
+        return ((long) id << 32) | (revision & 0xffffffffL);
+    }
+}
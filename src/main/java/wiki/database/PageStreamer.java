@@ -0,0 +1,88 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.sql.SQLRowStream;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends the rows of a {@link SQLRowStream} of pages to an event bus address, in batches of {@code List<Page>} encoded
+ * with {@link PageCodec#BATCH}.
+ * The next batch is only sent once the consumer has replied to the previous one, so a slow consumer pauses the
+ * database cursor instead of letting batches pile up in memory. Failing a batch message aborts the stream.
+ * <p>
+ * The stream ends with a {@code {"end": true}} message, or {@code {"error": "..."}} when it could not be completed.
+ */
+class PageStreamer {
+
+    private static final DeliveryOptions BATCH = new DeliveryOptions().setCodecName(PageCodec.BATCH);
+
+    private final Vertx vertx;
+    private final String address;
+    private final int batchSize;
+    private final SQLRowStream rows;
+    private final Future<Void> completion = Future.future();
+    private final Handler<AsyncResult<Void>> endHandler;
+    private final int idColumn;
+    private final int nameColumn;
+    private final int contentColumn;
+    private final int versionColumn;
+    private final int modifiedColumn;
+
+    private List<Page> batch = new ArrayList<>();
+
+    PageStreamer(Vertx vertx, String address, int batchSize, SQLRowStream rows, Handler<AsyncResult<Void>> endHandler) {
+        this.vertx = vertx;
+        this.address = address;
+        this.batchSize = batchSize;
+        this.rows = rows;
+        this.endHandler = endHandler;
+        this.idColumn = rows.column("ID");
+        this.nameColumn = rows.column("NAME");
+        this.contentColumn = rows.column("CONTENT");
+        this.versionColumn = rows.column("VERSION");
+        this.modifiedColumn = rows.column("MODIFIED");
+    }
+
+    void start() {
+        completion.setHandler(ar -> {
+            vertx.eventBus().send(address, ar.succeeded()
+                    ? new JsonObject().put("end", true)
+                    : new JsonObject().put("error", String.valueOf(ar.cause().getMessage())));
+            endHandler.handle(ar);
+        });
+        rows.exceptionHandler(completion::tryFail);
+        rows.endHandler(v -> flush(completion::tryComplete));
+        rows.handler(row -> {
+            batch.add(new Page(row.getInteger(idColumn), row.getString(nameColumn), row.getString(contentColumn),
+                    row.getInteger(versionColumn), row.getLong(modifiedColumn)));
+            if (batch.size() >= batchSize) {
+                rows.pause();
+                flush(rows::resume);
+            }
+        });
+    }
+
+    private void flush(Runnable next) {
+        if (batch.isEmpty()) {
+            next.run();
+            return;
+        }
+        List<Page> message = batch;
+        batch = new ArrayList<>();
+        vertx.eventBus().send(address, message, BATCH, reply -> {
+            if (reply.succeeded()) {
+                next.run();
+            } else {
+                rows.close();
+                completion.tryFail(reply.cause());
+            }
+        });
+    }
+}
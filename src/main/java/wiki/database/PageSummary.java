@@ -0,0 +1,41 @@
+package wiki.database;
+
+import io.vertx.codegen.annotations.DataObject;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The id and name of a page, as listed without reading its content. Immutable.
+ */
+@DataObject
+public class PageSummary {
+
+    private final int id;
+    private final String name;
+
+    public PageSummary(int id, String name) {
+        this.id = id;
+        this.name = name;
+    }
+
+    public PageSummary(PageSummary other) {
+        this(other.id, other.name);
+    }
+
+    public PageSummary(JsonObject json) {
+        this(json.getInteger("id", -1), json.getString("name"));
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("id", id)
+                .put("name", name);
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+}
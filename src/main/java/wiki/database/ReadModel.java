@@ -0,0 +1,398 @@
+package wiki.database;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * {@link WikiDatabaseService} answering page reads from an in-memory copy of every page, and passing everything else on
+ * to the database service. It is the service of a {@link ReadModelVerticle}, confined to its event loop.
+ * <p>
+ * The copy is loaded with {@link WikiDatabaseService#streamPagesData(String, int, Handler)}, then follows the change
+ * events of the database service, which it publishes again on its own events address once applied. Writes made
+ * through it are applied before they are acknowledged.
+ */
+class ReadModel implements WikiDatabaseService {
+
+    private static final int MAX_DELETED = 10000;
+    private static final long MIN_RETRY_DELAY = 100;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private final Vertx vertx;
+    private final WikiDatabaseService database;
+    private final String eventsAddress;
+
+    private final TreeMap<Integer, Page> byId = new TreeMap<>();
+    private final Map<String, Page> byName = new HashMap<>();
+    private final PageNameIndex names = new PageNameIndex();
+    private final Set<Integer> deleted = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > MAX_DELETED;  //只有仍在进行中的读取可能带回已删除的页面，较早的删除无需再记住
+        }
+    });
+    private final Set<Integer> staleIds = new HashSet<>();  //读回失败的页面：读取转给数据库，直到读回成功
+    private final Set<String> staleNames = new HashSet<>();
+    private final Set<Long> retryTimers = new HashSet<>();
+
+    private final LongAdder pagesGauge;
+    private final LongAdder refreshes;
+    private final LatencyHistogram lag;
+
+    ReadModel(Vertx vertx, WikiDatabaseService database, String eventsAddress) {
+        this.vertx = vertx;
+        this.database = database;
+        this.eventsAddress = eventsAddress;
+        MetricsRegistry metrics = MetricsRegistry.get(vertx);
+        this.pagesGauge = metrics.gauge("wiki_read_model_pages", "Pages held by the read model");
+        this.refreshes = metrics.counter("wiki_read_model_refreshes_total", "Pages read back by the read model after a change");
+        this.lag = metrics.histogram("wiki_read_model_lag_seconds", "Time from a page change event to the read model being up to date");
+    }
+
+    /**
+     * Applies a page read from the database, unless the copy already has that version or a newer one.
+     */
+    void apply(Page page) {
+        if (page == null || deleted.contains(page.getId())) {
+            return;
+        }
+        Page current = byId.get(page.getId());
+        if (current != null && current.getVersion() >= page.getVersion()) {
+            return;
+        }
+        if (current == null) {
+            pagesGauge.increment();
+            names.put(page.getId(), page.getName());
+        }
+        byId.put(page.getId(), page);
+        byName.put(page.getName(), page);
+    }
+
+    private void remove(int id) {
+        deleted.add(id);
+        staleIds.remove(id);
+        Page removed = byId.remove(id);
+        if (removed != null) {
+            pagesGauge.decrement();
+            byName.remove(removed.getName());
+            staleNames.remove(removed.getName());
+            names.remove(id);
+        }
+    }
+
+    private boolean stale() {
+        return !staleIds.isEmpty() || !staleNames.isEmpty();
+    }
+
+    /**
+     * Loads every page in batches. Changes applied meanwhile are not overwritten by older pages of the stream.
+     */
+    void load(int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        String address = "wikidb.read_model.load." + UUID.randomUUID();
+        MessageConsumer<Object> consumer = vertx.eventBus().consumer(address);
+
+        Future<Void> done = Future.future();
+        done.setHandler(ar -> {
+            consumer.unregister();
+            resultHandler.handle(ar);
+        });
+
+        consumer.handler(message -> {
+            if (message.body() instanceof List) {
+                @SuppressWarnings("unchecked")
+                List<Page> batch = (List<Page>) message.body();
+                batch.forEach(this::apply);
+                message.reply(null);
+            } else if (((JsonObject) message.body()).containsKey("error")) {
+                done.tryFail(((JsonObject) message.body()).getString("error"));
+            } else {
+                done.tryComplete();
+            }
+        });
+
+        consumer.completionHandler(registered -> {
+            if (registered.failed()) {
+                done.tryFail(registered.cause());
+                return;
+            }
+            database.streamPagesData(address, batchSize, started -> {
+                if (started.failed()) {
+                    done.tryFail(started.cause());
+                }
+            });
+        });
+    }
+
+    /**
+     * Brings the copy up to date with a page change event of the database service, then publishes it again.
+     */
+    void changed(JsonObject event) {
+        long start = System.nanoTime();
+        Integer id = event.getInteger("id");
+        Page current = id != null ? byId.get(id) : byName.get(event.getString("name"));
+        Integer version = event.getInteger("version");
+        if (current != null && version != null && current.getVersion() >= version) {
+            vertx.eventBus().publish(eventsAddress, event);  //例如通过读模型的写入，副本已是该版本
+            return;
+        }
+        refresh(id, event.getString("name"), PageChange.valueOf(event.getString("change")), ar -> {
+            lag.recordNanos(System.nanoTime() - start);
+            vertx.eventBus().publish(eventsAddress, event);  //读回失败时页面的读取已转给数据库，缓存同样需要失效
+            if (ar.failed()) {
+                retry(id, event.getString("name"), PageChange.valueOf(event.getString("change")), MIN_RETRY_DELAY);
+            }
+        });
+    }
+
+    /*
+     * Until a page is read back, by this retry or after a later change, its reads go to the database.
+     */
+    private void retry(Integer id, String name, PageChange change, long delay) {
+        long[] timer = new long[1];
+        timer[0] = vertx.setTimer(delay, t -> {
+            retryTimers.remove(timer[0]);
+            if (id != null ? !staleIds.contains(id) : !staleNames.contains(name)) {
+                return;
+            }
+            refresh(id, name, change, ar -> {
+                if (ar.failed()) {
+                    retry(id, name, change, Math.min(delay * 2, MAX_RETRY_DELAY));
+                }
+            });
+        });
+        retryTimers.add(timer[0]);
+    }
+
+    /**
+     * Withdraws the copy from the pages gauge, when the verticle is undeployed.
+     */
+    void close() {
+        retryTimers.forEach(vertx::cancelTimer);
+        retryTimers.clear();
+        pagesGauge.add(-byId.size());
+    }
+
+    /*
+     * By name for pages created through the read model, whose id is not known yet, and for events without an id.
+     */
+    private void refresh(Integer id, String name, PageChange change, Handler<AsyncResult<Void>> done) {
+        if (change == PageChange.DELETED) {
+            Page named = id == null ? byName.get(name) : null;
+            if (id != null) {
+                remove(id);
+            } else if (named != null) {
+                remove(named.getId());
+            }
+            done.handle(Future.succeededFuture());
+            return;
+        }
+        refreshes.increment();
+        Handler<AsyncResult<Page>> read = ar -> {
+            if (ar.succeeded()) {
+                apply(ar.result());
+                staleIds.remove(id);
+                staleNames.remove(ar.result() != null ? ar.result().getName() : name);
+            } else {
+                if (id != null) {
+                    staleIds.add(id);
+                }
+                if (name != null) {
+                    staleNames.add(name);
+                }
+            }
+            done.handle(ar.mapEmpty());
+        };
+        if (id != null) {
+            database.fetchPageById(id, read);
+        } else {
+            database.fetchPage(name, read);
+        }
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+        if (stale()) {
+            database.fetchAllPages(resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(new JsonArray(names.names())));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        if (stale()) {
+            database.fetchPageNames(prefix, after, limit, resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(names.pages(prefix, after, Math.max(0, limit))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+        Page page = byName.get(name);
+        if (staleNames.contains(name) || (page != null && staleIds.contains(page.getId()))) {
+            database.fetchPage(name, resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(page));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler) {
+        if (staleIds.contains(id)) {
+            database.fetchPageById(id, resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(byId.get(id)));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler) {
+        if (stale()) {
+            database.fetchAllPagesData(resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(new ArrayList<>(byId.values())));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        if (stale()) {
+            database.fetchPagesPage(afterId, limit, resultHandler);
+            return this;
+        }
+        resultHandler.handle(Future.succeededFuture(byId.tailMap(afterId, false).values().stream()
+                .limit(Math.max(0, limit))
+                .map(page -> new PageSummary(page.getId(), page.getName()))
+                .collect(Collectors.toList())));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        database.createPage(title, markdown, ar -> written(ar, null, title, PageChange.CREATED, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
+        database.savePage(id, markdown, ar -> written(ar, id, null, PageChange.UPDATED, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        database.savePageIfVersion(id, version, markdown, ar -> {
+            if (ar.succeeded() && ar.result().getBoolean("saved")) {
+                written(ar, id, null, PageChange.UPDATED, resultHandler);
+            } else {
+                resultHandler.handle(ar);
+            }
+        });
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+        database.deletePage(id, ar -> written(ar, id, null, PageChange.DELETED, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        database.createPages(pages, ar -> writtenAll(ar, pages, PageChange.CREATED, resultHandler));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        database.savePages(pages, ar -> writtenAll(ar, pages, PageChange.UPDATED, resultHandler));
+        return this;
+    }
+
+    /*
+     * Failing to read the page back does not fail the write: its event will bring the copy up to date.
+     */
+    private <T> void written(AsyncResult<T> result, Integer id, String name, PageChange change, Handler<AsyncResult<T>> resultHandler) {
+        if (result.failed()) {
+            resultHandler.handle(result);
+        } else {
+            refresh(id, name, change, refreshed -> resultHandler.handle(result));
+        }
+    }
+
+    private void writtenAll(AsyncResult<Void> result, List<JsonObject> pages, PageChange change, Handler<AsyncResult<Void>> resultHandler) {
+        if (result.failed()) {
+            resultHandler.handle(result);
+            return;
+        }
+        List<Future> refreshed = new ArrayList<>(pages.size());
+        for (JsonObject page : pages) {
+            Future<Void> done = Future.future();
+            refresh(page.getInteger("id"), page.getString("name"), change, ar -> done.complete());
+            refreshed.add(done);
+        }
+        CompositeFuture.join(refreshed).setHandler(ar -> resultHandler.handle(result));
+    }
+
+    @Override
+    public WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        database.streamPagesData(address, batchSize, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        database.search(query, limit, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        database.fetchRevisions(id, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+        database.fetchRevision(id, revision, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+        database.fetchRevisionDiff(id, from, to, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        database.fetchPoolMetrics(resultHandler);
+        return this;
+    }
+}
@@ -0,0 +1,59 @@
+package wiki.database;
+
+import io.vertx.core.AbstractVerticle;
+import io.vertx.core.Future;
+import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonObject;
+import io.vertx.serviceproxy.ProxyHelper;
+
+/**
+ * Serves page reads from an in-memory read model of the pages of the database service, which stays the only one to
+ * write them. The read model is a {@link WikiDatabaseService} of its own, registered on its own queue: clients that
+ * use it (the HTTP verticles) also follow its events address instead of the database service's, so that they hear of
+ * a change once the read model serves it.
+ * <p>
+ * It is deployed as a single instance, after the database verticle.
+ */
+public class ReadModelVerticle extends AbstractVerticle {
+
+    public static final String CONFIG_WIKIDB_READ_MODEL = "wikidb.read_model";
+    public static final String CONFIG_WIKIDB_READ_MODEL_QUEUE = "wikidb.read_model.queue";
+    public static final String CONFIG_WIKIDB_READ_MODEL_EVENTS = "wikidb.read_model.events";
+    public static final String CONFIG_WIKIDB_READ_MODEL_LOAD_BATCH_SIZE = "wikidb.read_model.load_batch_size";
+
+    private ReadModel model;
+
+    @Override
+    public void start(Future<Void> startFuture) throws Exception {
+        PageCodec.register(vertx);
+        WikiDatabaseService database = WikiDatabaseService.createLocalProxy(vertx, config().getString(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.queue"), DeliveryOptions.DEFAULT_TIMEOUT);
+        model = new ReadModel(vertx, database, config().getString(CONFIG_WIKIDB_READ_MODEL_EVENTS, "wikidb.read_model.events"));
+
+        MessageConsumer<JsonObject> changes = vertx.eventBus().consumer(config().getString(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.events"), message -> model.changed(message.body()));
+        changes.completionHandler(registered -> {  //先订阅变更事件再加载，加载期间的变更不会丢失
+            if (registered.failed()) {
+                startFuture.fail(registered.cause());
+                return;
+            }
+            model.load(config().getInteger(CONFIG_WIKIDB_READ_MODEL_LOAD_BATCH_SIZE, 500), loaded -> {
+                if (loaded.succeeded()) {
+                    String queue = config().getString(CONFIG_WIKIDB_READ_MODEL_QUEUE, "wikidb.read_model.queue");
+                    ProxyHelper.registerService(WikiDatabaseService.class, vertx, model, queue);
+                    LocalWikiDatabaseService.bind(vertx, queue, model, context);
+                    startFuture.complete();
+                } else {
+                    startFuture.fail(loaded.cause());
+                }
+            });
+        });
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (model != null) {
+            LocalWikiDatabaseService.unbind(vertx, config().getString(CONFIG_WIKIDB_READ_MODEL_QUEUE, "wikidb.read_model.queue"), model, context);
+            model.close();
+        }
+    }
+}
@@ -2,11 +2,29 @@ package wiki.database;
 
 public enum SqlQuery {
     CREATE_PAGES_TABLE,
+    PAGES_VERSION_COLUMNS,
+    ADD_PAGES_VERSION_COLUMN,
+    ADD_PAGES_MODIFIED_COLUMN,
     ALL_PAGES,
     GET_PAGE,
+    MAX_PAGE_ID,
+    PAGES_AFTER_ID,
     CREATE_PAGE,
     SAVE_PAGE,
     DELETE_PAGE,
     ALL_PAGES_DATA,
-    FETCH_PAGE_BY_ID
+    FETCH_PAGE_BY_ID,
+    FETCH_PAGES_PAGE,
+    STREAM_PAGES_DATA,
+    COUNT_PAGES_FINGERPRINT,
+    INDEX_PAGES_DATA,
+    COUNT_REVISIONS_TABLE,
+    CREATE_REVISIONS_TABLE,
+    SNAPSHOT_PAGES,
+    GET_PAGE_FOR_UPDATE,
+    CREATE_REVISION,
+    DELETE_REVISIONS,
+    FETCH_REVISIONS,
+    RESTORE_REVISION,
+    SYNC_COMMITS
 }
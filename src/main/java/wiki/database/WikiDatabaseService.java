@@ -8,6 +8,7 @@ import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
+import wiki.metrics.MetricsRegistry;
 
 import java.util.HashMap;
 import java.util.List;
@@ -19,7 +20,10 @@ public interface WikiDatabaseService {
     WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler);
 
     @Fluent
-    WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler);  //参数类型需要是字符串，Java原始类型，
+    WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler); //按名称顺序（忽略大小写）返回名称以prefix开头、排在after之后的至多limit个页面摘要，prefix和after可以为null
+
+    @Fluent
+    WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler);  //没有该页面时结果为null。参数类型需要是字符串，Java原始类型，
     // JSON对象或数组，以前类型的枚举类型或java.util集合（List/ Set/ Map）。支持任意Java类的唯一方法是将它们作为Vert.x数据对象注释@DataObject。通过其他类型的最后机会是服务引用类型。
 
     @Fluent
@@ -28,18 +32,51 @@ public interface WikiDatabaseService {
     @Fluent
     WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler);
 
+    @Fluent
+    WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler); //仅当页面当前版本为version时保存（乐观并发控制），返回{"found", "saved", "version"}，保存成功时version为新版本，冲突时为当前版本
+
     @Fluent
     WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler);//由于服务提供异步的结果，服务的方法的最后一个参数需要是Handler<AsyncResult<T>>
     // 其中T是任何合适的用于代码生成的类型的，如上所述。
 
     @Fluent
-    WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler);
+    WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler);
+
+    @Fluent
+    WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler); //没有该页面时结果为null
+
+    @Fluent
+    WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler); //按Id顺序返回Id大于afterId的至多limit个页面摘要，不读取页面内容
+
+    @Fluent
+    WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler); //游标开始后即回复，页面随后以List<Page>批次（PageCodec.BATCH编码）发送到address，每批需回复后才发送下一批，最后发送{"end": true}或{"error": ...}
+
+    @Fluent
+    WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler);
+
+    @Fluent
+    WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler);
 
     @Fluent
-    WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler);
+    WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler); //全文检索页面名称和内容，按BM25相关度返回至多limit个{"id", "name", "score"}
 
-    static WikiDatabaseService create(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
-        return new WikiDatabaseServiceImpl(dbClient, sqlQueries, readyHandler);
+    @Fluent
+    WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler); //页面的修订历史，从新到旧返回{"revision", "modified", "snapshot"}，修订号即该版本的version
+
+    @Fluent
+    WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler); //恢复页面某一修订的内容，返回{"found", "id", "revision", "content", "modified"}
+
+    @Fluent
+    WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler); //两个修订之间的统一格式（unified）差异，返回{"found", "id", "from", "to", "diff"}
+
+    @Fluent
+    WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler);
+
+    static WikiDatabaseService create(Vertx vertx, JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+        return new WikiDatabaseServiceImpl(vertx, dbClient, sqlQueries, config, readyHandler);
+    }
+    static WikiDatabaseService createLogStructured(Vertx vertx, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+        return new LogWikiDatabaseService(vertx, config, readyHandler); //页面保存在嵌入式的追加写日志中，而不是JDBC数据库
     }
     // end::create[]
 
@@ -47,4 +84,12 @@ public interface WikiDatabaseService {
     static WikiDatabaseService createProxy(Vertx vertx, String address) {
         return new WikiDatabaseServiceVertxEBProxy(vertx, address);
     }
+
+    static WikiDatabaseService createLocalProxy(Vertx vertx, String address, long timeout) {
+        return new LocalWikiDatabaseService(vertx, address, timeout); //服务部署在同一个Vert.x实例中时直接调用实现（不经JSON编码和复制），否则经事件总线。两种调用都在timeout毫秒后失败
+    }
+
+    static WikiDatabaseService createMeasuredProxy(Vertx vertx, String address, long timeout) {
+        return new MeasuredWikiDatabaseService(createLocalProxy(vertx, address, timeout), MetricsRegistry.get(vertx)); //记录每个动作的往返时间
+    }
 }
@@ -1,230 +1,800 @@
 package wiki.database;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
+import io.vertx.ext.sql.SQLRowStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+import wiki.search.SearchIndex;
 
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 public class WikiDatabaseServiceImpl implements WikiDatabaseService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(WikiDatabaseServiceImpl.class);
 
+    private static final int INDEX_BATCH_SIZE = 500;
+
+    private static final EnumSet<SqlQuery> SCHEMA_QUERIES = EnumSet.of(SqlQuery.CREATE_PAGES_TABLE,
+            SqlQuery.PAGES_VERSION_COLUMNS, SqlQuery.ADD_PAGES_VERSION_COLUMN, SqlQuery.ADD_PAGES_MODIFIED_COLUMN,
+            SqlQuery.COUNT_REVISIONS_TABLE, SqlQuery.CREATE_REVISIONS_TABLE, SqlQuery.SNAPSHOT_PAGES, SqlQuery.SYNC_COMMITS);
+
+    private static final int DIFF_CONTEXT_LINES = 3;
+    private static final int ANY_VERSION = -1;
+    private static final int INDEX_LOCK_STRIPES = 64;
+
     private final HashMap<SqlQuery, String> sqlQueries;
-    private final JDBCClient dbClient;
+    private final ConnectionPool pool;
+    private final Vertx vertx;
+    private final ChangeFeed changes;
+    private final EnumMap<SqlQuery, LatencyHistogram> queryTimes = new EnumMap<>(SqlQuery.class);
+    private final PageNameIndex names = new PageNameIndex();
+    private final ConcurrentHashMap<Integer, Integer> indexedVersions = new ConcurrentHashMap<>();  //写入后最后一次索引的版本：并发的保存可能以相反的顺序完成
+    private final ReentrantLock[] indexLocks = new ReentrantLock[INDEX_LOCK_STRIPES];
+    private final PageRevisions revisions;
+    private final GroupCommit groupCommit;
+    private SearchIndex searchIndex;
 
-    WikiDatabaseServiceImpl(JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
-        this.dbClient = dbClient;
+    WikiDatabaseServiceImpl(Vertx vertx, JDBCClient dbClient, HashMap<SqlQuery, String> sqlQueries, JsonObject config, Handler<AsyncResult<WikiDatabaseService>> readyHandler) {
+        this.vertx = vertx;
         this.sqlQueries = sqlQueries;
+        this.changes = new ChangeFeed(vertx, config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.events"));
+        MetricsRegistry metrics = MetricsRegistry.get(vertx);
+        for (SqlQuery query : SqlQuery.values()) {
+            queryTimes.put(query, metrics.histogram("wiki_db_query_seconds", "Execution time of database queries", "query", query.name()));
+        }
+        for (int i = 0; i < indexLocks.length; i++) {
+            indexLocks[i] = new ReentrantLock();
+        }
+        this.revisions = new PageRevisions(
+                config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL, 16),
+                config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_REVISIONS_CACHE_SIZE, 16L * 1024 * 1024));
+        this.pool = new ConnectionPool(vertx, dbClient,
+                config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30),
+                config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_LEAK_DETECTION_THRESHOLD, 0L));  //默认关闭：开启后每次取连接都要捕获一次调用栈
+        long writeBehindWindow = config.getLong(WikiDatabaseVerticle.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, 0L);
+        this.groupCommit = writeBehindWindow > 0
+                ? new GroupCommit(vertx, pool, writeBehindWindow, config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_WRITE_BEHIND_MAX_BATCH, 100))
+                : null;
 
-        dbClient.getConnection(ar -> {
-            if (ar.failed()) {
-                LOGGER.error("Could not open a database connection", ar.cause());
-                readyHandler.handle(Future.failedFuture(ar.cause()));
+        int pinnedConnections = config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS, 0);
+        Future<Void> create = Future.future();
+        pool.withConnection(create, (connection, result) -> connection.execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), timed(SqlQuery.CREATE_PAGES_TABLE, result)));
+        create.compose(v -> {
+            Future<Void> sync = Future.future();
+            if (groupCommit != null && sqlQueries.get(SqlQuery.SYNC_COMMITS) != null) {
+                pool.withConnection(sync, (connection, result) -> connection.execute(sqlQueries.get(SqlQuery.SYNC_COMMITS), timed(SqlQuery.SYNC_COMMITS, result)));
+            } else {
+                sync.complete();
+            }
+            return sync;
+        }).compose(v -> {
+            Future<Void> migrate = Future.future();
+            pool.withConnection(migrate, this::addVersionColumns);
+            return migrate;
+        }).compose(v -> {
+            Future<Void> migrate = Future.future();
+            pool.inTransaction(migrate, this::createRevisionsTable);
+            return migrate;
+        }).compose(v -> {
+            Future<Void> pin = Future.future();
+            if (pinnedConnections > 0) {
+                pool.pin(pinnedConnections, sqlQueries.entrySet().stream()
+                        .filter(query -> !SCHEMA_QUERIES.contains(query.getKey()))
+                        .map(Map.Entry::getValue)
+                        .collect(Collectors.toList()), pin);
+            } else {
+                pin.complete();
+            }
+            return pin;
+        }).compose(v -> {
+            Future<Void> load = Future.future();
+            pool.withConnection(load, this::loadNames);
+            return load;
+        }).compose(v -> openSearchIndex(config)).setHandler(ready -> {
+            if (ready.failed()) {
+                LOGGER.error("Database preparation error", ready.cause());
+                readyHandler.handle(Future.failedFuture(ready.cause()));
+            } else {
+                readyHandler.handle(Future.succeededFuture(this));
+            }
+        });
+    }
+
+    /*
+     * Databases created before pages were versioned lack the Version and Modified columns: existing pages start at
+     * version 1 with an unknown (0) modification time. Each column is added on its own, so that a migration that
+     * failed halfway is completed on the next start.
+     */
+    private void addVersionColumns(SQLConnection connection, Future<Void> result) {
+        connection.query(sqlQueries.get(SqlQuery.PAGES_VERSION_COLUMNS), timed(SqlQuery.PAGES_VERSION_COLUMNS, columns -> {
+            if (columns.failed()) {
+                result.fail(columns.cause());
+                return;
+            }
+            Set<String> present = columns.result().getResults().stream()
+                    .map(row -> row.getString(0))
+                    .collect(Collectors.toSet());
+            Future<Void> version = Future.future();
+            addColumn(connection, present.contains("VERSION"), SqlQuery.ADD_PAGES_VERSION_COLUMN, version);
+            version.compose(v -> {
+                Future<Void> modified = Future.future();
+                addColumn(connection, present.contains("MODIFIED"), SqlQuery.ADD_PAGES_MODIFIED_COLUMN, modified);
+                return modified;
+            }).setHandler(result);
+        }));
+    }
+
+    private void addColumn(SQLConnection connection, boolean present, SqlQuery query, Future<Void> result) {
+        if (present) {
+            result.complete();
+        } else {
+            LOGGER.info("Adding a column to the Pages table: {}", sqlQueries.get(query));
+            connection.execute(sqlQueries.get(query), timed(query, result));
+        }
+    }
+
+    /*
+     * The history starts when the PageRevisions table is created: existing pages get a snapshot of their current version.
+     */
+    private void createRevisionsTable(SQLConnection connection, Future<Void> result) {
+        connection.query(sqlQueries.get(SqlQuery.COUNT_REVISIONS_TABLE), timed(SqlQuery.COUNT_REVISIONS_TABLE, count -> {
+            if (count.failed()) {
+                result.fail(count.cause());
+            } else if (count.result().getResults().get(0).getInteger(0) > 0) {
+                result.complete();
             } else {
-                SQLConnection connection = ar.result();
-                connection.execute(sqlQueries.get(SqlQuery.CREATE_PAGES_TABLE), create -> {
-                    connection.close();
+                LOGGER.info("Creating the PageRevisions table");
+                connection.execute(sqlQueries.get(SqlQuery.CREATE_REVISIONS_TABLE), timed(SqlQuery.CREATE_REVISIONS_TABLE, create -> {
                     if (create.failed()) {
-                        LOGGER.error("Database preparation error", create.cause());
-                        readyHandler.handle(Future.failedFuture(create.cause()));
+                        result.fail(create.cause());
                     } else {
-                        readyHandler.handle(Future.succeededFuture(this));
+                        connection.update(sqlQueries.get(SqlQuery.SNAPSHOT_PAGES), timed(SqlQuery.SNAPSHOT_PAGES, snapshot -> result.handle(snapshot.mapEmpty())));
                     }
+                }));
+            }
+        }));
+    }
+
+    private void loadNames(SQLConnection connection, Future<Void> result) {
+        connection.query(sqlQueries.get(SqlQuery.ALL_PAGES), timed(SqlQuery.ALL_PAGES, res -> {
+            if (res.succeeded()) {
+                res.result().getResults().forEach(row -> names.put(row.getInteger(0), row.getString(1)));
+            }
+            result.handle(res.mapEmpty());
+        }));
+    }
+
+    /*
+     * The index is persisted when the verticle is undeployed, and rebuilt from the database unless it still holds the
+     * same pages (e.g. after a crash, or when the database was modified without it).
+     */
+    private Future<Void> openSearchIndex(JsonObject config) {
+        Future<SearchIndex> open = Future.future();
+        SearchIndex.open(vertx,
+                config.getString(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "db/search"),
+                config.getInteger(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_FLUSH_THRESHOLD, 10000), open);
+        return open.compose(index -> {
+            searchIndex = index;
+            vertx.getOrCreateContext().addCloseHook(index::close);
+            Future<JsonObject> fingerprint = Future.future();
+            pool.withConnection(fingerprint, (connection, result) ->
+                    connection.query(sqlQueries.get(SqlQuery.COUNT_PAGES_FINGERPRINT), timed(SqlQuery.COUNT_PAGES_FINGERPRINT, res -> result.handle(res.map(rs -> {
+                        JsonArray row = rs.getResults().get(0);
+                        return SearchIndex.fingerprint(row.getLong(0), row.getLong(1), row.getLong(2));
+                    })))));
+            return fingerprint;
+        }).compose(fingerprint -> {
+            Future<Void> rebuild = Future.future();
+            if (fingerprint.equals(searchIndex.fingerprint())) {
+                rebuild.complete();
+            } else {
+                LOGGER.info("Rebuilding the search index of {} pages", fingerprint.getLong("pages"));
+                vertx.<Void>executeBlocking(future -> {  //clear()会删除段文件
+                    searchIndex.clear();
+                    future.complete();
+                }, cleared -> {
+                    if (cleared.failed()) {
+                        rebuild.fail(cleared.cause());
+                        return;
+                    }
+                    pool.withExclusiveConnection(rebuild, (connection, result) ->
+                            connection.queryStream(sqlQueries.get(SqlQuery.INDEX_PAGES_DATA), timed(SqlQuery.INDEX_PAGES_DATA, stream -> {
+                                if (stream.failed()) {
+                                    result.fail(stream.cause());
+                                } else {
+                                    indexRows(stream.result(), result);
+                                }
+                            })));
                 });
             }
+            return rebuild;
         });
     }
 
-    @Override
-    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
-        dbClient.getConnection(car -> {
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                connection.query(sqlQueries.get(SqlQuery.ALL_PAGES), res -> {
-                    connection.close();
-                    if (res.succeeded()) {
-                        JsonArray pages = new JsonArray(res.result()
-                                .getResults()
-                                .stream()
-                                .map(json -> json.getString(0))
-                                .sorted()
-                                .collect(Collectors.toList()));
-                        resultHandler.handle(Future.succeededFuture(pages));
+    /*
+     * Tokenizing is done on worker threads, a batch at a time, pausing the cursor meanwhile.
+     */
+    private void indexRows(SQLRowStream rows, Future<Void> result) {
+        List<JsonArray> batch = new ArrayList<>();
+        Handler<Handler<AsyncResult<Void>>> flush = next -> {
+            List<JsonArray> pages = new ArrayList<>(batch);
+            batch.clear();
+            vertx.executeBlocking(future -> {
+                pages.forEach(this::index);
+                future.complete();
+            }, next);
+        };
+        rows.exceptionHandler(result::tryFail);
+        rows.endHandler(v -> flush.handle(done -> result.handle(done.mapEmpty())));
+        rows.handler(row -> {
+            batch.add(row);
+            if (batch.size() >= INDEX_BATCH_SIZE) {
+                rows.pause();
+                flush.handle(done -> {
+                    if (done.succeeded()) {
+                        rows.resume();
                     } else {
-                        LOGGER.error("Database query error", res.cause());
-                        resultHandler.handle(Future.failedFuture(res.cause()));
+                        rows.close();
+                        result.tryFail(done.cause());
                     }
                 });
-            } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
             }
         });
+    }
+
+    private void index(JsonArray row) {
+        searchIndex.putIfNewer(row.getInteger(0), row.getString(1), row.getString(2), row.getLong(3));
+    }
+
+    @Override
+    public WikiDatabaseService fetchAllPages(Handler<AsyncResult<JsonArray>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(new JsonArray(names.names())));
         return this;
     }
 
     @Override
-    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<JsonObject>> resultHandler) {
-        dbClient.getConnection(car -> {
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), fetch -> {
-                    connection.close();
-                    if (fetch.succeeded()) {
-                        JsonObject response = new JsonObject();
-                        ResultSet resultSet = fetch.result();
-                        if (resultSet.getNumRows() == 0) {
-                            response.put("found", false);
-                        } else {
-                            response.put("found", true);
-                            JsonArray row = resultSet.getResults().get(0);
-                            response.put("id", row.getInteger(0));
-                            response.put("rawContent", row.getString(1));
-                        }
-                        resultHandler.handle(Future.succeededFuture(response));
-                    } else {
-                        LOGGER.error("Database query error", fetch.cause());
-                        resultHandler.handle(Future.failedFuture(fetch.cause()));
+    public WikiDatabaseService fetchPageNames(String prefix, String after, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(names.pages(prefix, after, Math.max(0, limit))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPage(String name, Handler<AsyncResult<Page>> resultHandler) {
+        pool.withConnection(resultHandler, (connection, result) ->
+                connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(name), timed(SqlQuery.GET_PAGE, fetch -> result.handle(fetch.map(resultSet -> {
+                    if (resultSet.getNumRows() == 0) {
+                        return null;
                     }
-                });
-            } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
-            }
-        });
+                    JsonArray row = resultSet.getResults().get(0);
+                    return new Page(row.getInteger(0), name, row.getString(1), row.getInteger(2), row.getLong(3));
+                })))));
         return this;
     }
 
     @Override
     public WikiDatabaseService createPage(String title, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-        dbClient.getConnection(car -> {
-
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                JsonArray data = new JsonArray().add(title).add(markdown);
-                connection.updateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), data, res -> {
-                    connection.close();
-                    if (res.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture());
-                    } else {
-                        LOGGER.error("Database query error", res.cause());
-                        resultHandler.handle(Future.failedFuture(res.cause()));
+        long modified = System.currentTimeMillis();
+        JsonArray data = new JsonArray().add(title).add(markdown).add(modified);
+        Future<Integer> created = Future.future();
+        write(null, created, (connection, result) ->
+                connection.updateWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), data, timed(SqlQuery.CREATE_PAGE, res -> {
+                    if (res.failed()) {
+                        result.fail(res.cause());
+                        return;
                     }
-                });
-            } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
+                    JsonArray keys = res.result().getKeys();
+                    if (keys != null && keys.size() > 0) {
+                        createRevision(connection, ((Number) keys.getValue(0)).intValue(), markdown, modified, result);
+                        return;
+                    }
+                    connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE), new JsonArray().add(title), timed(SqlQuery.GET_PAGE, page -> {  //驱动不返回生成的键时，在同一事务中按名称读回Id
+                        if (page.failed()) {
+                            result.fail(page.cause());
+                        } else if (page.result().getNumRows() == 0) {
+                            result.complete(null);
+                        } else {
+                            createRevision(connection, page.result().getResults().get(0).getInteger(0), markdown, modified, result);
+                        }
+                    }));
+                })));
+        created.setHandler(ar -> {
+            if (ar.failed() || ar.result() == null) {
+                resultHandler.handle(ar.mapEmpty());
+                return;
             }
+            int id = ar.result();
+            names.put(id, title);
+            reindex(id, markdown, modified, 1, v -> {
+                changes.publish(PageChange.CREATED, id, title, 1);
+                resultHandler.handle(Future.succeededFuture());
+            });
         });
         return this;
     }
 
+    private void createRevision(SQLConnection connection, int id, String markdown, long modified, Future<Integer> result) {
+        JsonArray revision = revisions.row(id, 1, null, null, markdown, modified);
+        connection.updateWithParams(sqlQueries.get(SqlQuery.CREATE_REVISION), revision, timed(SqlQuery.CREATE_REVISION, insert ->
+                result.handle(insert.map(id))));
+    }
+
     @Override
     public WikiDatabaseService savePage(int id, String markdown, Handler<AsyncResult<Void>> resultHandler) {
-        dbClient.getConnection(car -> {
-
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                JsonArray data = new JsonArray().add(markdown).add(id);
-                connection.updateWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE), data, res -> {
-                    connection.close();
-                    if (res.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture());
+        savePage(id, ANY_VERSION, markdown, ar -> resultHandler.handle(ar.mapEmpty()));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService savePageIfVersion(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        savePage(id, Math.max(0, version), markdown, resultHandler);
+        return this;
+    }
+
+    private void savePage(int id, int version, String markdown, Handler<AsyncResult<JsonObject>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        BiConsumer<SQLConnection, Future<JsonObject>> save = (connection, result) -> saveRevision(connection, id, version, markdown, modified, result);
+        BiConsumer<JsonObject, Future<Void>> committed = (result, done) -> {
+            if (!result.getBoolean("saved")) {
+                done.complete();
+                return;
+            }
+            reindex(id, markdown, modified, result.getInteger("version"), v -> {
+                changes.publish(PageChange.UPDATED, id, names.name(id), result.getInteger("version"));
+                done.complete();
+            });
+        };
+        if (groupCommit != null && version == ANY_VERSION) {
+            groupCommit.save(id, resultHandler, save, committed);  //合并的保存只重建一次索引、只发布一个事件
+        } else {
+            write(id, ar -> {
+                if (ar.failed()) {
+                    resultHandler.handle(ar);
+                    return;
+                }
+                Future<Void> done = Future.future();
+                done.setHandler(v -> resultHandler.handle(ar));
+                committed.accept(ar.result(), done);
+            }, save);
+        }
+    }
+
+    /*
+     * Reads the current version under a write lock, updates the page and stores its new revision, as a delta from the
+     * current one unless a snapshot is due. The version read for the delta doubles as the optimistic concurrency
+     * check, which costs no extra statement: a page at another version than the expected one (unless it is
+     * ANY_VERSION) is left untouched. Completes with {"found", "saved", "version"}.
+     */
+    private void saveRevision(SQLConnection connection, int id, int expectedVersion, String markdown, long modified, Future<JsonObject> result) {
+        connection.queryWithParams(sqlQueries.get(SqlQuery.GET_PAGE_FOR_UPDATE), new JsonArray().add(id), timed(SqlQuery.GET_PAGE_FOR_UPDATE, current -> {
+            if (current.failed()) {
+                result.fail(current.cause());
+                return;
+            }
+            if (current.result().getNumRows() == 0) {
+                result.complete(new JsonObject().put("found", false).put("saved", false));
+                return;
+            }
+            JsonArray row = current.result().getResults().get(0);
+            int version = row.getInteger(1);
+            JsonObject conflict = new JsonObject().put("found", true).put("saved", false).put("version", version);
+            if (expectedVersion != ANY_VERSION && expectedVersion != version) {
+                result.complete(conflict);
+                return;
+            }
+            JsonArray revision = revisions.row(id, version + 1, row.getString(0), row.getInteger(2), markdown, modified);
+            JsonArray data = new JsonArray().add(markdown).add(modified).add(id).add(version);
+            connection.updateWithParams(sqlQueries.get(SqlQuery.SAVE_PAGE), data, timed(SqlQuery.SAVE_PAGE, update -> {
+                if (update.failed()) {
+                    result.fail(update.cause());
+                } else if (update.result().getUpdated() == 0) {
+                    result.complete(conflict);
+                } else {
+                    connection.updateWithParams(sqlQueries.get(SqlQuery.CREATE_REVISION), revision, timed(SqlQuery.CREATE_REVISION, insert ->
+                            result.handle(insert.map(new JsonObject().put("found", true).put("saved", true).put("version", version + 1)))));
+                }
+            }));
+        }));
+    }
+
+    @Override
+    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
+        JsonArray data = new JsonArray().add(id);
+        Future<Void> deleted = Future.future();
+        write(id, deleted, (connection, result) ->
+                connection.updateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), data, timed(SqlQuery.DELETE_PAGE, res -> {
+                    if (res.failed()) {
+                        result.fail(res.cause());
                     } else {
-                        LOGGER.error("Database query error", res.cause());
-                        resultHandler.handle(Future.failedFuture(res.cause()));
+                        connection.updateWithParams(sqlQueries.get(SqlQuery.DELETE_REVISIONS), data, timed(SqlQuery.DELETE_REVISIONS, history ->
+                                result.handle(history.mapEmpty())));
                     }
-                });
-            } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
+                })));
+        deleted.setHandler(ar -> {
+            if (ar.succeeded()) {
+                String name = names.name(id);
+                names.remove(id);
+                indexedVersions.remove(id);
+                searchIndex.remove(id);
+                revisions.forget(id);
+                changes.publish(PageChange.DELETED, id, name, null);
             }
+            resultHandler.handle(ar);
         });
         return this;
     }
 
     @Override
-    public WikiDatabaseService deletePage(int id, Handler<AsyncResult<Void>> resultHandler) {
-        dbClient.getConnection(car -> {
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                JsonArray data = new JsonArray().add(id);
-                connection.updateWithParams(sqlQueries.get(SqlQuery.DELETE_PAGE), data, res -> {
-                    connection.close();
-                    if (res.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture());
-                    } else {
-                        LOGGER.error("Database query error", res.cause());
-                        resultHandler.handle(Future.failedFuture(res.cause()));
+    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<Page>>> resultHandler) {
+        pool.withConnection(resultHandler, (connection, result) ->
+                connection.query(sqlQueries.get(SqlQuery.ALL_PAGES_DATA), timed(SqlQuery.ALL_PAGES_DATA, queryResult ->
+                        result.handle(queryResult.map(rs -> rs.getResults()
+                                .stream()
+                                .map(WikiDatabaseServiceImpl::page)
+                                .collect(Collectors.toList()))))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<Page>> resultHandler) {
+        pool.withConnection(resultHandler, (connection, result) ->
+                connection.queryWithParams(sqlQueries.get(SqlQuery.FETCH_PAGE_BY_ID), new JsonArray().add(id), timed(SqlQuery.FETCH_PAGE_BY_ID, res -> result.handle(res.map(rs ->
+                        rs.getNumRows() > 0 ? page(rs.getResults().get(0)) : null)))));
+        return this;
+    }
+
+    /*
+     * A row of (Id, Name, Content, Version, Modified).
+     */
+    private static Page page(JsonArray row) {
+        return new Page(row.getInteger(0), row.getString(1), row.getString(2), row.getInteger(3), row.getLong(4));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPagesPage(int afterId, int limit, Handler<AsyncResult<List<PageSummary>>> resultHandler) {
+        JsonArray params = new JsonArray().add(afterId).add(limit);
+        pool.withConnection(resultHandler, (connection, result) ->
+                connection.queryWithParams(sqlQueries.get(SqlQuery.FETCH_PAGES_PAGE), params, timed(SqlQuery.FETCH_PAGES_PAGE, res -> result.handle(res.map(rs ->
+                        rs.getResults()
+                                .stream()
+                                .map(row -> new PageSummary(row.getInteger(0), row.getString(1)))
+                                .collect(Collectors.toList()))))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService streamPagesData(String address, int batchSize, Handler<AsyncResult<Void>> resultHandler) {
+        AtomicBoolean started = new AtomicBoolean();
+        pool.<Void>withExclusiveConnection(ar -> {
+            if (!started.get()) {
+                resultHandler.handle(ar);
+            }
+        }, (connection, result) ->
+                connection.queryStream(sqlQueries.get(SqlQuery.STREAM_PAGES_DATA), timed(SqlQuery.STREAM_PAGES_DATA, stream -> {
+                    if (stream.failed()) {
+                        result.fail(stream.cause());
+                        return;
                     }
-                });
-            } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
+                    started.set(true);
+                    resultHandler.handle(Future.succeededFuture());
+                    new PageStreamer(vertx, address, Math.max(1, batchSize), stream.result(), result).start();
+                })));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService createPages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        List<JsonArray> batch = pages.stream()
+                .map(page -> new JsonArray().add(page.getString("name")).add(page.getString("markdown")).add(modified))
+                .collect(Collectors.toList());
+        if (batch.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return this;
+        }
+        List<JsonArray> created = new ArrayList<>(pages.size());
+        Future<Void> inserted = Future.future();
+        pool.inTransaction(inserted, (connection, result) ->
+                connection.query(sqlQueries.get(SqlQuery.MAX_PAGE_ID), timed(SqlQuery.MAX_PAGE_ID, max -> {
+                    if (max.failed()) {
+                        result.fail(max.cause());
+                        return;
+                    }
+                    int maxId = max.result().getResults().get(0).getInteger(0);  //聚合查询总是返回一行
+                    connection.batchWithParams(sqlQueries.get(SqlQuery.CREATE_PAGE), batch, timed(SqlQuery.CREATE_PAGE, res -> {
+                        if (res.failed()) {
+                            result.fail(res.cause());
+                            return;
+                        }
+                        Future<Void> read = Future.future();
+                        readCreatedPages(connection, pages, maxId, created, read);
+                        read.setHandler(ar -> {
+                            if (ar.failed()) {
+                                result.fail(ar.cause());
+                                return;
+                            }
+                            List<JsonArray> firstRevisions = created.stream()
+                                    .map(row -> revisions.row(row.getInteger(0), 1, null, null, row.getString(2), modified))
+                                    .collect(Collectors.toList());
+                            connection.batchWithParams(sqlQueries.get(SqlQuery.CREATE_REVISION), firstRevisions, timed(SqlQuery.CREATE_REVISION, insert ->
+                                    result.handle(insert.mapEmpty())));
+                        });
+                    }));
+                })));
+        inserted.setHandler(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(ar);
+                return;
             }
+            vertx.<Void>executeBlocking(future -> {
+                created.forEach(row -> {
+                    names.put(row.getInteger(0), row.getString(1));
+                    index(row.getInteger(0), row.getString(2), modified, 1);
+                    changes.publish(PageChange.CREATED, row.getInteger(0), row.getString(1), 1);
+                });
+                future.complete();
+            }, resultHandler);
         });
         return this;
     }
 
+    /*
+     * Batch updates do not return generated keys: the pages of a batch are read back in one query, in the transaction
+     * that created them, as rows of (Id, Name, Content). Their ids are above the largest id before the insert; pages
+     * created meanwhile by other transactions are told apart by their names, which are unique.
+     */
+    private void readCreatedPages(SQLConnection connection, List<JsonObject> pages, int maxId, List<JsonArray> created, Future<Void> result) {
+        connection.queryWithParams(sqlQueries.get(SqlQuery.PAGES_AFTER_ID), new JsonArray().add(maxId), timed(SqlQuery.PAGES_AFTER_ID, res -> {
+            if (res.failed()) {
+                result.fail(res.cause());
+                return;
+            }
+            Map<String, Integer> ids = new HashMap<>();
+            res.result().getResults().forEach(row -> ids.put(row.getString(1), row.getInteger(0)));
+            for (JsonObject page : pages) {
+                Integer id = ids.get(page.getString("name"));
+                if (id == null) {
+                    result.fail(new IllegalStateException("Created page not found: " + page.getString("name")));
+                    return;
+                }
+                created.add(new JsonArray().add(id).add(page.getString("name")).add(page.getString("markdown")));
+            }
+            result.complete();
+        }));
+    }
+
     @Override
-    public WikiDatabaseService fetchAllPagesData(Handler<AsyncResult<List<JsonObject>>> resultHandler) {
-        dbClient.getConnection(car -> {
-            if (car.succeeded()) {
-                SQLConnection connection = car.result();
-                connection.query(sqlQueries.get(SqlQuery.ALL_PAGES_DATA), queryResult -> {
-                    if (queryResult.succeeded()) {
-                        resultHandler.handle(Future.succeededFuture(queryResult.result().getRows()));
-                    } else {
-                        LOGGER.error("Database query error", queryResult.cause());
-                        resultHandler.handle(Future.failedFuture(queryResult.cause()));
+    public WikiDatabaseService savePages(List<JsonObject> pages, Handler<AsyncResult<Void>> resultHandler) {
+        long modified = System.currentTimeMillis();
+        if (pages.isEmpty()) {
+            resultHandler.handle(Future.succeededFuture());
+            return this;
+        }
+        List<JsonObject> results = new ArrayList<>(pages.size());
+        Future<Void> saved = Future.future();
+        pool.inTransaction(saved, (connection, result) -> saveRevisions(connection, pages, 0, modified, results, result));
+        saved.setHandler(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(ar);
+                return;
+            }
+            vertx.<Void>executeBlocking(future -> {
+                for (int i = 0; i < pages.size(); i++) {
+                    int id = pages.get(i).getInteger("id");
+                    if (results.get(i).getBoolean("saved")) {
+                        index(id, pages.get(i).getString("markdown"), modified, results.get(i).getInteger("version"));
+                        changes.publish(PageChange.UPDATED, id, names.name(id), results.get(i).getInteger("version"));
                     }
-                });
+                }
+                future.complete();
+            }, resultHandler);
+        });
+        return this;
+    }
+
+    /*
+     * Each revision is a delta from the previous one, so the pages of a bulk update are saved one after the other, in
+     * the same transaction.
+     */
+    private void saveRevisions(SQLConnection connection, List<JsonObject> pages, int index, long modified, List<JsonObject> results, Future<Void> result) {
+        if (index == pages.size()) {
+            result.complete();
+            return;
+        }
+        JsonObject page = pages.get(index);
+        Future<JsonObject> saved = Future.future();
+        saveRevision(connection, page.getInteger("id"), ANY_VERSION, page.getString("markdown"), modified, saved);
+        saved.setHandler(ar -> {
+            if (ar.failed()) {
+                result.fail(ar.cause());
             } else {
-                LOGGER.error("Database query error", car.cause());
-                resultHandler.handle(Future.failedFuture(car.cause()));
+                results.add(ar.result());
+                saveRevisions(connection, pages, index + 1, modified, results, result);
+            }
+        });
+    }
+
+    /*
+     * Tokenizing the page and waiting for the write lock of the index, which searches hold for a whole query, happen on
+     * a worker thread. The tasks are ordered, so that the versions written from this event loop are indexed in order.
+     */
+    private void reindex(int id, String markdown, long modified, int version, Handler<Void> done) {
+        vertx.<Void>executeBlocking(future -> {
+            index(id, markdown, modified, version);
+            future.complete();
+        }, true, ar -> {
+            if (ar.failed()) {
+                LOGGER.error("Search index update error", ar.cause());
             }
+            done.handle(null);
         });
+    }
+
+    /*
+     * The name of an updated page is taken from the name index: a page it does not know about does not exist. Writes
+     * complete on several event loops, so a version older than the one already indexed is ignored, with the lock of
+     * the page held from the check to the update.
+     */
+    private void index(int id, String markdown, long modified, int version) {
+        ReentrantLock lock = indexLocks[Math.floorMod(id, INDEX_LOCK_STRIPES)];
+        lock.lock();
+        try {
+            Integer indexed = indexedVersions.get(id);
+            String name = names.name(id);
+            if (name == null || (indexed != null && indexed >= version)) {
+                return;
+            }
+            searchIndex.put(id, name, markdown, modified);
+            indexedVersions.put(id, version);
+            if (names.name(id) == null) {  //在索引期间被删除
+                indexedVersions.remove(id);
+                searchIndex.remove(id);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * The index is thread-safe: queries run on worker threads, concurrently, rather than on this verticle's event loop.
+     */
+    @Override
+    public WikiDatabaseService search(String query, int limit, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        vertx.<List<JsonObject>>executeBlocking(future -> future.complete(searchIndex.search(query, Math.max(1, Math.min(limit, 1000)))), false, resultHandler);
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevisions(int id, Handler<AsyncResult<List<JsonObject>>> resultHandler) {
+        pool.withConnection(resultHandler, (connection, result) ->
+                connection.queryWithParams(sqlQueries.get(SqlQuery.FETCH_REVISIONS), new JsonArray().add(id), timed(SqlQuery.FETCH_REVISIONS, res -> result.handle(res.map(rs ->
+                        rs.getResults()
+                                .stream()
+                                .map(row -> new JsonObject()
+                                        .put("revision", row.getInteger(0))
+                                        .put("modified", row.getLong(2))
+                                        .put("snapshot", row.getInteger(0).equals(row.getInteger(1))))
+                                .collect(Collectors.toList()))))));
+        return this;
+    }
+
+    @Override
+    public WikiDatabaseService fetchRevision(int id, int revision, Handler<AsyncResult<JsonObject>> resultHandler) {
+        Future<PageRevisions.Revision> restored = Future.future();
+        restore(id, revision, restored);
+        restored.setHandler(ar -> resultHandler.handle(ar.map(content -> {
+            JsonObject response = new JsonObject();
+            if (content == null) {
+                response.put("found", false);
+            } else {
+                response
+                        .put("found", true)
+                        .put("id", id)
+                        .put("revision", revision)
+                        .put("content", content.content)
+                        .put("modified", content.modified);
+            }
+            return response;
+        })));
         return this;
     }
 
     @Override
-    public WikiDatabaseService fetchPageById(int id, Handler<AsyncResult<JsonObject>> resultHandler) {
-        dbClient.getConnection(car -> {
-           if(car.succeeded()){
-               SQLConnection connection = car.result();
-               connection.queryWithParams(sqlQueries.get(SqlQuery.FETCH_PAGE_BY_ID),new JsonArray().add(id), res -> {
-                   if(res.succeeded()){
-                       if(res.result().getNumRows() > 0){
-                           JsonObject result = res.result().getRows().get(0);
-                           resultHandler.handle(Future.succeededFuture(new JsonObject()
-                                   .put("found", true)
-                                   .put("id", result.getInteger("ID"))
-                                   .put("name", result.getString("NAME"))
-                                   .put("content", result.getString("CONTENT"))));
-                       } else {
-                           resultHandler.handle(Future.succeededFuture(
-                                   new JsonObject().put("found", false)));
-                       }
-                   } else {
-                       LOGGER.error("Database query error", res.cause());
-                       resultHandler.handle(Future.failedFuture(res.cause()));
-                   }
-               });
-           } else {
-               LOGGER.error("Database query error", car.cause());
-               resultHandler.handle(Future.failedFuture(car.cause()));
-           }
+    public WikiDatabaseService fetchRevisionDiff(int id, int from, int to, Handler<AsyncResult<JsonObject>> resultHandler) {
+        Future<PageRevisions.Revision> older = Future.future();
+        Future<PageRevisions.Revision> newer = Future.future();
+        restore(id, from, older);
+        restore(id, to, newer);
+        CompositeFuture.all(older, newer).setHandler(ar -> {
+            if (ar.failed()) {
+                resultHandler.handle(Future.failedFuture(ar.cause()));
+                return;
+            }
+            JsonObject response = new JsonObject();
+            if (older.result() == null || newer.result() == null) {
+                resultHandler.handle(Future.succeededFuture(response.put("found", false)));
+                return;
+            }
+            vertx.<JsonObject>executeBlocking(future -> future.complete(response
+                    .put("found", true)
+                    .put("id", id)
+                    .put("from", from)
+                    .put("to", to)
+                    .put("diff", LineDiff.unified(older.result().content, newer.result().content, DIFF_CONTEXT_LINES))), false, resultHandler);
         });
         return this;
     }
+
+    /*
+     * Reads the revision's base snapshot and the deltas up to it in one query, unless it is cached. Completes with null
+     * when the page has no such revision.
+     */
+    private void restore(int id, int revision, Future<PageRevisions.Revision> result) {
+        PageRevisions.Revision cached = revisions.cached(id, revision);
+        if (cached != null) {
+            result.complete(cached);
+            return;
+        }
+        JsonArray params = new JsonArray().add(id).add(revision).add(id).add(revision);
+        pool.withConnection(result, (connection, restored) ->
+                connection.queryWithParams(sqlQueries.get(SqlQuery.RESTORE_REVISION), params, timed(SqlQuery.RESTORE_REVISION, res -> restored.handle(res.map(rs -> {
+                    if (rs.getNumRows() == 0) {
+                        return null;
+                    }
+                    PageRevisions.Revision content = PageRevisions.restore(rs.getResults());
+                    revisions.cache(id, revision, content);
+                    return content;
+                })))));
+    }
+
+    @Override
+    public WikiDatabaseService fetchPoolMetrics(Handler<AsyncResult<JsonObject>> resultHandler) {
+        resultHandler.handle(Future.succeededFuture(pool.metrics()));
+        return this;
+    }
+
+    /*
+     * Runs a write to a page (or the creation of one, without an id) in a transaction of its own, or in the next group
+     * commit when writes are buffered.
+     */
+    private <T> void write(Integer page, Handler<AsyncResult<T>> resultHandler, BiConsumer<SQLConnection, Future<T>> work) {
+        if (groupCommit != null) {
+            groupCommit.submit(page, resultHandler, work);
+        } else {
+            pool.inTransaction(resultHandler, work);
+        }
+    }
+
+    /*
+     * Measures a statement from the time it is sent on its connection (i.e. without the connection checkout) to its result.
+     */
+    private <T> Handler<AsyncResult<T>> timed(SqlQuery query, Handler<AsyncResult<T>> resultHandler) {
+        LatencyHistogram histogram = queryTimes.get(query);
+        long start = System.nanoTime();
+        return ar -> {
+            histogram.recordNanos(System.nanoTime() - start);
+            resultHandler.handle(ar);
+        };
+    }
 }
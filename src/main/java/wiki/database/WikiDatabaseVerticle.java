@@ -1,10 +1,15 @@
 package wiki.database;
 
 import io.vertx.core.AbstractVerticle;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Future;
+import io.vertx.core.Handler;
 import io.vertx.core.eventbus.Message;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
 import io.vertx.ext.jdbc.JDBCClient;
 import io.vertx.ext.sql.ResultSet;
 import io.vertx.ext.sql.SQLConnection;
@@ -15,6 +20,7 @@ import org.slf4j.LoggerFactory;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
@@ -25,22 +31,116 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
     public static final String CONFIG_WIKIDB_JDBC_URL = "wikidb.jdbc.url";
     public static final String CONFIG_WIKIDB_JDBC_DRIVER_CLASS = "wikidb.jdbc.driver_class";
     public static final String CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE = "wikidb.jdbc.max_pool_size";
+    public static final String CONFIG_WIKIDB_JDBC_LEAK_DETECTION_THRESHOLD = "wikidb.jdbc.leak_detection_threshold";
+    public static final String CONFIG_WIKIDB_JDBC_MAX_STATEMENTS_PER_CONNECTION = "wikidb.jdbc.max_statements_per_connection";
+    public static final String CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS = "wikidb.jdbc.pinned_connections";
     public static final String CONFIG_WIKIDB_SQL_QUERIES_RESOURCE_FILE = "wikidb.sqlqueries.resource.file";
     public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+    public static final String CONFIG_WIKIDB_EVENTS = "wikidb.events";
+    public static final String CONFIG_WIKIDB_SEARCH_DIRECTORY = "wikidb.search.directory";
+    public static final String CONFIG_WIKIDB_SEARCH_FLUSH_THRESHOLD = "wikidb.search.flush_threshold";
+    public static final String CONFIG_WIKIDB_REVISIONS_SNAPSHOT_INTERVAL = "wikidb.revisions.snapshot_interval";
+    public static final String CONFIG_WIKIDB_REVISIONS_CACHE_SIZE = "wikidb.revisions.cache_size";
+
+    public static final String CONFIG_WIKIDB_INSTANCES = "wikidb.instances";
+
+    public static final String CONFIG_WIKIDB_WRITE_BEHIND_WINDOW = "wikidb.write_behind.window";  //大于0时每次提交都先写入磁盘（sync-commits查询），成组提交的调用者因此只在写入持久后得到结果
+    public static final String CONFIG_WIKIDB_WRITE_BEHIND_MAX_BATCH = "wikidb.write_behind.max_batch";
+
+    public static final String CONFIG_WIKIDB_STORAGE = "wikidb.storage";
+    public static final String CONFIG_WIKIDB_LOG_DIRECTORY = "wikidb.log.directory";
+    public static final String CONFIG_WIKIDB_LOG_SEGMENT_SIZE = "wikidb.log.segment_size";
+    public static final String CONFIG_WIKIDB_LOG_REVISIONS = "wikidb.log.revisions";
+    public static final String CONFIG_WIKIDB_LOG_COMPACTION_THRESHOLD = "wikidb.log.compaction_threshold";
+    public static final String CONFIG_WIKIDB_LOG_SYNC_INTERVAL = "wikidb.log.sync_interval";
+
+    private static final String SHARED_SERVICES = "wikidb.shared.services";
+
+    /**
+     * The service implementation shared by the instances of a deployment, which the first instance to start creates.
+     * The other instances wait for it to be ready and then register it on their own event loop, so that requests are
+     * handled on as many event loops as there are instances, while pages, indexes and caches stay in one place.
+     */
+    private static final class SharedService implements Shareable {
+
+        private final List<Handler<AsyncResult<WikiDatabaseService>>> waiting = new ArrayList<>();
+        private AsyncResult<WikiDatabaseService> ready;
+        private int instances;
+
+        /**
+         * @return whether the calling instance is the first one, and must create the service
+         */
+        synchronized boolean acquire() {
+            return instances++ == 0;
+        }
+
+        /**
+         * @return whether the calling instance was the last one
+         */
+        synchronized boolean release() {
+            return --instances == 0;
+        }
+
+        void complete(AsyncResult<WikiDatabaseService> result) {
+            List<Handler<AsyncResult<WikiDatabaseService>>> handlers;
+            synchronized (this) {
+                ready = result;
+                handlers = new ArrayList<>(waiting);
+                waiting.clear();
+            }
+            handlers.forEach(handler -> handler.handle(result));
+        }
+
+        /*
+         * The handler is called on the given context.
+         */
+        void whenReady(Context context, Handler<AsyncResult<WikiDatabaseService>> handler) {
+            Handler<AsyncResult<WikiDatabaseService>> onContext = result -> context.runOnContext(v -> handler.handle(result));
+            AsyncResult<WikiDatabaseService> result;
+            synchronized (this) {
+                result = ready;
+                if (result == null) {
+                    waiting.add(onContext);
+                    return;
+                }
+            }
+            onContext.handle(result);
+        }
+    }
+
+    private WikiDatabaseService service;
 
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
-        HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+        SharedService shared = sharedService();
+        if (shared.acquire()) {
+            try {
+                PageCodec.register(vertx); //页面批次以二进制编码在事件总线上传输
 
-        JDBCClient dbClient = JDBCClient.createShared(vertx, new JsonObject()
-                .put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"))
-                .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
-                .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30)));
+                if ("log".equals(config().getString(CONFIG_WIKIDB_STORAGE, "jdbc"))) {  //"jdbc"（默认）或"log"：页面保存在嵌入式的追加写日志中
+                    WikiDatabaseService.createLogStructured(vertx, config(), shared::complete);
+                } else {
+                    HashMap<SqlQuery, String> sqlQueries = loadSqlQueries();
+
+                    JDBCClient dbClient = JDBCClient.createShared(vertx, new JsonObject()
+                            .put("url", config().getString(CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:file:db/wiki"))
+                            .put("driver_class", config().getString(CONFIG_WIKIDB_JDBC_DRIVER_CLASS, "org.hsqldb.jdbcDriver"))
+                            .put("max_pool_size", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 30))
+                            .put("max_statements_per_connection", config().getInteger(CONFIG_WIKIDB_JDBC_MAX_STATEMENTS_PER_CONNECTION, 32)));
+
+                    WikiDatabaseService.create(vertx, dbClient, sqlQueries, config(), shared::complete);
+                }
+            } catch (IOException | RuntimeException e) {
+                shared.complete(Future.failedFuture(e));
+            }
+        }
 
-        WikiDatabaseService.create(dbClient, sqlQueries, ready -> {
+        shared.whenReady(context, ready -> {  //同一部署的其他实例等待第一个实例创建服务，然后在各自的事件循环上注册同一个实现
             if (ready.succeeded()) {
-                ProxyHelper.registerService(WikiDatabaseService.class, vertx, ready.result(), CONFIG_WIKIDB_QUEUE); //(1)我们在这里注册服务。
+                ProxyHelper.registerService(WikiDatabaseService.class, vertx, ready.result(), config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue")); //(1)我们在这里注册服务。
+                service = ready.result();
+                LocalWikiDatabaseService.bind(vertx, config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue"), service, context);  //同一Vert.x实例中的客户端直接调用服务，不经事件总线
 
 //                注册服务需要接口类，Vert.x上下文，实现和事件总线目标。
 //
@@ -52,6 +152,23 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
         });
     }
 
+    @Override
+    public void stop() throws Exception {
+        if (service != null) {
+            LocalWikiDatabaseService.unbind(vertx, config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue"), service, context);
+        }
+        if (sharedService().release()) {
+            vertx.sharedData().getLocalMap(SHARED_SERVICES).remove(context.deploymentID());
+        }
+    }
+
+    private SharedService sharedService() {
+        LocalMap<String, SharedService> services = vertx.sharedData().getLocalMap(SHARED_SERVICES);
+        SharedService created = new SharedService();
+        SharedService existing = services.putIfAbsent(context.deploymentID(), created);
+        return existing != null ? existing : created;
+    }
+
     /*
      * Note: this uses blocking APIs, but data is small...
      */
@@ -71,13 +188,31 @@ public class WikiDatabaseVerticle extends AbstractVerticle {
 
         HashMap<SqlQuery, String> sqlQueries = new HashMap<>();
         sqlQueries.put(SqlQuery.CREATE_PAGES_TABLE, queriesProps.getProperty("create-pages-table"));
+        sqlQueries.put(SqlQuery.PAGES_VERSION_COLUMNS, queriesProps.getProperty("pages-version-columns"));
+        sqlQueries.put(SqlQuery.ADD_PAGES_VERSION_COLUMN, queriesProps.getProperty("add-pages-version-column"));
+        sqlQueries.put(SqlQuery.ADD_PAGES_MODIFIED_COLUMN, queriesProps.getProperty("add-pages-modified-column"));
+        sqlQueries.put(SqlQuery.SYNC_COMMITS, queriesProps.getProperty("sync-commits"));
         sqlQueries.put(SqlQuery.ALL_PAGES, queriesProps.getProperty("all-pages"));
         sqlQueries.put(SqlQuery.GET_PAGE, queriesProps.getProperty("get-page"));
+        sqlQueries.put(SqlQuery.MAX_PAGE_ID, queriesProps.getProperty("max-page-id"));
+        sqlQueries.put(SqlQuery.PAGES_AFTER_ID, queriesProps.getProperty("pages-after-id"));
         sqlQueries.put(SqlQuery.CREATE_PAGE, queriesProps.getProperty("create-page"));
         sqlQueries.put(SqlQuery.SAVE_PAGE, queriesProps.getProperty("save-page"));
         sqlQueries.put(SqlQuery.DELETE_PAGE, queriesProps.getProperty("delete-page"));
         sqlQueries.put(SqlQuery.ALL_PAGES_DATA, queriesProps.getProperty("all-pages-data"));
         sqlQueries.put(SqlQuery.FETCH_PAGE_BY_ID, queriesProps.getProperty("fetch-page-by-id"));
+        sqlQueries.put(SqlQuery.FETCH_PAGES_PAGE, queriesProps.getProperty("fetch-pages-page"));
+        sqlQueries.put(SqlQuery.STREAM_PAGES_DATA, queriesProps.getProperty("stream-pages-data"));
+        sqlQueries.put(SqlQuery.COUNT_PAGES_FINGERPRINT, queriesProps.getProperty("count-pages-fingerprint"));
+        sqlQueries.put(SqlQuery.INDEX_PAGES_DATA, queriesProps.getProperty("index-pages-data"));
+        sqlQueries.put(SqlQuery.COUNT_REVISIONS_TABLE, queriesProps.getProperty("count-revisions-table"));
+        sqlQueries.put(SqlQuery.CREATE_REVISIONS_TABLE, queriesProps.getProperty("create-revisions-table"));
+        sqlQueries.put(SqlQuery.SNAPSHOT_PAGES, queriesProps.getProperty("snapshot-pages"));
+        sqlQueries.put(SqlQuery.GET_PAGE_FOR_UPDATE, queriesProps.getProperty("get-page-for-update"));
+        sqlQueries.put(SqlQuery.CREATE_REVISION, queriesProps.getProperty("create-revision"));
+        sqlQueries.put(SqlQuery.DELETE_REVISIONS, queriesProps.getProperty("delete-revisions"));
+        sqlQueries.put(SqlQuery.FETCH_REVISIONS, queriesProps.getProperty("fetch-revisions"));
+        sqlQueries.put(SqlQuery.RESTORE_REVISION, queriesProps.getProperty("restore-revision"));
         return sqlQueries;
     }
 }
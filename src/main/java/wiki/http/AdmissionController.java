@@ -0,0 +1,208 @@
+package wiki.http;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.RoutingContext;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounds the number of requests an {@link HttpServerVerticle} has in flight, so that when the database slows down,
+ * requests are turned away at once with a 503 and a {@code Retry-After} header instead of piling up until they time
+ * out. Requests over the limit wait in a short FIFO queue for a slot, and are rejected when it is full or when they
+ * have waited for too long.
+ * <p>
+ * The limit adapts to the observed latency, in the way of TCP Vegas: it follows the ratio between a long-term and a
+ * short-term average of the response time, plus an allowance of {@code sqrt(limit)} queued requests, so it grows
+ * while latency stays flat and shrinks as soon as requests start queuing somewhere downstream. Server errors (which
+ * include event bus timeouts) cut it multiplicatively, as in AIMD. It only grows while at least half of it is used.
+ * <p>
+ * An instance is confined to the event loop of its verticle, so it is not thread-safe. Its gauges are shared by all
+ * instances and report their total.
+ */
+class AdmissionController implements Handler<RoutingContext> {
+
+    private static final int MIN_LIMIT = 1;
+    private static final double BACKOFF = 0.9;
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int SHORT_WINDOW = 10;
+    private static final int LONG_WINDOW = 500;
+
+    private static final class Waiter {
+        final RoutingContext context;
+        final long queuedAt = System.nanoTime();
+        long timer;
+
+        Waiter(RoutingContext context) {
+            this.context = context;
+        }
+    }
+
+    private final Vertx vertx;
+    private final int maxLimit;
+    private final int queueSize;
+    private final long queueTimeoutMillis;
+    private final String retryAfter;
+    private final ArrayDeque<Waiter> queue = new ArrayDeque<>();
+
+    private double limit;
+    private int inFlight;
+    private double shortRtt;
+    private double longRtt;
+
+    private final LongAdder inFlightGauge;
+    private final LongAdder queuedGauge;
+    private final LongAdder limitGauge;
+    private final LongAdder rejectedQueueFull;
+    private final LongAdder rejectedQueueTimeout;
+    private final LatencyHistogram queueWait;
+    private int reportedLimit;
+    private boolean closed;
+
+    AdmissionController(Vertx vertx, MetricsRegistry metrics, int initialLimit, int maxLimit, int queueSize,
+                        long queueTimeoutMillis, int retryAfterSeconds) {
+        this.vertx = vertx;
+        this.maxLimit = Math.max(MIN_LIMIT, maxLimit);
+        this.queueSize = Math.max(0, queueSize);
+        this.queueTimeoutMillis = Math.max(1, queueTimeoutMillis);
+        this.retryAfter = String.valueOf(retryAfterSeconds);
+        this.limit = Math.max(MIN_LIMIT, Math.min(initialLimit, this.maxLimit));
+        this.inFlightGauge = metrics.gauge("wiki_http_admission_in_flight", "Requests being handled");
+        this.queuedGauge = metrics.gauge("wiki_http_admission_queued", "Requests waiting for a slot");
+        this.limitGauge = metrics.gauge("wiki_http_admission_limit", "Adaptive limit of requests in flight");
+        this.rejectedQueueFull = metrics.counter("wiki_http_admission_rejected_total", "Requests turned away with a 503", "reason", "queue_full");
+        this.rejectedQueueTimeout = metrics.counter("wiki_http_admission_rejected_total", "Requests turned away with a 503", "reason", "queue_timeout");
+        this.queueWait = metrics.histogram("wiki_http_admission_queue_wait_seconds", "Time requests waited for a slot");
+        reportLimit();
+    }
+
+    @Override
+    public void handle(RoutingContext context) {
+        if (inFlight < (int) limit && queue.isEmpty()) {
+            admit(context);
+        } else if (queue.size() < queueSize) {
+            context.request().pause();  // The body handlers come later: keep the body chunks until the request is admitted
+            Waiter waiter = new Waiter(context);
+            waiter.timer = vertx.setTimer(queueTimeoutMillis, id -> {
+                if (queue.remove(waiter)) {
+                    queuedGauge.decrement();
+                    queueWait.recordNanos(System.nanoTime() - waiter.queuedAt);
+                    rejectedQueueTimeout.increment();
+                    context.request().resume();
+                    reject(context);
+                }
+            });
+            queue.add(waiter);
+            queuedGauge.increment();
+        } else {
+            rejectedQueueFull.increment();
+            reject(context);
+        }
+    }
+
+    private void admit(RoutingContext context) {
+        inFlight++;
+        inFlightGauge.increment();
+        long start = System.nanoTime();
+        boolean[] released = new boolean[1];
+        context.addBodyEndHandler(v -> {
+            if (!released[0]) {
+                released[0] = true;
+                release(System.nanoTime() - start, context.response().getStatusCode() >= 500);
+            }
+        });
+        context.response().closeHandler(v -> {  // The client went away before the response was sent
+            if (!released[0]) {
+                released[0] = true;
+                release(-1, false);
+            }
+        });
+        context.next();
+    }
+
+    /*
+     * A negative response time means that there is nothing to learn from the request.
+     */
+    private void release(long rttNanos, boolean failed) {
+        if (closed) {
+            return;
+        }
+        inFlight--;
+        inFlightGauge.decrement();
+        if (failed) {
+            limit = Math.max(MIN_LIMIT, limit * BACKOFF);
+        } else if (rttNanos >= 0) {
+            adapt(rttNanos);
+        }
+        reportLimit();
+        while (inFlight < (int) limit && !queue.isEmpty()) {
+            Waiter waiter = queue.poll();
+            vertx.cancelTimer(waiter.timer);
+            queuedGauge.decrement();
+            queueWait.recordNanos(System.nanoTime() - waiter.queuedAt);
+            waiter.context.request().resume();
+            admit(waiter.context);
+        }
+    }
+
+    private void adapt(long rttNanos) {
+        if (longRtt == 0) {
+            shortRtt = rttNanos;
+            longRtt = rttNanos;
+            return;
+        }
+        shortRtt += (rttNanos - shortRtt) / SHORT_WINDOW;
+        longRtt += (rttNanos - longRtt) / LONG_WINDOW;
+        if (longRtt > 2 * shortRtt) {
+            longRtt *= 0.95;  // Recovering from a slowdown: let the baseline come back down sooner
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / shortRtt));
+        double target = limit * gradient + Math.sqrt(limit);
+        if (inFlight < limit / 2) {
+            target = Math.min(limit, target);
+        }
+        limit = Math.max(MIN_LIMIT, Math.min(maxLimit, limit * (1 - SMOOTHING) + target * SMOOTHING));
+    }
+
+    /**
+     * Withdraws this instance's share of the gauges, when its verticle is undeployed.
+     */
+    void close() {
+        closed = true;
+        queue.forEach(waiter -> {
+            vertx.cancelTimer(waiter.timer);
+            waiter.context.request().resume();
+        });
+        queuedGauge.add(-queue.size());
+        queue.clear();
+        inFlightGauge.add(-inFlight);
+        inFlight = 0;
+        limitGauge.add(-reportedLimit);
+        reportedLimit = 0;
+    }
+
+    private void reportLimit() {
+        int current = (int) limit;
+        limitGauge.add(current - reportedLimit);
+        reportedLimit = current;
+    }
+
+    private void reject(RoutingContext context) {
+        context.response().setStatusCode(503);
+        context.response().putHeader("Retry-After", retryAfter);
+        if (context.request().path().startsWith("/api/")) {
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "The server is overloaded, try again later").encode());
+        } else {
+            context.response().putHeader("Content-Type", "text/plain");
+            context.response().end("The server is overloaded, try again later");
+        }
+    }
+}
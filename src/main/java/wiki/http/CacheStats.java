@@ -0,0 +1,82 @@
+package wiki.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import wiki.metrics.PrometheusFormat;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Hit / miss / eviction counters of a cache. Each {@link HttpServerVerticle} instance owns its own cache, but the
+ * counters are shared through a Vert.x local map so that the numbers reported by any instance cover all of them.
+ */
+public class CacheStats implements Shareable {
+
+    private static final String STATS_MAP = "wiki.http.cache.stats";
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder entries = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    public static CacheStats get(Vertx vertx, String cacheName) {
+        LocalMap<String, CacheStats> stats = vertx.sharedData().getLocalMap(STATS_MAP);
+        return stats.computeIfAbsent(cacheName, name -> new CacheStats());
+    }
+
+    public static JsonObject toJson(Vertx vertx) {
+        JsonObject json = new JsonObject();
+        LocalMap<String, CacheStats> stats = vertx.sharedData().getLocalMap(STATS_MAP);
+        stats.forEach((name, cacheStats) -> json.put(name, cacheStats.toJson()));
+        return json;
+    }
+
+    public static void writePrometheus(Vertx vertx, StringBuilder out) {
+        LocalMap<String, CacheStats> stats = vertx.sharedData().getLocalMap(STATS_MAP);
+        writeFamily(out, stats, "wiki_cache_hits_total", "counter", "Cache hits", cacheStats -> cacheStats.hits);
+        writeFamily(out, stats, "wiki_cache_misses_total", "counter", "Cache misses", cacheStats -> cacheStats.misses);
+        writeFamily(out, stats, "wiki_cache_evictions_total", "counter", "Cache entries evicted to stay within the size bound", cacheStats -> cacheStats.evictions);
+        writeFamily(out, stats, "wiki_cache_entries", "gauge", "Entries held by the cache", cacheStats -> cacheStats.entries);
+        writeFamily(out, stats, "wiki_cache_bytes", "gauge", "Approximate size of the cache contents", cacheStats -> cacheStats.bytes);
+    }
+
+    private static void writeFamily(StringBuilder out, LocalMap<String, CacheStats> stats, String name, String type, String help,
+                                    Function<CacheStats, LongAdder> metric) {
+        PrometheusFormat.header(out, name, type, help);
+        stats.forEach((cache, cacheStats) -> PrometheusFormat.sample(out, name, PrometheusFormat.labels("cache", cache), metric.apply(cacheStats).sum()));
+    }
+
+    void hit() {
+        hits.increment();
+    }
+
+    void miss() {
+        misses.increment();
+    }
+
+    void added(long size) {
+        entries.increment();
+        bytes.add(size);
+    }
+
+    void removed(long size, boolean evicted) {
+        entries.decrement();
+        bytes.add(-size);
+        if (evicted) {
+            evictions.increment();
+        }
+    }
+
+    public JsonObject toJson() {
+        return new JsonObject()
+                .put("hits", hits.sum())
+                .put("misses", misses.sum())
+                .put("evictions", evictions.sum())
+                .put("entries", entries.sum())
+                .put("bytes", bytes.sum());
+    }
+}
@@ -0,0 +1,150 @@
+package wiki.http;
+
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The most recent page change events of the database, in a ring buffer of a fixed capacity, for the clients of
+ * {@code GET /api/changes?since=}: a client passes the sequence number of the last change it has seen, and gets the
+ * ones after it. When there are none yet, the request waits for the next one, up to a timeout (long polling).
+ * <p>
+ * A client that asks for changes the buffer no longer holds, or for changes from before the database service was
+ * restarted (sequence numbers start over), gets {@code "truncated": true} and must read the pages again. Like
+ * {@link PageVersionIndex}, an instance is confined to the event loop of its {@link HttpServerVerticle}.
+ */
+class ChangeLog {
+
+    private static final class Waiter {
+
+        final long since;
+        final int limit;
+        final Handler<JsonObject> handler;
+        long timer;
+
+        Waiter(long since, int limit, Handler<JsonObject> handler) {
+            this.since = since;
+            this.limit = limit;
+            this.handler = handler;
+        }
+    }
+
+    private final Vertx vertx;
+    private final JsonObject[] ring;
+    private final int maxWaiters;
+    private final LongAdder waiting;
+    private final List<Waiter> waiters = new ArrayList<>();
+    private int size;
+    private int head;  // Index of the oldest event
+    private long last;  // Sequence number of the newest event, 0 when there is none
+
+    ChangeLog(Vertx vertx, int capacity, int maxWaiters, LongAdder waiting) {
+        this.vertx = vertx;
+        this.ring = new JsonObject[Math.max(1, capacity)];
+        this.maxWaiters = maxWaiters;
+        this.waiting = waiting;
+    }
+
+    /**
+     * Adds an event of the database service, and answers the requests waiting for it.
+     */
+    void append(JsonObject event) {
+        Long sequence = event.getLong("sequence");
+        if (sequence == null) {
+            return;
+        }
+        if (sequence <= last) {  //数据库服务重启后序号从1重新开始
+            size = 0;
+            head = 0;
+        }
+        if (size == ring.length) {
+            ring[head] = event;
+            head = (head + 1) % ring.length;
+        } else {
+            ring[(head + size) % ring.length] = event;
+            size++;
+        }
+        last = sequence;
+        answerAll();  //等待中的请求都已读到最新的变更，新变更即是它们所等待的
+    }
+
+    /**
+     * @return {@code {"changes", "next", "truncated"}}: up to {@code limit} changes after {@code since}, and the
+     * sequence number to pass as {@code since} for the following ones
+     */
+    JsonObject changes(long since, int limit) {
+        long first = last - size + 1;
+        if (since > last || (since < first - 1 && last > 0)) {
+            return new JsonObject().put("changes", new JsonArray()).put("next", last).put("truncated", true);
+        }
+        JsonArray changes = new JsonArray();
+        long next = Math.max(since, first - 1);
+        while (next < last && changes.size() < limit) {
+            next++;
+            changes.add(ring[(int) ((head + (next - first)) % ring.length)]);
+        }
+        return new JsonObject().put("changes", changes).put("next", next).put("truncated", false);
+    }
+
+    /**
+     * Answers with the changes after {@code since} as soon as there are some, or with none after the timeout.
+     *
+     * @return {@code false}, without calling the handler, if too many requests are waiting already
+     */
+    boolean await(long since, int limit, long timeoutMillis, Handler<JsonObject> handler) {
+        JsonObject available = changes(since, limit);
+        if (!available.getJsonArray("changes").isEmpty() || available.getBoolean("truncated") || timeoutMillis <= 0) {
+            handler.handle(available);
+            return true;
+        }
+        if (waiters.size() >= maxWaiters) {
+            return false;
+        }
+        Waiter waiter = new Waiter(since, limit, handler);
+        waiter.timer = vertx.setTimer(timeoutMillis, id -> {
+            if (waiters.remove(waiter)) {
+                waiting.decrement();
+                handler.handle(changes(since, limit));
+            }
+        });
+        waiters.add(waiter);
+        waiting.increment();
+        return true;
+    }
+
+    /**
+     * Stops waiting, when the client goes away.
+     */
+    void cancel(Handler<JsonObject> handler) {
+        waiters.removeIf(waiter -> {
+            if (waiter.handler != handler) {
+                return false;
+            }
+            waiting.decrement();
+            vertx.cancelTimer(waiter.timer);
+            return true;
+        });
+    }
+
+    /**
+     * Answers the waiting requests with what there is, when the verticle is undeployed.
+     */
+    void close() {
+        answerAll();
+    }
+
+    private void answerAll() {
+        List<Waiter> answered = new ArrayList<>(waiters);
+        waiters.clear();
+        waiting.add(-answered.size());
+        answered.forEach(waiter -> {
+            vertx.cancelTimer(waiter.timer);
+            waiter.handler.handle(changes(waiter.since, waiter.limit));
+        });
+    }
+}
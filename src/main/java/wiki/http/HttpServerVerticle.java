@@ -1,39 +1,104 @@
 package wiki.http;
 
-import com.github.rjeschke.txtmark.Processor;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.DeliveryOptions;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerOptions;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.web.Router;
 import io.vertx.ext.web.RoutingContext;
-import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.client.WebClientOptions;
-import io.vertx.ext.web.codec.BodyCodec;
 import io.vertx.ext.web.handler.BodyHandler;
 import io.vertx.ext.web.templ.FreeMarkerTemplateEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import wiki.backup.BackupEngine;
+import wiki.backup.BackupSink;
+import wiki.backup.FileBackupSink;
+import wiki.backup.GistBackupSink;
+import wiki.backup.HttpBackupSink;
+import wiki.database.Page;
+import wiki.database.PageSummary;
 import wiki.database.WikiDatabaseService;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+import wiki.metrics.PrometheusFormat;
 
+import java.io.File;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class HttpServerVerticle extends AbstractVerticle {
 
     public static final String CONFIG_HTTP_SERVER_PORT = "http.server.port";
+    public static final String CONFIG_HTTP_SERVER_INSTANCES = "http.server.instances";
     public static final String CONFIG_WIKIDB_QUEUE = "wikidb.queue";
+    public static final String CONFIG_WIKIDB_TIMEOUT = "wikidb.timeout";
+    public static final String CONFIG_WIKIDB_EVENTS = "wikidb.events";
+    public static final String CONFIG_WIKIDB_CHANGES = "wikidb.changes";
+    public static final String CONFIG_HTTP_PAGE_CACHE_MAX_BYTES = "http.page_cache.max_bytes";
+    public static final String CONFIG_HTTP_MARKDOWN_CACHE_MAX_BYTES = "http.markdown_cache.max_bytes";
+    public static final String CONFIG_HTTP_VERSION_INDEX_MAX_ENTRIES = "http.version_index.max_entries";
+    public static final String CONFIG_HTTP_COMPRESSION = "http.compression";
+    public static final String CONFIG_HTTP_COMPRESSION_LEVEL = "http.compression.level";
+    public static final String CONFIG_HTTP_BACKUP_SINK = "http.backup.sink";
+    public static final String CONFIG_HTTP_BACKUP_DIRECTORY = "http.backup.directory";
+    public static final String CONFIG_HTTP_BACKUP_URL = "http.backup.url";
+    public static final String CONFIG_HTTP_BACKUP_BATCH_SIZE = "http.backup.batch_size";
+    public static final String CONFIG_HTTP_ADMISSION_INITIAL_LIMIT = "http.admission.initial_limit";
+    public static final String CONFIG_HTTP_ADMISSION_MAX_LIMIT = "http.admission.max_limit";
+    public static final String CONFIG_HTTP_ADMISSION_QUEUE_SIZE = "http.admission.queue_size";
+    public static final String CONFIG_HTTP_ADMISSION_QUEUE_TIMEOUT = "http.admission.queue_timeout";
+    public static final String CONFIG_HTTP_ADMISSION_RETRY_AFTER = "http.admission.retry_after";
+    public static final String CONFIG_HTTP_CHANGES_BUFFER_SIZE = "http.changes.buffer_size";
+    public static final String CONFIG_HTTP_CHANGES_POLL_TIMEOUT = "http.changes.poll_timeout";
+    public static final String CONFIG_HTTP_CHANGES_MAX_WAITERS = "http.changes.max_waiters";
+    public static final String CONFIG_HTTP_LIVE_COALESCE_WINDOW = "http.live.coalesce_window";
+    public static final String CONFIG_HTTP_LIVE_MAX_QUEUED_BYTES = "http.live.max_queued_bytes";
+    public static final String CONFIG_HTTP_LIVE_MAX_CONNECTIONS = "http.live.max_connections";
+    public static final String CONFIG_HTTP_LIVE_HEARTBEAT_INTERVAL = "http.live.heartbeat_interval";
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpServerVerticle.class);
 
     private final FreeMarkerTemplateEngine templateEngine = FreeMarkerTemplateEngine.create();
 
+    private static final int API_PAGES_DEFAULT_LIMIT = 100;
+    private static final int API_PAGES_MAX_LIMIT = 1000;
+    private static final int API_SEARCH_DEFAULT_LIMIT = 10;
+    private static final int API_SUGGEST_DEFAULT_LIMIT = 10;
+    private static final int API_SUGGEST_MAX_LIMIT = 100;
+    private static final int INDEX_PAGE_SIZE = 100;
+    private static final int API_SEARCH_MAX_LIMIT = 100;
+    private static final int API_CHANGES_DEFAULT_LIMIT = 100;
+    private static final int API_CHANGES_MAX_LIMIT = 1000;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
+    private static final Pattern PAGE_ETAG = Pattern.compile("(?:W/)?\"(?:json|html)-(\\d+)-(\\d+)(?:-gzip)?\"");
+
     private static final String EMPTY_PAGE_MARKDOWN =
             "# A new page\n" +
                     "\n" +
@@ -44,38 +109,120 @@ public class HttpServerVerticle extends AbstractVerticle {
 
     private WebClient webClient;
 
+    private HttpClient httpClient;
+
+    private BackupEngine backupEngine;
+
+    private RenderedPageCache pageCache;
+
+    private MarkdownCache markdownCache;
+
+    private PageVersionIndex versionIndex;
+
+    private boolean compression;
+
+    private AdmissionController admission;
+
+    private ChangeLog changeLog;
+
+    private long changesPollTimeout;
+
+    private LivePageUpdates liveUpdates;
+
+    private MetricsRegistry metrics;
+
+    private LatencyHistogram indexRenderTime;
+
+    private LatencyHistogram pageRenderTime;
+
     @Override
     public void start(Future<Void> startFuture) throws Exception {
 
+        metrics = MetricsRegistry.get(vertx);
+        indexRenderTime = metrics.histogram("wiki_template_render_seconds", "FreeMarker template rendering time", "template", "index.ftl");
+        pageRenderTime = metrics.histogram("wiki_template_render_seconds", "FreeMarker template rendering time", "template", "page.ftl");
+
         String wikiDbQueue = config().getString(CONFIG_WIKIDB_QUEUE, "wikidb.queue");
-        dbService = WikiDatabaseService.createProxy(vertx, wikiDbQueue);
+        dbService = WikiDatabaseService.createMeasuredProxy(vertx, wikiDbQueue,
+                config().getLong(CONFIG_WIKIDB_TIMEOUT, DeliveryOptions.DEFAULT_TIMEOUT));  //直接调用也有超时：卡住的调用按失败计，释放准入名额
+
+        compression = config().getBoolean(CONFIG_HTTP_COMPRESSION, true);
+        int compressionLevel = config().getInteger(CONFIG_HTTP_COMPRESSION_LEVEL, 6);
+        pageCache = new RenderedPageCache(
+                config().getLong(CONFIG_HTTP_PAGE_CACHE_MAX_BYTES, 32L * 1024 * 1024),
+                CacheStats.get(vertx, "pages"),
+                compression ? compressionLevel : -1);
+        versionIndex = new PageVersionIndex(config().getInteger(CONFIG_HTTP_VERSION_INDEX_MAX_ENTRIES, 100000));
+        markdownCache = MarkdownCache.get(vertx,
+                config().getLong(CONFIG_HTTP_MARKDOWN_CACHE_MAX_BYTES, 16L * 1024 * 1024));
+        liveUpdates = new LivePageUpdates(vertx, metrics,
+                config().getLong(CONFIG_HTTP_LIVE_COALESCE_WINDOW, 250L),
+                config().getInteger(CONFIG_HTTP_LIVE_MAX_QUEUED_BYTES, 16 * 1024),
+                config().getInteger(CONFIG_HTTP_LIVE_MAX_CONNECTIONS, 10000),
+                config().getLong(CONFIG_HTTP_LIVE_HEARTBEAT_INTERVAL, 15000L));
+        String wikiDbEvents = config().getString(CONFIG_WIKIDB_EVENTS, "wikidb.events");
+        vertx.eventBus().<JsonObject>consumer(wikiDbEvents, message -> {
+            JsonObject event = message.body();
+            invalidatePage(event.getInteger("id"), event.getString("name"));
+            liveUpdates.changed(event);  //先使缓存失效，读者收到通知后重新请求时得到新版本
+        });
+        changeLog = new ChangeLog(vertx,
+                config().getInteger(CONFIG_HTTP_CHANGES_BUFFER_SIZE, 1024),
+                config().getInteger(CONFIG_HTTP_CHANGES_MAX_WAITERS, 1000),
+                metrics.gauge("wiki_http_changes_waiting", "Requests waiting for page changes"));
+        changesPollTimeout = config().getLong(CONFIG_HTTP_CHANGES_POLL_TIMEOUT, 30000L);
+        vertx.eventBus().<JsonObject>consumer(config().getString(CONFIG_WIKIDB_CHANGES, wikiDbEvents), message ->  //带序号的变更事件，默认与缓存失效事件为同一地址
+                changeLog.append(message.body()));
 
         webClient = WebClient.create(vertx, new WebClientOptions()
                 .setSsl(true)
                 .setUserAgent("vert-x3"));
+        httpClient = vertx.createHttpClient();
+        backupEngine = new BackupEngine(vertx, dbService, config().getInteger(CONFIG_HTTP_BACKUP_BATCH_SIZE, 100));
+        admission = new AdmissionController(vertx, metrics,
+                config().getInteger(CONFIG_HTTP_ADMISSION_INITIAL_LIMIT, 32),
+                config().getInteger(CONFIG_HTTP_ADMISSION_MAX_LIMIT, 256),
+                config().getInteger(CONFIG_HTTP_ADMISSION_QUEUE_SIZE, 64),
+                config().getLong(CONFIG_HTTP_ADMISSION_QUEUE_TIMEOUT, 100L),
+                config().getInteger(CONFIG_HTTP_ADMISSION_RETRY_AFTER, 1));
 
-        HttpServer server = vertx.createHttpServer();
+        HttpServer server = vertx.createHttpServer(new HttpServerOptions()
+                .setCompressionSupported(compression) //(1)按Accept-Encoding协商gzip或deflate压缩，已设置Content-Encoding的响应（预压缩的页面）不会再被压缩
+                .setCompressionLevel(compressionLevel));
         // (...)
         // end::db-consume[]
 
         Router router = Router.router(vertx);
-        router.get("/").handler(this::indexHandler);
-        router.get("/wiki/:page").handler(this::pageRenderingHandler);
+        router.get("/metrics").handler(timed("GET", "/metrics", this::metricsHandler));  //指标不受准入控制，过载时仍可观测
+        router.get("/api/changes").handler(timed("GET", "/api/changes", this::apiChanges));  //长轮询的等待时间不计入准入控制的延迟，等待中的请求数另有上限
+        router.get("/wiki/:page/live").handler(this::livePageHandler);  //长连接的事件流同样不经准入控制，连接数另有上限
+        router.route().handler(admission);  //超过自适应的并发上限时排队，队列满或等待超时则立即返回503
+        router.get("/").handler(timed("GET", "/", this::indexHandler));
+        router.get("/wiki/:page").handler(timed("GET", "/wiki/:page", this::pageRenderingHandler));
         router.post().handler(BodyHandler.create());
-        router.post("/save").handler(this::pageUpdateHandler);
-        router.post("/create").handler(this::pageCreateHandler);
-        router.post("/delete").handler(this::pageDeletionHandler);
-        router.get("/backup").handler(this::backupHandler);
+        router.post("/save").handler(timed("POST", "/save", this::pageUpdateHandler));
+        router.post("/create").handler(timed("POST", "/create", this::pageCreateHandler));
+        router.post("/delete").handler(timed("POST", "/delete", this::pageDeletionHandler));
+        router.get("/backup").handler(timed("GET", "/backup", this::backupHandler));
 
         // tag::apiRouter[]
         Router apiRouter = Router.router(vertx);
-        apiRouter.get("/pages").handler(this::apiRoot);
-        apiRouter.get("/pages/:id").handler(this::apiGetPage);
+        apiRouter.get("/pages").handler(timed("GET", "/api/pages", this::apiRoot));
+        apiRouter.get("/pages/suggest").handler(timed("GET", "/api/pages/suggest", this::apiSuggestPages));
+        apiRouter.get("/pages/:id").handler(timed("GET", "/api/pages/:id", this::apiGetPage));
+        apiRouter.get("/pages/:id/revisions").handler(timed("GET", "/api/pages/:id/revisions", this::apiGetRevisions));
+        apiRouter.get("/pages/:id/revisions/:revision").handler(timed("GET", "/api/pages/:id/revisions/:revision", this::apiGetRevision));
+        apiRouter.get("/pages/:id/diff").handler(timed("GET", "/api/pages/:id/diff", this::apiGetRevisionDiff));
         apiRouter.post().handler(BodyHandler.create());
-        apiRouter.post("/pages").handler(this::apiCreatePage);
+        apiRouter.post("/pages").handler(timed("POST", "/api/pages", this::apiCreatePage));
+        apiRouter.post("/pages/_bulk").handler(timed("POST", "/api/pages/_bulk", this::apiCreatePages));
         apiRouter.put().handler(BodyHandler.create());
-        apiRouter.put("/pages/:id").handler(this::apiUpdatePage);
-        apiRouter.delete("/pages/:id").handler(this::apiDeletePage);
+        apiRouter.put("/pages/_bulk").handler(timed("PUT", "/api/pages/_bulk", this::apiUpdatePages));
+        apiRouter.put("/pages/:id").handler(timed("PUT", "/api/pages/:id", this::apiUpdatePage));
+        apiRouter.delete("/pages/:id").handler(timed("DELETE", "/api/pages/:id", this::apiDeletePage));
+        apiRouter.get("/search").handler(timed("GET", "/api/search", this::apiSearch));
+        apiRouter.get("/stats").handler(timed("GET", "/api/stats", this::apiStats));
+        apiRouter.post("/backup").handler(timed("POST", "/api/backup", this::apiBackup));
         router.mountSubRouter("/api", apiRouter); // <1>
         // end::apiRouter[]
 
@@ -95,12 +242,122 @@ public class HttpServerVerticle extends AbstractVerticle {
     }
 
 
+    @Override
+    public void stop() throws Exception {
+        if (admission != null) {
+            admission.close();
+        }
+        if (changeLog != null) {
+            changeLog.close();
+        }
+        if (liveUpdates != null) {
+            liveUpdates.close();
+        }
+    }
+
+    /*
+     * Counts requests, server errors and latency of a route. The metrics are looked up once, here, so that recording
+     * them per request does not allocate.
+     */
+    private Handler<RoutingContext> timed(String method, String route, Handler<RoutingContext> handler) {
+        String[] labels = {"method", method, "route", route};
+        LongAdder requests = metrics.counter("wiki_http_requests_total", "HTTP requests", labels);
+        LongAdder errors = metrics.counter("wiki_http_errors_total", "HTTP requests answered with a 5xx status", labels);
+        LatencyHistogram latency = metrics.histogram("wiki_http_request_duration_seconds", "HTTP request latency", labels);
+        return context -> {
+            long start = System.nanoTime();
+            context.addBodyEndHandler(v -> {
+                latency.recordNanos(System.nanoTime() - start);
+                requests.increment();
+                if (context.response().getStatusCode() >= 500) {
+                    errors.increment();
+                }
+            });
+            handler.handle(context);
+        };
+    }
+
+    private void render(RoutingContext context, String templateFileName, LatencyHistogram renderTime, Handler<AsyncResult<Buffer>> handler) {
+        long start = System.nanoTime();
+        templateEngine.render(context, "templates", templateFileName, ar -> {
+            renderTime.recordNanos(System.nanoTime() - start);
+            handler.handle(ar);
+        });
+    }
+
+    private void metricsHandler(RoutingContext context) {
+        dbService.fetchPoolMetrics(reply -> {
+            StringBuilder out = new StringBuilder();
+            metrics.writePrometheus(out);
+            CacheStats.writePrometheus(vertx, out);
+            if (reply.succeeded()) {
+                writePoolMetrics(out, reply.result());
+            }
+            context.response().putHeader("Content-Type", PrometheusFormat.CONTENT_TYPE);
+            context.response().end(out.toString());
+        });
+    }
+
+    private void writePoolMetrics(StringBuilder out, JsonObject pool) {
+        if ("log".equals(pool.getString("storage"))) {
+            writeLogMetrics(out, pool);
+            return;
+        }
+        poolSample(out, "wiki_db_pool_max_connections", "gauge", "Maximum size of the connection pool", pool.getLong("maxPoolSize"));
+        poolSample(out, "wiki_db_pool_pinned_connections", "gauge", "Long-lived pinned connections", pool.getLong("pinned"));
+        poolSample(out, "wiki_db_pool_active_connections", "gauge", "Connections in use, or requests in flight on pinned connections", pool.getLong("active"));
+        poolSample(out, "wiki_db_pool_idle_connections", "gauge", "Connections that can be handed out without waiting", pool.getLong("idle"));
+        poolSample(out, "wiki_db_pool_waiting", "gauge", "Requests waiting for a connection", pool.getLong("waiting"));
+        poolSample(out, "wiki_db_pool_acquired_total", "counter", "Connections handed out", pool.getLong("acquired"));
+        poolSample(out, "wiki_db_pool_acquisition_failures_total", "counter", "Failed connection acquisitions", pool.getLong("acquisitionFailures"));
+        poolSample(out, "wiki_db_pool_leaks_detected_total", "counter", "Connections held for longer than the leak detection threshold", pool.getLong("leaksDetected"));
+        poolSummary(out, "wiki_db_pool_acquisition_seconds", "Time waited for a connection", pool.getJsonObject("acquisitionLatency"));
+        poolSummary(out, "wiki_db_pool_hold_seconds", "Time connections were held", pool.getJsonObject("holdTime"));
+    }
+
+    /*
+     * The log-structured storage has no connection pool, and reports the state of its log instead.
+     */
+    private void writeLogMetrics(StringBuilder out, JsonObject log) {
+        poolSample(out, "wiki_db_log_segments", "gauge", "Segment files of the page log", log.getLong("segments"));
+        poolSample(out, "wiki_db_log_bytes", "gauge", "Bytes written to the segments of the page log", log.getLong("bytes"));
+        poolSample(out, "wiki_db_log_live_bytes", "gauge", "Bytes of the page log that are current pages, retained revisions or tombstones", log.getLong("liveBytes"));
+        poolSample(out, "wiki_db_log_pages", "gauge", "Pages in the page log", log.getLong("pages"));
+        poolSample(out, "wiki_db_log_compactions_total", "counter", "Segments of the page log compacted", log.getLong("compactions"));
+        poolSample(out, "wiki_db_log_reclaimed_bytes_total", "counter", "Bytes of segments deleted by compactions", log.getLong("reclaimedBytes"));
+    }
+
+    private void poolSample(StringBuilder out, String name, String type, String help, long value) {
+        PrometheusFormat.header(out, name, type, help);
+        PrometheusFormat.sample(out, name, "", value);
+    }
+
+    private void poolSummary(StringBuilder out, String name, String help, JsonObject histogram) {
+        PrometheusFormat.header(out, name, "summary", help);
+        PrometheusFormat.sample(out, name, PrometheusFormat.labels("quantile", "0.5"), histogram.getLong("p50Micros") / 1e6);
+        PrometheusFormat.sample(out, name, PrometheusFormat.labels("quantile", "0.9"), histogram.getLong("p90Micros") / 1e6);
+        PrometheusFormat.sample(out, name, PrometheusFormat.labels("quantile", "0.99"), histogram.getLong("p99Micros") / 1e6);
+        PrometheusFormat.sample(out, name + "_sum", "", histogram.getLong("sumMicros") / 1e6);
+        PrometheusFormat.sample(out, name + "_count", "", histogram.getLong("count"));
+    }
+
     private void indexHandler(RoutingContext context) {
-        dbService.fetchAllPages(reply -> {
+        String after = context.request().getParam("after");
+        dbService.fetchPageNames(null, after, INDEX_PAGE_SIZE + 1, reply -> {  //多取一个页面以判断是否还有下一页
             if (reply.succeeded()) {
+                List<String> pages = reply.result().stream()
+                        .limit(INDEX_PAGE_SIZE)
+                        .map(PageSummary::getName)
+                        .collect(Collectors.toList());
                 context.put("title", "Wiki home");
-                context.put("pages", reply.result().getList());
-                templateEngine.render(context, "templates", "/index.ftl", ar -> {
+                context.put("pages", pages);
+                if (after != null) {
+                    context.put("has_previous", true);
+                }
+                if (reply.result().size() > INDEX_PAGE_SIZE) {
+                    context.put("next_page", pages.get(pages.size() - 1));
+                }
+                render(context, "/index.ftl", indexRenderTime, ar -> {
                     if (ar.succeeded()) {
                         context.response().putHeader("Content-Type", "text/html");
                         context.response().end(ar.result());
@@ -116,23 +373,49 @@ public class HttpServerVerticle extends AbstractVerticle {
 
     private void pageRenderingHandler(RoutingContext context) {
         String requestedPage = context.request().getParam("page");
+        RenderedPageCache.Entry cached = pageCache.get(requestedPage);
+        if (cached != null) {
+            if (cached.version > 0 && notModified(context, etag("html", cached.id, cached.version), cached.modified)) {
+                return;
+            }
+            sendPage(context, cached.html, cached.gzip);
+            return;
+        }
+        PageVersionIndex.Version known = versionIndex.byName(requestedPage);
+        if (known != null && notModified(context, etag("html", known.id, known.version), known.modified)) {
+            return;
+        }
+
+        long cacheToken = pageCache.token();
+        long versionToken = versionIndex.token();
         dbService.fetchPage(requestedPage, reply -> {
             if (reply.succeeded()) {
 
-                JsonObject payLoad = reply.result();
-                boolean found = payLoad.getBoolean("found");
-                String rawContent = payLoad.getString("rawContent", EMPTY_PAGE_MARKDOWN);
+                Page page = reply.result();
+                boolean found = page != null;
+                String rawContent = found ? page.getContent() : EMPTY_PAGE_MARKDOWN;
+                int id = found ? page.getId() : -1;
+                int version = found ? page.getVersion() : 0;
+                long modified = found ? page.getModified() : 0L;
+                if (found) {
+                    versionIndex.put(versionToken, id, requestedPage, version, modified);
+                    if (notModified(context, etag("html", id, version), modified)) {
+                        return;
+                    }
+                }
                 context.put("title", requestedPage);
-                context.put("id", payLoad.getInteger("id", -1));
+                context.put("id", id);
+                context.put("version", version);
                 context.put("newPage", found ? "no" : "yes");
                 context.put("rawContent", rawContent);
-                context.put("content", Processor.process(rawContent));
-                context.put("timestamp", new Date().toString());
+                context.put("content", markdownCache.render(rawContent));
+                context.put("timestamp", modified > 0 ? new Date(modified).toString() : ""); //(1)使用页面的修改时间而不是渲染时间，使同一版本的HTML保持一致（强ETag）
 
-                templateEngine.render(context, "templates", "/page.ftl", ar -> {
+                render(context, "/page.ftl", pageRenderTime, ar -> {
                     if (ar.succeeded()) {
-                        context.response().putHeader("Content-Type", "text/html");
-                        context.response().end(ar.result());
+                        Buffer html = ar.result();
+                        RenderedPageCache.Entry entry = pageCache.put(cacheToken, requestedPage, id, version, modified, html);
+                        sendPage(context, html, entry != null ? entry.gzip : null);
                     } else {
                         context.fail(ar.cause());
                     }
@@ -144,11 +427,125 @@ public class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    /*
+     * Server-Sent Events stream of the changes of a page, for its readers (see LivePageUpdates).
+     */
+    private void livePageHandler(RoutingContext context) {
+        if (!liveUpdates.subscribe(context.request().getParam("page"), context.response())) {
+            context.response().setStatusCode(503);
+            context.response().putHeader("Retry-After", "5");
+            context.response().end();
+        }
+    }
+
+    private void invalidatePage(Integer id, String name) {
+        pageCache.invalidate(id, name);
+        versionIndex.invalidate(id, name);
+    }
+
+    /*
+     * Strong validator of one representation of a page version: the HTML page and the JSON document differ.
+     */
+    private String etag(String representation, int id, int version) {
+        return "\"" + representation + "-" + id + "-" + version + "\"";
+    }
+
+    /*
+     * Sets the validators of a page representation, then answers 304 when the request validators show that the
+     * client already has it. If-None-Match takes precedence over If-Modified-Since, as in RFC 7232.
+     */
+    private boolean notModified(RoutingContext context, String etag, long modified) {
+        HttpServerResponse response = context.response();
+        response.putHeader("ETag", etag);
+        if (modified > 0) {
+            response.putHeader("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(modified)));
+        }
+        boolean notModified;
+        String ifNoneMatch = context.request().getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            notModified = Arrays.stream(ifNoneMatch.split(","))
+                    .map(String::trim)
+                    .map(tag -> tag.startsWith("W/") ? tag.substring(2) : tag)
+                    .anyMatch(tag -> tag.equals("*") || tag.equals(etag) || tag.equals(gzipVariant(etag)));
+        } else {
+            String ifModifiedSince = context.request().getHeader("If-Modified-Since");
+            notModified = ifModifiedSince != null && modified > 0 && !modifiedSince(modified, ifModifiedSince);
+        }
+        if (notModified) {
+            response.setStatusCode(304);
+            response.end();
+        }
+        return notModified;
+    }
+
+    /*
+     * Serves rendered page HTML, using the pre-compressed variant when there is one and the client accepts gzip.
+     * Such responses already have a Content-Encoding, so the server does not compress them again.
+     */
+    private void sendPage(RoutingContext context, Buffer html, Buffer gzip) {
+        HttpServerResponse response = context.response();
+        response.putHeader("Content-Type", "text/html");
+        if (compression) {
+            response.putHeader("Vary", "Accept-Encoding");
+        }
+        if (gzip != null && acceptsGzip(context.request().getHeader("Accept-Encoding"))) {
+            String etag = response.headers().get("ETag");
+            if (etag != null) {
+                response.putHeader("ETag", gzipVariant(etag));
+            }
+            response.putHeader("Content-Encoding", "gzip");
+            response.end(gzip);
+        } else {
+            response.end(html);
+        }
+    }
+
+    private boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String name = parameters[0].trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                for (int i = 1; i < parameters.length; i++) {
+                    String parameter = parameters[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            return Double.parseDouble(parameter.substring(2)) > 0;
+                        } catch (NumberFormatException e) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Gzip encoded representations get their own strong validator.
+     */
+    private String gzipVariant(String etag) {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    private boolean modifiedSince(long modified, String httpDate) {
+        try {
+            long since = ZonedDateTime.parse(httpDate, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+            return modified / 1000 > since;
+        } catch (DateTimeParseException e) {
+            return true;
+        }
+    }
+
     private void pageUpdateHandler(RoutingContext context) {
         String title = context.request().getParam("title");
 
         Handler<AsyncResult<Void>> handler = reply -> {
             if (reply.succeeded()) {
+                invalidatePage(null, title);
                 context.response().setStatusCode(303);
                 context.response().putHeader("Location", "/wiki/" + title);
                 context.response().end();
@@ -158,10 +555,41 @@ public class HttpServerVerticle extends AbstractVerticle {
         };
 
         String markdown = context.request().getParam("markdown");
+        String version = context.request().getParam("version");
         if ("yes".equals(context.request().getParam("newPage"))) {
             dbService.createPage(title, markdown, handler);
+            return;
+        }
+        int id;
+        int expectedVersion;
+        try {
+            id = Integer.parseInt(context.request().getParam("id"));
+            expectedVersion = version == null ? -1 : Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad id or version parameter").encode());
+            return;
+        }
+        if (version == null) {
+            dbService.savePage(id, markdown, handler);
         } else {
-            dbService.savePage(Integer.valueOf(context.request().getParam("id")), markdown, handler);
+            dbService.savePageIfVersion(id, expectedVersion, markdown, reply -> {  //编辑表单带有开始编辑时的版本，期间被他人修改则返回409而不覆盖
+                if (reply.succeeded() && !reply.result().getBoolean("saved") && reply.result().getBoolean("found")) {
+                    context.response().setStatusCode(409);
+                    context.response().putHeader("Content-Type", "text/plain; charset=utf-8");
+                    context.response().end("The page " + title + " was modified (version " + reply.result().getInteger("version")
+                            + ") since version " + version + " was opened for editing");
+                } else if (reply.succeeded() && !reply.result().getBoolean("saved")) {  //编辑期间页面已被删除
+                    context.response().setStatusCode(404);
+                    context.response().putHeader("Content-Type", "text/plain; charset=utf-8");
+                    context.response().end("The page " + title + " no longer exists");
+                } else {
+                    handler.handle(reply.mapEmpty());
+                }
+            });
         }
     }
 
@@ -177,8 +605,10 @@ public class HttpServerVerticle extends AbstractVerticle {
     }
 
     private void pageDeletionHandler(RoutingContext context) {
-        dbService.deletePage(Integer.valueOf(context.request().getParam("id")), reply -> {
+        int id = Integer.valueOf(context.request().getParam("id"));
+        dbService.deletePage(id, reply -> {
             if (reply.succeeded()) {
+                invalidatePage(id, null);
                 context.response().setStatusCode(303);
                 context.response().putHeader("Location", "/");
                 context.response().end();
@@ -189,74 +619,99 @@ public class HttpServerVerticle extends AbstractVerticle {
     }
 
     private void backupHandler(RoutingContext context) {
-        dbService.fetchAllPagesData(reply -> {
-            if (reply.succeeded()) {
+        runBackup(ar -> {
+            if (ar.succeeded()) {
+                context.put("backup_location", ar.result().getString("location"));
+                indexHandler(context);
+            } else {
+                context.fail(ar.cause());
+            }
+        });
+    }
 
-                JsonObject filesObject = new JsonObject();
-                JsonObject gistPayload = new JsonObject() //(1)Gist创建请求有效负载是GitHub API文档中概述的JSON 文档
-                        .put("files", filesObject)
-                        .put("description", "A wiki backup")
-                        .put("public", true);
-
-                reply
-                        .result()
-                        .forEach(page -> {
-                            JsonObject fileObject = new JsonObject(); //(2)每个文件是files有效负载对象下的条目，其中标题是关键字，值是文本
-                            filesObject.put(page.getString("NAME"), fileObject);
-                            fileObject.put("content", page.getString("CONTENT"));
-                        });
-
-                webClient.post(443, "api.github.com", "/gists") //(3)Web客户端需要POST在端口443（HTTPS）上发出请求，路径必须为/gists
-                        .putHeader("Accept", "application/vnd.github.v3+json") //(4)Accept在application/vnd.github.v3+jsonMIME类型的请求中必须有头，否则请求失败。在下一行指定有效负载是JSON对象也很重要
-                        .putHeader("Content-Type", "application/json")
-                        .as(BodyCodec.jsonObject()) //(5)BodyCodec类提供了一个辅助指定该响应将被直接转换为Vert.x JsonObject实例。也可以使用BodyCodec#json(Class<T>)JSON数据并将其映射到类型为Java的对象T（这将使用Jackson数据映射）
-                        .sendJsonObject(gistPayload, ar -> {  //(6)sendJsonObject 是使用JSON有效负载触发HTTP请求的帮手
-                            if (ar.succeeded()) {
-                                HttpResponse<JsonObject> response = ar.result();
-                                if (response.statusCode() == 201) {
-                                    context.put("backup_gist_url", response.body().getString("html_url"));  //(7)成功后，我们可以遍历JSON数据（html_url密钥）以获取新创建的Gist的用户友好的URL
-                                    indexHandler(context);
-                                } else {
-                                    StringBuilder message = new StringBuilder()
-                                            .append("Could not backup the wiki: ")
-                                            .append(response.statusMessage());
-                                    JsonObject body = response.body();
-                                    if (body != null) {
-                                        message.append(System.getProperty("line.separator"))
-                                                .append(body.encodePrettily());
-                                    }
-                                    LOGGER.error(message.toString());
-                                    context.fail(502);
-                                }
-                            } else {
-                                Throwable err = ar.cause();
-                                LOGGER.error("HTTP Client error", err);
-                                context.fail(err);
-                            }
-                        });
+    private void apiBackup(RoutingContext context) {
+        runBackup(ar -> {
+            JsonObject response = new JsonObject();
+            if (ar.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("backup", ar.result());
+                context.response().setStatusCode(200);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", ar.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
 
+    /*
+     * Backups stream pages from the database to the sink selected by the http.backup.sink configuration entry.
+     */
+    private void runBackup(Handler<AsyncResult<JsonObject>> resultHandler) {
+        String sink = config().getString(CONFIG_HTTP_BACKUP_SINK, "gist");
+        Future<BackupSink> sinkReady = Future.future();
+        switch (sink) {
+            case "file":
+                String directory = config().getString(CONFIG_HTTP_BACKUP_DIRECTORY, "backups");
+                String path = directory + File.separator + "wiki-" + System.currentTimeMillis() + ".ndjson.gz";
+                FileBackupSink.open(vertx, path, sinkReady);
+                break;
+            case "http":
+                String url = config().getString(CONFIG_HTTP_BACKUP_URL);
+                if (url == null) {
+                    sinkReady.fail("The http backup sink needs an upload URL in " + CONFIG_HTTP_BACKUP_URL);
+                } else {
+                    sinkReady.complete(new HttpBackupSink(httpClient, url));
+                }
+                break;
+            case "gist":
+                sinkReady.complete(new GistBackupSink(webClient));
+                break;
+            default:
+                sinkReady.fail("Unknown backup sink: " + sink);
+        }
+        sinkReady.setHandler(ar -> {
+            if (ar.succeeded()) {
+                backupEngine.run(ar.result(), resultHandler);
             } else {
-                context.fail(reply.cause());
+                LOGGER.error("Could not open the backup sink", ar.cause());
+                resultHandler.handle(Future.failedFuture(ar.cause()));
             }
         });
     }
 
     private void apiRoot(RoutingContext context) {
-        dbService.fetchAllPagesData(reply -> {
+        int after;
+        int limit;
+        try {
+            after = intParam(context, "after", -1);
+            limit = intParam(context, "limit", API_PAGES_DEFAULT_LIMIT);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad after or limit parameter").encode());
+            return;
+        }
+        int pageSize = Math.max(1, Math.min(limit, API_PAGES_MAX_LIMIT));
+        dbService.fetchPagesPage(after, pageSize, reply -> {  //(1)只按Id游标读取一页的id和name，不再读取所有页面的内容
             JsonObject response = new JsonObject();
             if (reply.succeeded()) {
-                List<JsonObject> pages = reply.result()
-                        .stream()
-                        .map(obj -> new JsonObject()
-                                .put("id", obj.getInteger("ID"))  //(1)我们只是重新映射页面信息输入对象中的数据库结果
-                        .put("name", obj.getString("NAME")))
-        .collect(Collectors.toList());
+                List<PageSummary> pages = reply.result();
                 response
                         .put("success", true)
-                        .put("pages", pages); //(2)生成的JSON数组变为pages响应有效负载中的键的值。
+                        .put("pages", summaries(pages)); //(2)生成的JSON数组变为pages响应有效负载中的键的值。
+                if (pages.size() == pageSize) {
+                    response.put("next", pages.get(pages.size() - 1).getId());  //(3)下一页请求的after参数
+                }
                 context.response().setStatusCode(200);
                 context.response().putHeader("Content-Type", "application/json");
-                context.response().end(response.encode()); //(3)JsonObject#encode()给出StringJSON数据的紧凑表示。
+                context.response().end(response.encode()); //(4)JsonObject#encode()给出StringJSON数据的紧凑表示。
             } else {
                 response
                         .put("success", false)
@@ -268,27 +723,257 @@ public class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    private void apiSuggestPages(RoutingContext context) {
+        String prefix = context.request().getParam("prefix");
+        int limit;
+        try {
+            limit = intParam(context, "limit", API_SUGGEST_DEFAULT_LIMIT);
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad limit parameter").encode());
+            return;
+        }
+        dbService.fetchPageNames(prefix, null, Math.max(1, Math.min(limit, API_SUGGEST_MAX_LIMIT)), reply -> {  //名称以prefix开头的页面，按名称排序，从内存中的名称索引读取
+            JsonObject response = new JsonObject();
+            if (reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("pages", summaries(reply.result()));
+                context.response().setStatusCode(200);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+
+    private void apiSearch(RoutingContext context) {
+        String query = context.request().getParam("q");
+        int limit;
+        try {
+            limit = intParam(context, "limit", API_SEARCH_DEFAULT_LIMIT);
+        } catch (NumberFormatException e) {
+            limit = -1;
+        }
+        if (query == null || query.trim().isEmpty() || limit < 0) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad q or limit parameter").encode());
+            return;
+        }
+        dbService.search(query, Math.max(1, Math.min(limit, API_SEARCH_MAX_LIMIT)), reply -> {  //按相关度排序的{id, name, score}
+            JsonObject response = new JsonObject();
+            if (reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("results", reply.result());
+                context.response().setStatusCode(200);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+
+    /*
+     * Long polling: answers at once if there are changes after since (or if the client must read the pages again, see
+     * ChangeLog), and otherwise waits for the next change, up to the timeout.
+     */
+    private void apiChanges(RoutingContext context) {
+        long since;
+        int limit;
+        long timeout;
+        try {
+            String sinceParam = context.request().getParam("since");
+            String timeoutParam = context.request().getParam("timeout");
+            since = sinceParam != null ? Long.parseLong(sinceParam) : 0;
+            limit = intParam(context, "limit", API_CHANGES_DEFAULT_LIMIT);
+            timeout = timeoutParam != null ? Long.parseLong(timeoutParam) : changesPollTimeout;
+        } catch (NumberFormatException e) {
+            since = -1;
+            limit = -1;
+            timeout = -1;
+        }
+        if (since < 0 || limit < 1 || timeout < 0) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad since, limit or timeout parameter").encode());
+            return;
+        }
+        Handler<JsonObject> reply = changes -> {
+            context.response().setStatusCode(200);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().putHeader("Cache-Control", "no-store");
+            context.response().end(changes.put("success", true).encode());  //{success, changes, next, truncated}
+        };
+        context.response().closeHandler(v -> changeLog.cancel(reply));
+        if (!changeLog.await(since, Math.min(limit, API_CHANGES_MAX_LIMIT), Math.min(timeout, changesPollTimeout), reply)) {
+            context.response().setStatusCode(503);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Too many requests waiting for changes").encode());
+        }
+    }
+
+    private int intParam(RoutingContext context, String name, int defaultValue) {
+        String value = context.request().getParam(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    private static JsonArray summaries(List<PageSummary> pages) {
+        JsonArray array = new JsonArray();
+        pages.forEach(page -> array.add(page.toJson()));
+        return array;
+    }
+
     private void apiGetPage(RoutingContext context) {
         int id = Integer.valueOf(context.request().getParam("id"));
+        PageVersionIndex.Version known = versionIndex.byId(id);
+        if (known != null && notModified(context, etag("json", id, known.version), known.modified)) {
+            return;
+        }
+        long versionToken = versionIndex.token();
         dbService.fetchPageById(id, reply -> {
+            JsonObject response = new JsonObject();
+            if (reply.succeeded()) {
+                Page page = reply.result();
+                if (page != null) {
+                    int version = page.getVersion();
+                    long modified = page.getModified();
+                    versionIndex.put(versionToken, id, page.getName(), version, modified);
+                    if (notModified(context, etag("json", id, version), modified)) {
+                        return;
+                    }
+                    JsonObject payload = new JsonObject()
+                            .put("name", page.getName())
+                            .put("id", page.getId())
+                            .put("version", version)
+                            .put("modified", modified)
+                            .put("markdown", page.getContent())
+                            .put("html", markdownCache.render(page.getContent()));
+                    response
+                            .put("success", true)
+                            .put("page", payload);
+                    context.response().setStatusCode(200);
+                } else {
+                    context.response().setStatusCode(404);
+                    response
+                            .put("success", false)
+                            .put("error", "There is no page with ID " + id);
+                }
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+
+    private void apiGetRevisions(RoutingContext context) {
+        int id = Integer.valueOf(context.request().getParam("id"));
+        dbService.fetchRevisions(id, reply -> {  //从新到旧的{revision, modified, snapshot}
+            JsonObject response = new JsonObject();
+            if (reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("revisions", reply.result());
+                context.response().setStatusCode(200);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+
+    private void apiGetRevision(RoutingContext context) {
+        int id = Integer.valueOf(context.request().getParam("id"));
+        int revision = Integer.valueOf(context.request().getParam("revision"));
+        dbService.fetchRevision(id, revision, reply -> {
             JsonObject response = new JsonObject();
             if (reply.succeeded()) {
                 JsonObject dbObject = reply.result();
                 if (dbObject.getBoolean("found")) {
                     JsonObject payload = new JsonObject()
-                            .put("name", dbObject.getString("name"))
-                            .put("id", dbObject.getInteger("id"))
+                            .put("id", id)
+                            .put("revision", revision)
+                            .put("modified", dbObject.getLong("modified"))
                             .put("markdown", dbObject.getString("content"))
-                            .put("html", Processor.process(dbObject.getString("content")));
+                            .put("html", markdownCache.render(dbObject.getString("content")));
                     response
                             .put("success", true)
-                            .put("page", payload);
+                            .put("revision", payload);
                     context.response().setStatusCode(200);
                 } else {
                     context.response().setStatusCode(404);
                     response
                             .put("success", false)
-                            .put("error", "There is no page with ID " + id);
+                            .put("error", "There is no revision " + revision + " of the page with ID " + id);
+                }
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+
+    private void apiGetRevisionDiff(RoutingContext context) {
+        int id = Integer.valueOf(context.request().getParam("id"));
+        int from;
+        int to;
+        try {
+            from = Integer.parseInt(context.request().getParam("from"));
+            to = Integer.parseInt(context.request().getParam("to"));
+        } catch (NumberFormatException e) {
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad from or to parameter").encode());
+            return;
+        }
+        dbService.fetchRevisionDiff(id, from, to, reply -> {
+            JsonObject response = new JsonObject();
+            if (reply.succeeded()) {
+                JsonObject dbObject = reply.result();
+                if (dbObject.getBoolean("found")) {
+                    response
+                            .put("success", true)
+                            .put("from", from)
+                            .put("to", to)
+                            .put("diff", dbObject.getString("diff"));
+                    context.response().setStatusCode(200);
+                } else {
+                    context.response().setStatusCode(404);
+                    response
+                            .put("success", false)
+                            .put("error", "There is no revision " + from + " or " + to + " of the page with ID " + id);
                 }
             } else {
                 response
@@ -308,6 +993,7 @@ public class HttpServerVerticle extends AbstractVerticle {
         }
         dbService.createPage(page.getString("name"), page.getString("markdown"), reply -> {
             if (reply.succeeded()) {
+                invalidatePage(null, page.getString("name"));
                 context.response().setStatusCode(201);
                 context.response().putHeader("Content-Type", "application/json");
                 context.response().end(new JsonObject().put("success", true).encode());
@@ -321,6 +1007,75 @@ public class HttpServerVerticle extends AbstractVerticle {
         });
     }
 
+    private void apiCreatePages(RoutingContext context) {
+        List<JsonObject> pages = bulkPageDocuments(context, "name", "markdown");
+        if (pages == null) {
+            return;
+        }
+        dbService.createPages(pages, reply -> {
+            if (reply.succeeded()) {
+                pages.forEach(page -> invalidatePage(null, page.getString("name")));
+                context.response().setStatusCode(201);
+                context.response().putHeader("Content-Type", "application/json");
+                context.response().end(new JsonObject()
+                        .put("success", true)
+                        .put("count", pages.size()).encode());
+            } else {
+                handleSimpleDbReply(context, reply);
+            }
+        });
+    }
+
+    private void apiUpdatePages(RoutingContext context) {
+        List<JsonObject> pages = bulkPageDocuments(context, "id", "markdown");
+        if (pages == null) {
+            return;
+        }
+        dbService.savePages(pages, reply -> {
+            if (reply.succeeded()) {
+                pages.forEach(page -> invalidatePage(page.getInteger("id"), null));
+            }
+            handleSimpleDbReply(context, reply);
+        });
+    }
+
+    /*
+     * Bulk requests carry a JSON array of page documents. Gives null when a response has already been sent.
+     */
+    private List<JsonObject> bulkPageDocuments(RoutingContext context, String... expectedKeys) {
+        JsonArray array;
+        try {
+            array = context.getBodyAsJsonArray();
+        } catch (DecodeException e) {
+            array = null;
+        }
+        if (array == null) {
+            rejectBulkPayload(context);
+            return null;
+        }
+        List<JsonObject> pages = new ArrayList<>();
+        for (Object page : array) {
+            if (!(page instanceof JsonObject)) {
+                rejectBulkPayload(context);
+                return null;
+            }
+            if (!validateJsonPageDocument(context, (JsonObject) page, expectedKeys)) {
+                return null;
+            }
+            pages.add((JsonObject) page);
+        }
+        return pages;
+    }
+
+    private void rejectBulkPayload(RoutingContext context) {
+        LOGGER.error("Bad bulk page JSON payload from " + context.request().remoteAddress());
+        context.response().setStatusCode(400);
+        context.response().putHeader("Content-Type", "application/json");
+        context.response().end(new JsonObject()
+                .put("success", false)
+                .put("error", "Bad request payload").encode());
+    }
+
     private boolean validateJsonPageDocument(RoutingContext context, JsonObject page, String... expectedKeys) {
         if (!Arrays.stream(expectedKeys).allMatch(page::containsKey)) {
             LOGGER.error("Bad page creation JSON payload: " + page.encodePrettily() + " from " + context.request().remoteAddress());
@@ -340,11 +1095,78 @@ public class HttpServerVerticle extends AbstractVerticle {
         if (!validateJsonPageDocument(context, page, "markdown")) {
             return;
         }
-        dbService.savePage(id, page.getString("markdown"), reply -> {
-            handleSimpleDbReply(context, reply);
+        Object requestedVersion = page.getValue("version");
+        if (requestedVersion != null && !(requestedVersion instanceof Integer)) {  //不是整数（字符串、小数或超出范围）的version不能用于比较
+            context.response().setStatusCode(400);
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(new JsonObject()
+                    .put("success", false)
+                    .put("error", "Bad version").encode());
+            return;
+        }
+        Integer expectedVersion = (Integer) requestedVersion;
+        boolean precondition = false;
+        String ifMatch = context.request().getHeader("If-Match");
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedVersion = matchedVersion(ifMatch, id);
+            precondition = true;
+        }
+        if (expectedVersion == null) {
+            dbService.savePage(id, page.getString("markdown"), reply -> {
+                if (reply.succeeded()) {
+                    invalidatePage(id, null);
+                }
+                handleSimpleDbReply(context, reply);
+            });
+            return;
+        }
+        int conflictStatus = precondition ? 412 : 409;  //If-Match不满足时返回412，请求体中的version不是当前版本时返回409
+        dbService.savePageIfVersion(id, expectedVersion, page.getString("markdown"), reply -> {
+            JsonObject response = new JsonObject();
+            if (reply.failed()) {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            } else if (reply.result().getBoolean("saved")) {
+                invalidatePage(id, null);
+                int version = reply.result().getInteger("version");
+                response
+                        .put("success", true)
+                        .put("version", version);
+                context.response().setStatusCode(200);
+                context.response().putHeader("ETag", etag("json", id, version));
+            } else if (reply.result().getBoolean("found")) {
+                response
+                        .put("success", false)
+                        .put("error", "The page with ID " + id + " is at version " + reply.result().getInteger("version"))
+                        .put("version", reply.result().getInteger("version"));
+                context.response().setStatusCode(conflictStatus);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", "There is no page with ID " + id);
+                context.response().setStatusCode(404);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
         });
     }
 
+    /*
+     * The version named by an If-Match header made of entity tags of this page (see etag()), or 0, which no page
+     * has, when none of them is one.
+     */
+    private int matchedVersion(String ifMatch, int id) {
+        for (String tag : ifMatch.split(",")) {
+            Matcher matcher = PAGE_ETAG.matcher(tag.trim());
+            if (matcher.matches() && Integer.parseInt(matcher.group(1)) == id) {
+                return Integer.parseInt(matcher.group(2));
+            }
+        }
+        return 0;
+    }
+
     private void handleSimpleDbReply(RoutingContext context, AsyncResult<Void> reply) {
         if (reply.succeeded()) {
             context.response().setStatusCode(200);
@@ -362,7 +1184,29 @@ public class HttpServerVerticle extends AbstractVerticle {
     private void apiDeletePage(RoutingContext context) {
         int id = Integer.valueOf(context.request().getParam("id"));
         dbService.deletePage(id, reply -> {
+            if (reply.succeeded()) {
+                invalidatePage(id, null);
+            }
             handleSimpleDbReply(context, reply);
         });
     }
-}
\ No newline at end of file
+
+    private void apiStats(RoutingContext context) {
+        dbService.fetchPoolMetrics(reply -> {
+            JsonObject response = new JsonObject().put("caches", CacheStats.toJson(vertx));
+            if (reply.succeeded()) {
+                response
+                        .put("success", true)
+                        .put("pool", reply.result());
+                context.response().setStatusCode(200);
+            } else {
+                response
+                        .put("success", false)
+                        .put("error", reply.cause().getMessage());
+                context.response().setStatusCode(500);
+            }
+            context.response().putHeader("Content-Type", "application/json");
+            context.response().end(response.encode());
+        });
+    }
+}
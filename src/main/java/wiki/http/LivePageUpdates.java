@@ -0,0 +1,176 @@
+package wiki.http;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.json.JsonObject;
+import wiki.metrics.MetricsRegistry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Pushes page changes to the readers of the pages, as Server-Sent Events: a reader of {@code /wiki/:page} subscribes
+ * to {@code /wiki/:page/live}, and gets a {@code change} event (the change event of the database) when the page is
+ * updated or deleted.
+ * <p>
+ * The changes of a page are coalesced: a change is sent after a short window, and the changes that come within the
+ * window replace it, unless they are about an older version of the same page (events are not necessarily in version
+ * order), so that a burst of edits makes one event per reader, about the latest version. Each connection
+ * has a bounded outbound queue (the write queue of its response): a reader that does not keep up, and whose queue is
+ * full when there is something to send, is disconnected rather than buffered for, and may reconnect. A comment is
+ * sent periodically, so that idle connections are kept open by proxies and dead ones are found out.
+ * <p>
+ * Like {@link ChangeLog}, an instance is confined to the event loop of its {@link HttpServerVerticle}.
+ */
+class LivePageUpdates {
+
+    private static final Buffer HEARTBEAT = Buffer.buffer(":\n\n");
+
+    private final Vertx vertx;
+    private final long coalesceWindowMillis;
+    private final int maxQueuedBytes;
+    private final int maxSubscribers;
+
+    private final Map<String, Set<HttpServerResponse>> subscribers = new HashMap<>();  // By page name
+    private final Map<String, JsonObject> pending = new HashMap<>();  // Latest change of each page, until it is sent
+    private final long heartbeatTimer;
+    private int subscriberCount;
+
+    private final LongAdder connections;
+    private final LongAdder sent;
+    private final LongAdder coalesced;
+    private final LongAdder dropped;
+
+    LivePageUpdates(Vertx vertx, MetricsRegistry metrics, long coalesceWindowMillis, int maxQueuedBytes, int maxSubscribers, long heartbeatMillis) {
+        this.vertx = vertx;
+        this.coalesceWindowMillis = Math.max(1, coalesceWindowMillis);
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxSubscribers = maxSubscribers;
+        this.connections = metrics.gauge("wiki_http_live_connections", "Readers subscribed to live page updates");
+        this.sent = metrics.counter("wiki_http_live_events_total", "Live page update events sent");
+        this.coalesced = metrics.counter("wiki_http_live_coalesced_total", "Page changes merged into a later change of the same page");
+        this.dropped = metrics.counter("wiki_http_live_dropped_total", "Readers disconnected for not keeping up with live page updates");
+        this.heartbeatTimer = vertx.setPeriodic(Math.max(1, heartbeatMillis), id -> heartbeat());
+    }
+
+    /**
+     * Starts an event stream of the changes of a page on the response.
+     *
+     * @return {@code false}, leaving the response untouched, if there are too many subscribers already
+     */
+    boolean subscribe(String page, HttpServerResponse response) {
+        if (subscriberCount >= maxSubscribers) {
+            return false;
+        }
+        response.setChunked(true);
+        response.setWriteQueueMaxSize(maxQueuedBytes);
+        response.putHeader("Content-Type", "text/event-stream; charset=utf-8");
+        response.putHeader("Cache-Control", "no-store");
+        response.putHeader("Content-Encoding", "identity");  //事件流不压缩，否则事件会滞留在压缩缓冲区中
+        response.write(Buffer.buffer("retry: 5000\n\n"));  //断开后（包括因跟不上被断开）浏览器5秒后重新连接
+
+        subscribers.computeIfAbsent(page, name -> new LinkedHashSet<>()).add(response);
+        subscriberCount++;
+        connections.increment();
+        response.closeHandler(v -> unsubscribe(page, response));
+        return true;
+    }
+
+    private void unsubscribe(String page, HttpServerResponse response) {
+        Set<HttpServerResponse> readers = subscribers.get(page);
+        if (readers != null && readers.remove(response)) {
+            subscriberCount--;
+            connections.decrement();
+            if (readers.isEmpty()) {
+                subscribers.remove(page);
+            }
+        }
+    }
+
+    /**
+     * Takes a change event of the database. Events without a page name (which the database service publishes when it
+     * does not know it) cannot be matched with subscribers and are ignored.
+     */
+    void changed(JsonObject event) {
+        String page = event.getString("name");
+        if (page == null || !subscribers.containsKey(page)) {
+            return;
+        }
+        JsonObject previous = pending.get(page);
+        if (previous != null) {
+            coalesced.increment();
+            if (!olderThan(event, previous)) {
+                pending.put(page, event);
+            }
+            return;
+        }
+        pending.put(page, event);
+        vertx.setTimer(coalesceWindowMillis, id -> flush(page));
+    }
+
+    /*
+     * A page deleted and created again under the same name has another id: its events are compared by arrival only.
+     */
+    private static boolean olderThan(JsonObject event, JsonObject previous) {
+        Integer version = event.getInteger("version");
+        Integer previousVersion = previous.getInteger("version");
+        return version != null && previousVersion != null
+                && Objects.equals(event.getInteger("id"), previous.getInteger("id"))
+                && version < previousVersion;
+    }
+
+    private void flush(String page) {
+        JsonObject event = pending.remove(page);
+        Set<HttpServerResponse> readers = subscribers.get(page);
+        if (event == null || readers == null) {
+            return;
+        }
+        StringBuilder message = new StringBuilder();
+        if (event.containsKey("sequence")) {
+            message.append("id: ").append(event.getLong("sequence")).append('\n');
+        }
+        message.append("event: change\ndata: ").append(event.encode()).append("\n\n");
+        sent.add(send(readers, Buffer.buffer(message.toString())));
+    }
+
+    private void heartbeat() {
+        new ArrayList<>(subscribers.values()).forEach(readers -> send(readers, HEARTBEAT));
+    }
+
+    /*
+     * A full write queue means the reader has not read what was sent before: it is dropped instead. Returns the number
+     * of readers the buffer was written to.
+     */
+    private int send(Set<HttpServerResponse> readers, Buffer buffer) {
+        List<HttpServerResponse> slow = new ArrayList<>();
+        for (HttpServerResponse reader : readers) {
+            if (reader.writeQueueFull()) {
+                slow.add(reader);
+            } else {
+                reader.write(buffer);
+            }
+        }
+        slow.forEach(reader -> {
+            dropped.increment();
+            reader.close();  //连接关闭时closeHandler会取消订阅
+        });
+        return readers.size() - slow.size();
+    }
+
+    /**
+     * Ends every event stream, when the verticle is undeployed.
+     */
+    void close() {
+        vertx.cancelTimer(heartbeatTimer);
+        List<HttpServerResponse> readers = new ArrayList<>();
+        subscribers.values().forEach(readers::addAll);
+        readers.forEach(HttpServerResponse::end);
+    }
+}
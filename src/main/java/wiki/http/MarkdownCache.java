@@ -0,0 +1,122 @@
+package wiki.http;
+
+import com.github.rjeschke.txtmark.Processor;
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+import wiki.metrics.LatencyHistogram;
+import wiki.metrics.MetricsRegistry;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of Markdown to HTML conversions, keyed by the SHA-256 digest of the Markdown text and bounded by the
+ * (approximate) number of bytes held, evicting the least recently used entries first.
+ * <p>
+ * A single instance is shared by all {@link HttpServerVerticle} instances through a Vert.x local map, so it is
+ * thread-safe. Rendering happens outside of the lock.
+ */
+public class MarkdownCache implements Shareable {
+
+    private static final String CACHES_MAP = "wiki.http.caches";
+
+    private static final ThreadLocal<MessageDigest> SHA_256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private static final class Key {
+        private final byte[] digest;
+        private final int hash;
+
+        Key(byte[] digest) {
+            this.digest = digest;
+            this.hash = Arrays.hashCode(digest);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(digest, ((Key) other).digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private final LinkedHashMap<Key, String> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private final long maxBytes;
+    private final CacheStats stats;
+    private final LatencyHistogram renderTime;
+    private long bytes;
+
+    private MarkdownCache(long maxBytes, CacheStats stats, LatencyHistogram renderTime) {
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+        this.renderTime = renderTime;
+    }
+
+    public static MarkdownCache get(Vertx vertx, long maxBytes) {
+        LocalMap<String, MarkdownCache> caches = vertx.sharedData().getLocalMap(CACHES_MAP);
+        return caches.computeIfAbsent("markdown", name -> new MarkdownCache(maxBytes, CacheStats.get(vertx, name),
+                MetricsRegistry.get(vertx).histogram("wiki_markdown_render_seconds", "Time spent rendering Markdown to HTML on cache misses")));
+    }
+
+    /**
+     * Gives the HTML for some Markdown text, running {@link Processor#process(String)} only when the same text has
+     * not been rendered recently.
+     */
+    public String render(String markdown) {
+        Key key = new Key(SHA_256.get().digest(markdown.getBytes(StandardCharsets.UTF_8)));
+        String html;
+        synchronized (this) {
+            html = entries.get(key);
+        }
+        if (html != null) {
+            stats.hit();
+            return html;
+        }
+        stats.miss();
+        long start = System.nanoTime();
+        html = Processor.process(markdown);
+        renderTime.recordNanos(System.nanoTime() - start);
+        put(key, html);
+        return html;
+    }
+
+    private synchronized void put(Key key, String html) {
+        long size = sizeOf(html);
+        if (size > maxBytes) {
+            return;
+        }
+        String previous = entries.put(key, html);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+            stats.removed(sizeOf(previous), false);
+        }
+        bytes += size;
+        stats.added(size);
+
+        Iterator<Map.Entry<Key, String>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            long evicted = sizeOf(eldest.next().getValue());
+            eldest.remove();
+            bytes -= evicted;
+            stats.removed(evicted, true);
+        }
+    }
+
+    private static long sizeOf(String html) {
+        return 32 + 2L * html.length();
+    }
+}
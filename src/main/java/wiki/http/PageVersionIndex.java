@@ -0,0 +1,100 @@
+package wiki.http;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Version and modification time of recently served pages, by name and by id, so that conditional requests can be
+ * answered without fetching the page content from the database.
+ * <p>
+ * Like {@link RenderedPageCache}, an instance is confined to the event loop of its {@link HttpServerVerticle} and
+ * entries are dropped when the database publishes a change for the page. It holds at most a given number of
+ * entries, evicting the least recently used ones.
+ */
+class PageVersionIndex {
+
+    static class Version {
+        final int id;
+        final String name;
+        final int version;
+        final long modified;
+
+        Version(int id, String name, int version, long modified) {
+            this.id = id;
+            this.name = name;
+            this.version = version;
+            this.modified = modified;
+        }
+    }
+
+    private final LinkedHashMap<String, Version> byName;
+    private final HashMap<Integer, Version> byId = new HashMap<>();
+    private long invalidations;
+
+    PageVersionIndex(int maxEntries) {
+        this.byName = new LinkedHashMap<String, Version>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Version> eldest) {
+                if (size() > maxEntries) {
+                    byId.remove(eldest.getValue().id, eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    Version byName(String name) {
+        return byName.get(name);
+    }
+
+    Version byId(int id) {
+        Version version = byId.get(id);
+        if (version != null) {
+            byName.get(version.name);
+        }
+        return version;
+    }
+
+    /**
+     * A token to pass back to {@link #put(long, int, String, int, long)}, see {@link RenderedPageCache#token()}.
+     */
+    long token() {
+        return invalidations;
+    }
+
+    void put(long token, int id, String name, int version, long modified) {
+        if (token != invalidations) {
+            return;
+        }
+        remove(byName.get(name));
+        remove(byId.get(id));
+        Version entry = new Version(id, name, version, modified);
+        byName.put(name, entry);
+        byId.put(id, entry);
+    }
+
+    void invalidate(Integer id, String name) {
+        invalidations++;
+        if (name != null) {
+            remove(byName.get(name));
+        }
+        if (id != null) {
+            remove(byId.get(id));
+        }
+    }
+
+    void clear() {
+        invalidations++;
+        byName.clear();
+        byId.clear();
+    }
+
+    private void remove(Version entry) {
+        if (entry != null) {
+            byName.remove(entry.name, entry);
+            byId.remove(entry.id, entry);
+        }
+    }
+}
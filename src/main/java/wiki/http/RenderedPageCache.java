@@ -0,0 +1,158 @@
+package wiki.http;
+
+import io.vertx.core.buffer.Buffer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * LRU cache of rendered page HTML, keyed by page name and bounded by the (approximate) number of bytes held.
+ * <p>
+ * When a compression level is given, a gzip variant of the HTML is stored next to it, so that a page is compressed
+ * once per change rather than once per request.
+ * <p>
+ * An instance is confined to the event loop of its {@link HttpServerVerticle}, so it is not thread-safe. Entries are
+ * dropped when the database publishes a change for the page, see {@link #invalidate(Integer, String)}.
+ */
+class RenderedPageCache {
+
+    static class Entry {
+        final String name;
+        final int id;
+        final int version;
+        final long modified;
+        final Buffer html;
+        final Buffer gzip;
+        final long size;
+
+        Entry(String name, int id, int version, long modified, Buffer html, Buffer gzip) {
+            this.name = name;
+            this.id = id;
+            this.version = version;
+            this.modified = modified;
+            this.html = html;
+            this.gzip = gzip;
+            this.size = 2L * name.length() + html.length() + (gzip != null ? gzip.length() : 0);
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final HashMap<Integer, String> namesById = new HashMap<>();
+    private final long maxBytes;
+    private final CacheStats stats;
+    private final int compressionLevel;
+    private long bytes;
+    private long invalidations;
+
+    /**
+     * @param compressionLevel gzip compression level of the stored variants, or -1 not to store any
+     */
+    RenderedPageCache(long maxBytes, CacheStats stats, int compressionLevel) {
+        this.maxBytes = maxBytes;
+        this.stats = stats;
+        this.compressionLevel = compressionLevel;
+    }
+
+    Entry get(String name) {
+        Entry entry = entries.get(name);
+        if (entry != null) {
+            stats.hit();
+        } else {
+            stats.miss();
+        }
+        return entry;
+    }
+
+    /**
+     * A token to pass back to {@link #put(long, String, int, int, long, Buffer)}: renders that started before an invalidation
+     * are not cached since they may be based on stale content.
+     */
+    long token() {
+        return invalidations;
+    }
+
+    /**
+     * @param version the page version, 0 for pages that do not exist yet
+     * @return the cached entry, or null when the page was not cached
+     */
+    Entry put(long token, String name, int id, int version, long modified, Buffer html) {
+        if (token != invalidations) {
+            return null;
+        }
+        Entry entry = new Entry(name, id, version, modified, html, compressionLevel >= 0 ? gzip(html) : null);
+        if (entry.size > maxBytes) {
+            return null;
+        }
+        remove(name, false);
+        entries.put(name, entry);
+        if (id != -1) {
+            namesById.put(id, name);
+        }
+        bytes += entry.size;
+        stats.added(entry.size);
+
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            Entry evicted = eldest.next().getValue();
+            eldest.remove();
+            forget(evicted, true);
+        }
+        return entry;
+    }
+
+    private Buffer gzip(Buffer html) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(html.length() / 4 + 64);
+        try (GZIPOutputStream out = new GZIPOutputStream(compressed) {
+            {
+                def.setLevel(compressionLevel);
+            }
+        }) {
+            out.write(html.getBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Buffer.buffer(compressed.toByteArray());
+    }
+
+    void invalidate(Integer id, String name) {
+        invalidations++;
+        if (name != null) {
+            remove(name, false);
+        }
+        if (id != null) {
+            String cachedName = namesById.get(id);
+            if (cachedName != null) {
+                remove(cachedName, false);
+            }
+        }
+    }
+
+    void clear() {
+        invalidations++;
+        entries.values().forEach(entry -> stats.removed(entry.size, false));
+        entries.clear();
+        namesById.clear();
+        bytes = 0;
+    }
+
+    private void remove(String name, boolean evicted) {
+        Entry entry = entries.remove(name);
+        if (entry != null) {
+            forget(entry, evicted);
+        }
+    }
+
+    private void forget(Entry entry, boolean evicted) {
+        bytes -= entry.size;
+        if (entry.id != -1) {
+            namesById.remove(entry.id, entry.name);
+        }
+        stats.removed(entry.size, evicted);
+    }
+}
@@ -0,0 +1,98 @@
+package wiki.metrics;
+
+import io.vertx.core.json.JsonObject;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread-safe histogram of durations with power-of-two microsecond buckets (bucket {@code i} counts durations up to
+ * {@code 2^i} microseconds). Recording does not allocate.
+ */
+public class LatencyHistogram {
+
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public void recordNanos(long nanos) {
+        recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        buckets.incrementAndGet(bucketOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long sumMicros() {
+        return sumMicros.sum();
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, in microseconds.
+     */
+    public long percentileMicros(double percentile) {
+        long total = count.sum();
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundMicros(i), maxMicros.get());
+            }
+        }
+        return maxMicros.get();
+    }
+
+    /**
+     * Number of recorded durations in bucket {@code i}, see {@link #upperBoundMicros(int)}.
+     */
+    public long bucketCount(int i) {
+        return buckets.get(i);
+    }
+
+    public static int buckets() {
+        return BUCKETS;
+    }
+
+    public static long upperBoundMicros(int bucket) {
+        return 1L << bucket;
+    }
+
+    static int bucketOf(long micros) {
+        if (micros <= 1) {
+            return 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+
+    public JsonObject toJson() {
+        long total = count.sum();
+        return new JsonObject()
+                .put("count", total)
+                .put("sumMicros", sumMicros.sum())
+                .put("meanMicros", total == 0 ? 0 : sumMicros.sum() / total)
+                .put("p50Micros", percentileMicros(50))
+                .put("p90Micros", percentileMicros(90))
+                .put("p99Micros", percentileMicros(99))
+                .put("maxMicros", maxMicros.get());
+    }
+}
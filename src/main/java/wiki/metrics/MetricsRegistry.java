@@ -0,0 +1,88 @@
+package wiki.metrics;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.shareddata.LocalMap;
+import io.vertx.core.shareddata.Shareable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and latency histograms of the whole application, shared by all verticles through a Vert.x local map.
+ * <p>
+ * Metrics are looked up once, when a component is set up, and the returned {@link LongAdder} or
+ * {@link LatencyHistogram} is kept in a field: recording into them does not allocate, while lookups do.
+ */
+public class MetricsRegistry implements Shareable {
+
+    private static final String METRICS_MAP = "wiki.metrics";
+
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+    private static final String HISTOGRAM = "histogram";
+
+    private static final class Family {
+        final String type;
+        final String help;
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Family(String type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry get(Vertx vertx) {
+        LocalMap<String, MetricsRegistry> registries = vertx.sharedData().getLocalMap(METRICS_MAP);
+        return registries.computeIfAbsent("registry", name -> new MetricsRegistry());
+    }
+
+    /**
+     * @param labels label name / value pairs
+     */
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, COUNTER, help).series.computeIfAbsent(PrometheusFormat.labels(labels), key -> new LongAdder());
+    }
+
+    /**
+     * A value that goes up and down, such as a queue length. Components that share a gauge add their own share to it,
+     * so the reported value is their total.
+     *
+     * @param labels label name / value pairs
+     */
+    public LongAdder gauge(String name, String help, String... labels) {
+        return (LongAdder) family(name, GAUGE, help).series.computeIfAbsent(PrometheusFormat.labels(labels), key -> new LongAdder());
+    }
+
+    /**
+     * @param labels label name / value pairs
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, HISTOGRAM, help).series.computeIfAbsent(PrometheusFormat.labels(labels), key -> new LatencyHistogram());
+    }
+
+    private Family family(String name, String type, String help) {
+        Family family = families.computeIfAbsent(name, key -> new Family(type, help));
+        if (!family.type.equals(type)) {
+            throw new IllegalStateException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    public void writePrometheus(StringBuilder out) {
+        new ConcurrentSkipListMap<>(families).forEach((name, family) -> {
+            PrometheusFormat.header(out, name, family.type, family.help);
+            family.series.forEach((labels, metric) -> {
+                if (metric instanceof LatencyHistogram) {
+                    PrometheusFormat.histogram(out, name, labels, (LatencyHistogram) metric);
+                } else {
+                    PrometheusFormat.sample(out, name, labels, ((LongAdder) metric).sum());
+                }
+            });
+        });
+    }
+}
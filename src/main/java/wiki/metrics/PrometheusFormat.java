@@ -0,0 +1,68 @@
+package wiki.metrics;
+
+/**
+ * Writer for the Prometheus text exposition format (version 0.0.4).
+ * <p>
+ * Labels are given as name / value pairs, e.g. {@code "method", "GET", "route", "/wiki/:page"}.
+ */
+public final class PrometheusFormat {
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private PrometheusFormat() {
+    }
+
+    public static void header(StringBuilder out, String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    /**
+     * Samples of a histogram in seconds, with one cumulative {@code le} bucket per histogram bucket.
+     */
+    public static void histogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        String separator = labels.isEmpty() ? "" : ",";
+        long cumulative = 0;
+        for (int i = 0; i < LatencyHistogram.buckets() - 1; i++) {
+            cumulative += histogram.bucketCount(i);
+            sample(out, name + "_bucket", labels + separator + "le=\"" + format(LatencyHistogram.upperBoundMicros(i) / 1e6) + "\"", cumulative);
+        }
+        cumulative += histogram.bucketCount(LatencyHistogram.buckets() - 1);
+        sample(out, name + "_bucket", labels + separator + "le=\"+Inf\"", cumulative);
+        sample(out, name + "_sum", labels, histogram.sumMicros() / 1e6);
+        sample(out, name + "_count", labels, cumulative);
+    }
+
+    public static String labels(String... namesAndValues) {
+        if (namesAndValues.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name / value pairs");
+        }
+        StringBuilder labels = new StringBuilder();
+        for (int i = 0; i < namesAndValues.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(namesAndValues[i]).append("=\"").append(escape(namesAndValues[i + 1])).append('"');
+        }
+        return labels.toString();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == (long) value) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -0,0 +1,97 @@
+package wiki.search;
+
+import java.util.Arrays;
+
+/**
+ * Where the live version of each page is indexed, by page id: the generation of its layer (0 when the page is not
+ * indexed) and its ordinal there, along with the length and modification time used for ranking and fingerprints.
+ * Page ids are allocated densely by the database, so plain arrays indexed by id are the most compact mapping.
+ */
+final class DocTable {
+
+    private int[] generations = new int[1024];
+    private int[] ordinals = new int[1024];
+    private int[] lengths = new int[1024];
+    private long[] modified = new long[1024];
+
+    int count;
+    long totalLength;
+    long idSum;
+    long modifiedSum;
+    int maxId = -1;
+
+    boolean isLive(int docId, int generation, int ordinal) {
+        return docId < generations.length && generations[docId] == generation && ordinals[docId] == ordinal;
+    }
+
+    boolean contains(int docId) {
+        return docId < generations.length && generations[docId] != 0;
+    }
+
+    int generation(int docId) {
+        return docId < generations.length ? generations[docId] : 0;
+    }
+
+    int ordinal(int docId) {
+        return ordinals[docId];
+    }
+
+    int length(int docId) {
+        return lengths[docId];
+    }
+
+    long modified(int docId) {
+        return modified[docId];
+    }
+
+    int capacity() {
+        return generations.length;
+    }
+
+    void set(int docId, int generation, int ordinal, int length, long modifiedAt) {
+        remove(docId);
+        if (docId >= generations.length) {
+            int capacity = Math.max(generations.length * 2, docId + 1);
+            ordinals = Arrays.copyOf(ordinals, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            modified = Arrays.copyOf(modified, capacity);
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        ordinals[docId] = ordinal;
+        lengths[docId] = length;
+        modified[docId] = modifiedAt;
+        generations[docId] = generation;
+        count++;
+        totalLength += length;
+        idSum += docId;
+        modifiedSum += modifiedAt;
+        maxId = Math.max(maxId, docId);
+    }
+
+    /**
+     * Points a live page at its new place after the layer holding it was rewritten.
+     */
+    void move(int docId, int generation, int ordinal) {
+        ordinals[docId] = ordinal;
+        generations[docId] = generation;
+    }
+
+    void remove(int docId) {
+        if (contains(docId)) {
+            generations[docId] = 0;
+            count--;
+            totalLength -= lengths[docId];
+            idSum -= docId;
+            modifiedSum -= modified[docId];
+        }
+    }
+
+    void clear() {
+        Arrays.fill(generations, 0);
+        count = 0;
+        totalLength = 0;
+        idSum = 0;
+        modifiedSum = 0;
+        maxId = -1;
+    }
+}
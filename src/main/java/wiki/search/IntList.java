@@ -0,0 +1,27 @@
+package wiki.search;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of ints.
+ */
+final class IntList {
+
+    int[] values;
+    int size;
+
+    IntList(int capacity) {
+        values = new int[Math.max(capacity, 2)];
+    }
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[size++] = value;
+    }
+
+    int get(int index) {
+        return values[index];
+    }
+}
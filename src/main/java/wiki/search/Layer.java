@@ -0,0 +1,51 @@
+package wiki.search;
+
+import java.util.Iterator;
+
+/**
+ * A set of indexed page versions with their postings. Layers are stacked from oldest to newest; a page is live in
+ * exactly one of them (the one holding its latest version) and the postings of other layers for that page are
+ * ignored until a merge drops them.
+ * <p>
+ * Page versions are numbered by ordinal within a layer.
+ */
+abstract class Layer {
+
+    interface PostingVisitor {
+        /**
+         * @param ordinal the ordinal of the page version, or -1 if the layer holds at most one version of each page
+         */
+        void visit(int docId, int ordinal, int termFrequency);
+    }
+
+    final int generation;
+
+    Layer(int generation) {
+        this.generation = generation;
+    }
+
+    abstract int docCount();
+
+    abstract int docId(int ordinal);
+
+    abstract int length(int ordinal);
+
+    abstract long modified(int ordinal);
+
+    abstract String name(int ordinal);
+
+    abstract void postings(String term, PostingVisitor visitor);
+
+    /**
+     * All terms, in {@link String#compareTo(String)} order.
+     */
+    abstract Iterator<String> terms();
+
+    /**
+     * Approximate size, used to decide which layers to merge.
+     */
+    abstract long postingCount();
+
+    void close() {
+    }
+}
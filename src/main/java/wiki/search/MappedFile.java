@@ -0,0 +1,48 @@
+package wiki.search;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only mapping of a file that may exceed the 2 GB limit of a single {@link MappedByteBuffer}. The file is mapped
+ * in chunks of {@link #CHUNK_SIZE} bytes; ints and longs must be aligned to their size so they never straddle two
+ * chunks.
+ */
+final class MappedFile {
+
+    private static final int CHUNK_BITS = 30;
+    static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+    private static final long CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final MappedByteBuffer[] chunks;
+    final long size;
+
+    MappedFile(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+            chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+            for (int i = 0; i < chunks.length; i++) {
+                long position = (long) i << CHUNK_BITS;
+                chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+            }
+        }
+    }
+
+    int getInt(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getInt((int) (position & CHUNK_MASK));
+    }
+
+    long getLong(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)].getLong((int) (position & CHUNK_MASK));
+    }
+
+    void getBytes(long position, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i++) {
+            long at = position + i;
+            bytes[i] = chunks[(int) (at >>> CHUNK_BITS)].get((int) (at & CHUNK_MASK));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package wiki.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layer receiving new page versions. It is mutable until it is frozen to be written out as a {@link Segment},
+ * and guarded by the {@link SearchIndex} lock.
+ */
+final class MemoryLayer extends Layer {
+
+    /**
+     * Postings of a term, as (ordinal, term frequency) pairs.
+     */
+    private final Map<String, IntList> postings = new HashMap<>();
+    private final IntList docIds = new IntList(64);
+    private final IntList lengths = new IntList(64);
+    private final List<Long> modified = new ArrayList<>();
+    private final List<String> names = new ArrayList<>();
+    private long postingCount;
+
+    MemoryLayer(int generation) {
+        super(generation);
+    }
+
+    /**
+     * @return the ordinal of the page version
+     */
+    int add(int docId, String name, long modifiedAt, Map<String, Integer> frequencies, int length) {
+        int ordinal = docIds.size;
+        docIds.add(docId);
+        lengths.add(length);
+        modified.add(modifiedAt);
+        names.add(name);
+        frequencies.forEach((term, frequency) -> {
+            IntList termPostings = postings.computeIfAbsent(term, t -> new IntList(2));
+            termPostings.add(ordinal);
+            termPostings.add(frequency);
+        });
+        postingCount += frequencies.size();
+        return ordinal;
+    }
+
+    @Override
+    int docCount() {
+        return docIds.size;
+    }
+
+    @Override
+    int docId(int ordinal) {
+        return docIds.get(ordinal);
+    }
+
+    @Override
+    int length(int ordinal) {
+        return lengths.get(ordinal);
+    }
+
+    @Override
+    long modified(int ordinal) {
+        return modified.get(ordinal);
+    }
+
+    @Override
+    String name(int ordinal) {
+        return names.get(ordinal);
+    }
+
+    @Override
+    void postings(String term, PostingVisitor visitor) {
+        IntList termPostings = postings.get(term);
+        if (termPostings != null) {
+            for (int i = 0; i < termPostings.size; i += 2) {
+                int ordinal = termPostings.values[i];
+                visitor.visit(docIds.get(ordinal), ordinal, termPostings.values[i + 1]);
+            }
+        }
+    }
+
+    @Override
+    Iterator<String> terms() {
+        List<String> terms = new ArrayList<>(postings.keySet());
+        Collections.sort(terms);
+        return terms.iterator();
+    }
+
+    @Override
+    long postingCount() {
+        return postingCount;
+    }
+}
@@ -0,0 +1,116 @@
+package wiki.search;
+
+import java.util.Arrays;
+
+/**
+ * Scores of a query by page id. Scores are accumulated in a dense array, which is far cheaper than a hash table for
+ * the millions of postings of common terms; the array is kept per thread and only the entries that were touched are
+ * cleared after each query, so its cost is one float per page and search thread.
+ */
+final class ScoreAccumulator {
+
+    private static final ThreadLocal<ScoreAccumulator> SCRATCH = ThreadLocal.withInitial(ScoreAccumulator::new);
+
+    private float[] scores = new float[0];
+    private int[] touched = new int[1024];
+    private int size;
+
+    private ScoreAccumulator() {
+    }
+
+    /**
+     * The accumulator of the calling thread, for ids below {@code capacity}. It must be {@link #reset()} after use.
+     */
+    static ScoreAccumulator get(int capacity) {
+        ScoreAccumulator accumulator = SCRATCH.get();
+        if (accumulator.scores.length < capacity) {
+            accumulator.scores = new float[capacity];
+        }
+        return accumulator;
+    }
+
+    /**
+     * @param score a positive contribution
+     */
+    void add(int id, float score) {
+        if (scores[id] == 0) {
+            if (size == touched.length) {
+                touched = Arrays.copyOf(touched, size * 2);
+            }
+            touched[size++] = id;
+        }
+        scores[id] += score;
+    }
+
+    float score(int id) {
+        return scores[id];
+    }
+
+    /**
+     * The ids with the best scores, best first.
+     */
+    int[] top(int limit) {
+        int[] heap = new int[Math.min(limit, size)];
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            int id = touched[i];
+            if (heapSize < heap.length) {
+                heap[heapSize] = id;
+                siftUp(heap, heapSize++);
+            } else if (scores[id] > scores[heap[0]]) {
+                heap[0] = id;
+                siftDown(heap, heapSize);
+            }
+        }
+        int[] best = new int[heapSize];
+        while (heapSize > 0) {
+            best[--heapSize] = heap[0];
+            heap[0] = heap[heapSize];
+            siftDown(heap, heapSize);
+        }
+        return best;
+    }
+
+    void reset() {
+        for (int i = 0; i < size; i++) {
+            scores[touched[i]] = 0;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int id = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (scores[heap[parent]] <= scores[id]) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = id;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int id = heap[0];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && scores[heap[child + 1]] < scores[heap[child]]) {
+                child++;
+            }
+            if (scores[id] <= scores[heap[child]]) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = id;
+    }
+}
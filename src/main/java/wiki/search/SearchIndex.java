@@ -0,0 +1,512 @@
+package wiki.search;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Incremental inverted index over page names and content, ranked with BM25.
+ * <p>
+ * New page versions go to an in-memory layer. Once it holds {@code flushThreshold} pages it is frozen and written
+ * to an immutable, memory-mapped segment file on a worker thread, and segments of similar size are merged so that
+ * their number stays logarithmic in the number of pages. Updates and deletions only move or clear the page's entry
+ * in a {@link DocTable}; postings of older versions are skipped at query time and dropped at the next merge. Document
+ * frequencies only count live postings, so that the postings an edited page leaves behind do not skew the ranking.
+ * <p>
+ * {@link #close(Handler)} writes the in-memory layer out and records the segments and the doc table in a manifest.
+ * The manifest is deleted when the index is opened again, so an index that was not closed cleanly comes back empty
+ * and is rebuilt by its owner; {@link #fingerprint()} lets the owner detect other changes made behind its back.
+ * <p>
+ * Instances are thread-safe: searches share a read lock, updates take the write lock.
+ */
+public class SearchIndex {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    private static final String MANIFEST = "manifest.json";
+    private static final String DOC_TABLE = "docs.bin";
+    private static final int NAME_WEIGHT = 3;
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private final Vertx vertx;
+    private final Path directory;
+    private final boolean persistent;
+    private final int flushThreshold;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final DocTable docs = new DocTable();
+    private final Map<Integer, Layer> byGeneration = new HashMap<>();
+    private List<Layer> layers = Collections.emptyList();
+    private MemoryLayer delta;
+    private int nextGeneration = 1;
+    private boolean closed;
+
+    private final Object maintenance = new Object();
+    private final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+
+    private SearchIndex(Vertx vertx, Path directory, boolean persistent, int flushThreshold) {
+        this.vertx = vertx;
+        this.directory = directory;
+        this.persistent = persistent;
+        this.flushThreshold = flushThreshold;
+    }
+
+    /**
+     * Opens the index stored in a directory, or a temporary one that is deleted on close if {@code directory} is
+     * empty.
+     */
+    public static void open(Vertx vertx, String directory, int flushThreshold,
+                            Handler<AsyncResult<SearchIndex>> resultHandler) {
+        vertx.<SearchIndex>executeBlocking(future -> {
+            try {
+                SearchIndex index;
+                if (directory.isEmpty()) {
+                    index = new SearchIndex(vertx, Files.createTempDirectory("wiki-search"), false, flushThreshold);
+                } else {
+                    index = new SearchIndex(vertx, Files.createDirectories(Paths.get(directory)), true, flushThreshold);
+                }
+                index.load();
+                future.complete(index);
+            } catch (IOException e) {
+                future.fail(e);
+            }
+        }, resultHandler);
+    }
+
+    /**
+     * Number of pages, sum of their ids and sum of their modification times.
+     */
+    public JsonObject fingerprint() {
+        lock.readLock().lock();
+        try {
+            return fingerprint(docs.count, docs.idSum, docs.modifiedSum);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static JsonObject fingerprint(long pages, long idSum, long modifiedSum) {
+        return new JsonObject().put("pages", pages).put("idSum", idSum).put("modifiedSum", modifiedSum);
+    }
+
+    /**
+     * Indexes a page version, replacing the previous one.
+     */
+    public void put(int id, String name, String content, long modified) {
+        put(id, name, content, modified, false);
+    }
+
+    /**
+     * Indexes a page version unless a version at least as recent is already indexed.
+     */
+    public void putIfNewer(int id, String name, String content, long modified) {
+        put(id, name, content, modified, true);
+    }
+
+    private void put(int id, String name, String content, long modified, boolean ifNewer) {
+        Map<String, Integer> frequencies = Tokenizer.frequencies(content);
+        Tokenizer.tokenize(name, term -> frequencies.merge(term, NAME_WEIGHT, Integer::sum));
+        int length = 0;
+        for (int frequency : frequencies.values()) {
+            length += frequency;
+        }
+        lock.writeLock().lock();
+        try {
+            if (closed || (ifNewer && docs.contains(id) && docs.modified(id) >= modified)) {
+                return;
+            }
+            int ordinal = delta.add(id, name, modified, frequencies, length);
+            docs.set(id, delta.generation, ordinal, length, modified);
+            if (delta.docCount() >= flushThreshold && maintenanceScheduled.compareAndSet(false, true)) {
+                freeze();
+                vertx.executeBlocking(future -> {
+                    maintenanceScheduled.set(false);
+                    maintain();
+                    future.complete();
+                }, false, ar -> {
+                    if (ar.failed()) {
+                        LOGGER.error("Search index maintenance failed", ar.cause());
+                    }
+                });
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            docs.remove(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drops all pages, before the index is rebuilt: their layers and segment files too, so that their postings are not
+     * counted again. It deletes files and waits for maintenance in progress, so it must not run on an event loop.
+     */
+    public void clear() {
+        synchronized (maintenance) {
+            List<Layer> dropped;
+            lock.writeLock().lock();
+            try {
+                docs.clear();
+                dropped = layers;
+                layers = Collections.emptyList();
+                byGeneration.clear();
+                freeze();
+            } finally {
+                lock.writeLock().unlock();
+            }
+            try {
+                for (Layer layer : dropped) {
+                    layer.close();
+                    if (layer instanceof Segment) {
+                        Files.deleteIfExists(((Segment) layer).path);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Best matches for any of the query terms, as {@code {id, name, score}} objects.
+     */
+    public List<JsonObject> search(String query, int limit) {
+        Set<String> terms = new LinkedHashSet<>();
+        Tokenizer.tokenize(query, terms::add);
+        lock.readLock().lock();
+        try {
+            if (terms.isEmpty() || docs.count == 0 || limit <= 0) {
+                return Collections.emptyList();
+            }
+            double averageLength = Math.max(1.0, (double) docs.totalLength / docs.count);
+            ScoreAccumulator scores = ScoreAccumulator.get(docs.capacity());
+            IntList ids = new IntList(64);
+            IntList termFrequencies = new IntList(64);
+            try {
+                for (String term : terms) {
+                    ids.size = 0;
+                    termFrequencies.size = 0;
+                    for (Layer layer : layers) {  //只收集当前版本的posting：它们的个数即文档频率，不超过页面数，idf因此为正
+                        layer.postings(term, (id, ordinal, termFrequency) -> {
+                            if (docs.generation(id) == layer.generation && (ordinal < 0 || docs.ordinal(id) == ordinal)) {
+                                ids.add(id);
+                                termFrequencies.add(termFrequency);
+                            }
+                        });
+                    }
+                    int docFreq = ids.size;
+                    double idf = Math.log(1 + (docs.count - docFreq + 0.5) / (docFreq + 0.5));
+                    for (int i = 0; i < docFreq; i++) {
+                        int id = ids.get(i);
+                        int termFrequency = termFrequencies.get(i);
+                        double norm = K1 * (1 - B + B * docs.length(id) / averageLength);
+                        scores.add(id, (float) (idf * termFrequency * (K1 + 1) / (termFrequency + norm)));
+                    }
+                }
+
+                int[] best = scores.top(limit);
+                JsonObject[] results = new JsonObject[best.length];
+                for (int i = 0; i < best.length; i++) {
+                    int id = best[i];
+                    results[i] = new JsonObject()
+                            .put("id", id)
+                            .put("name", byGeneration.get(docs.generation(id)).name(docs.ordinal(id)))
+                            .put("score", scores.score(id));
+                }
+                return Arrays.asList(results);
+            } finally {
+                scores.reset();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the in-memory layer out and, for a persistent index, records the manifest. The index ignores updates
+     * afterwards.
+     */
+    public void close(Handler<AsyncResult<Void>> completionHandler) {
+        vertx.<Void>executeBlocking(future -> {
+            synchronized (maintenance) {
+                lock.writeLock().lock();
+                try {
+                    closed = true;
+                    if (persistent) {
+                        freeze();
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                try {
+                    if (persistent) {
+                        flush();
+                        writeManifest();
+                    } else {
+                        deleteFiles(Collections.emptySet());
+                        Files.deleteIfExists(directory);
+                    }
+                    future.complete();
+                } catch (IOException e) {
+                    future.fail(e);
+                }
+            }
+        }, completionHandler);
+    }
+
+    /**
+     * Replaces the in-memory layer with an empty one. The frozen layer stays searchable until it is written out.
+     */
+    private void freeze() {
+        delta = new MemoryLayer(nextGeneration++);
+        List<Layer> updated = new ArrayList<>(layers);
+        updated.add(delta);
+        byGeneration.put(delta.generation, delta);
+        layers = updated;
+    }
+
+    private void maintain() {
+        synchronized (maintenance) {
+            lock.readLock().lock();
+            try {
+                if (closed) {
+                    return;
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            try {
+                flush();
+                List<Layer> merge;
+                while (!(merge = mergeCandidates()).isEmpty()) {
+                    rewrite(merge);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the frozen in-memory layers out as one segment.
+     */
+    private void flush() throws IOException {
+        List<Layer> frozen = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (Layer layer : layers) {
+                if (layer instanceof MemoryLayer && layer != delta) {
+                    frozen.add(layer);
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (!frozen.isEmpty()) {
+            rewrite(frozen);
+        }
+    }
+
+    /**
+     * The two newest segments if the older is at most twice as large, so that segment sizes grow geometrically.
+     */
+    private List<Layer> mergeCandidates() {
+        lock.readLock().lock();
+        try {
+            List<Layer> segments = new ArrayList<>();
+            for (Layer layer : layers) {
+                if (layer instanceof Segment) {
+                    segments.add(layer);
+                }
+            }
+            if (segments.size() >= 2) {
+                Layer older = segments.get(segments.size() - 2);
+                Layer newer = segments.get(segments.size() - 1);
+                if (older.postingCount() <= 2 * newer.postingCount()) {
+                    return Arrays.asList(older, newer);
+                }
+            }
+            return Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Replaces adjacent layers with a segment holding their live page versions.
+     */
+    private void rewrite(List<Layer> sources) throws IOException {
+        int[][] ordinals = new int[sources.size()][];
+        int docCount = 0;
+        int generation;
+        lock.writeLock().lock();
+        try {
+            generation = nextGeneration++;
+            for (int s = 0; s < sources.size(); s++) {
+                Layer source = sources.get(s);
+                ordinals[s] = new int[source.docCount()];
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    boolean live = docs.isLive(source.docId(ordinal), source.generation, ordinal);
+                    ordinals[s][ordinal] = live ? docCount++ : -1;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        Segment segment = Segment.write(directory.resolve(Segment.fileName(generation)), generation, sources,
+                ordinals, docCount);
+
+        lock.writeLock().lock();
+        try {
+            for (int s = 0; s < sources.size(); s++) {
+                Layer source = sources.get(s);
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    int id = source.docId(ordinal);
+                    if (ordinals[s][ordinal] >= 0 && docs.isLive(id, source.generation, ordinal)) {
+                        docs.move(id, generation, ordinals[s][ordinal]);
+                    }
+                }
+                byGeneration.remove(source.generation);
+            }
+            List<Layer> updated = new ArrayList<>(layers);
+            int position = updated.indexOf(sources.get(0));
+            updated.removeAll(sources);
+            updated.add(position, segment);
+            byGeneration.put(generation, segment);
+            layers = updated;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (Layer source : sources) {
+            if (source instanceof Segment) {
+                Files.deleteIfExists(((Segment) source).path);
+            }
+        }
+    }
+
+    private void load() throws IOException {
+        Path manifest = directory.resolve(MANIFEST);
+        Set<String> keep = new HashSet<>();
+        if (Files.exists(manifest)) {
+            try {
+                loadManifest(new JsonObject(new String(Files.readAllBytes(manifest), StandardCharsets.UTF_8)), keep);
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Discarding search index in " + directory, e);
+                docs.clear();
+                byGeneration.clear();
+                layers = Collections.emptyList();
+                keep.clear();
+            }
+            Files.delete(manifest);
+            Files.deleteIfExists(directory.resolve(DOC_TABLE));
+        }
+        deleteFiles(keep);
+        freeze();
+    }
+
+    private void loadManifest(JsonObject manifest, Set<String> keep) throws IOException {
+        nextGeneration = manifest.getInteger("nextGeneration");
+        List<Layer> loaded = new ArrayList<>();
+        for (Object generation : manifest.getJsonArray("segments")) {
+            String fileName = Segment.fileName((Integer) generation);
+            Segment segment = Segment.open(directory.resolve(fileName));
+            loaded.add(segment);
+            byGeneration.put(segment.generation, segment);
+            keep.add(fileName);
+        }
+        layers = loaded;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(directory.resolve(DOC_TABLE))))) {
+            int capacity = in.readInt();
+            for (int id = 0; id < capacity; id++) {
+                int generation = in.readInt();
+                int ordinal = in.readInt();
+                if (generation != 0) {
+                    Layer layer = byGeneration.get(generation);
+                    docs.set(id, generation, ordinal, layer.length(ordinal), layer.modified(ordinal));
+                }
+            }
+        }
+        if (!fingerprint(docs.count, docs.idSum, docs.modifiedSum).equals(manifest.getJsonObject("fingerprint"))) {
+            throw new IOException("Search index does not match its manifest");
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        Path temporary = directory.resolve(DOC_TABLE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            int capacity = docs.maxId + 1;
+            out.writeInt(capacity);
+            for (int id = 0; id < capacity; id++) {
+                out.writeInt(docs.generation(id));
+                out.writeInt(docs.contains(id) ? docs.ordinal(id) : 0);
+            }
+        }
+        Files.move(temporary, directory.resolve(DOC_TABLE), StandardCopyOption.REPLACE_EXISTING);
+
+        JsonArray segments = new JsonArray();
+        for (Layer layer : layers) {
+            if (layer instanceof Segment) {
+                segments.add(layer.generation);
+            }
+        }
+        JsonObject manifest = new JsonObject()
+                .put("nextGeneration", nextGeneration)
+                .put("segments", segments)
+                .put("fingerprint", fingerprint(docs.count, docs.idSum, docs.modifiedSum));
+        temporary = directory.resolve(MANIFEST + ".tmp");
+        Files.write(temporary, manifest.encode().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, directory.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Deletes segment files, doc tables and leftovers of interrupted writes, except the given files.
+     */
+    private void deleteFiles(Set<String> keep) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!keep.contains(name) && (name.endsWith(".seg") || name.endsWith(".tmp") || name.equals(DOC_TABLE))) {
+                    Files.delete(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package wiki.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable layer stored in a memory-mapped file. Layout, big-endian:
+ * <pre>
+ * header     magic, format, generation, doc count, term count, names offset, docs offset, term index offset
+ * names      UTF-8 page names
+ * docs       per ordinal: doc id, length, modified, name offset, name length, padding (32 bytes)
+ * terms      per term, in String order: term length, UTF-8 term, padding to 4, doc freq, (doc id, tf) postings
+ * term index offset of each term block, searched by bisection
+ * </pre>
+ * A segment holds a single version of each page, so postings refer to pages by id: queries need not go through the
+ * docs table to find out whether a posting is live.
+ */
+final class Segment extends Layer {
+
+    private static final int MAGIC = 0x57494b49;
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 48;
+    private static final int DOC_ENTRY_SIZE = 32;
+
+    private final MappedFile file;
+    private final int docCount;
+    private final int termCount;
+    private final long docsOffset;
+    private final long termIndexOffset;
+    private final long postingCount;
+    final Path path;
+
+    private Segment(Path path, MappedFile file) throws IOException {
+        super(file.getInt(8));
+        if (file.size < HEADER_SIZE || file.getInt(0) != MAGIC || file.getInt(4) != FORMAT) {
+            throw new IOException("Not a search segment: " + path);
+        }
+        this.path = path;
+        this.file = file;
+        this.docCount = file.getInt(12);
+        this.termCount = file.getInt(16);
+        this.docsOffset = file.getLong(32);
+        this.termIndexOffset = file.getLong(40);
+        this.postingCount = file.size / 8;
+    }
+
+    static Segment open(Path path) throws IOException {
+        return new Segment(path, new MappedFile(path));
+    }
+
+    static String fileName(int generation) {
+        return "segment-" + generation + ".seg";
+    }
+
+    @Override
+    int docCount() {
+        return docCount;
+    }
+
+    @Override
+    int docId(int ordinal) {
+        return file.getInt(docsOffset + (long) ordinal * DOC_ENTRY_SIZE);
+    }
+
+    @Override
+    int length(int ordinal) {
+        return file.getInt(docsOffset + (long) ordinal * DOC_ENTRY_SIZE + 4);
+    }
+
+    @Override
+    long modified(int ordinal) {
+        return file.getLong(docsOffset + (long) ordinal * DOC_ENTRY_SIZE + 8);
+    }
+
+    @Override
+    String name(int ordinal) {
+        long entry = docsOffset + (long) ordinal * DOC_ENTRY_SIZE;
+        byte[] bytes = new byte[file.getInt(entry + 24)];
+        file.getBytes(file.getLong(entry + 16), bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    void postings(String term, PostingVisitor visitor) {
+        long block = find(term);
+        if (block >= 0) {
+            long postings = postingsOffset(block);
+            int docFreq = file.getInt(postings - 4);
+            for (int i = 0; i < docFreq; i++) {
+                long posting = postings + 8L * i;
+                visitor.visit(file.getInt(posting), -1, file.getInt(posting + 4));
+            }
+        }
+    }
+
+    @Override
+    Iterator<String> terms() {
+        return new Iterator<String>() {
+            int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < termCount;
+            }
+
+            @Override
+            public String next() {
+                if (next == termCount) {
+                    throw new NoSuchElementException();
+                }
+                return term(file.getLong(termIndexOffset + 8L * next++));
+            }
+        };
+    }
+
+    @Override
+    long postingCount() {
+        return postingCount;
+    }
+
+    private long find(String term) {
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            long block = file.getLong(termIndexOffset + 8L * middle);
+            int comparison = term(block).compareTo(term);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return block;
+            }
+        }
+        return -1;
+    }
+
+    private String term(long block) {
+        byte[] bytes = new byte[file.getInt(block)];
+        file.getBytes(block + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long postingsOffset(long block) {
+        return align(block + 4 + file.getInt(block), 4) + 4;
+    }
+
+    /**
+     * Writes page versions of the given layers to a new segment. {@code ordinals[s][ordinal]} is the ordinal in the new
+     * segment of each version of the {@code s}th layer, or -1 to leave it out. The file is written under a temporary
+     * name and moved in place once complete.
+     */
+    static Segment write(Path path, int generation, List<Layer> sources, int[][] ordinals, int docCount)
+            throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            CountingOutputStream counter = new CountingOutputStream(
+                    new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            DataOutputStream out = new DataOutputStream(counter);
+            out.write(new byte[HEADER_SIZE]);
+
+            long namesOffset = counter.count;
+            long[] nameOffsets = new long[docCount];
+            int[] nameLengths = new int[docCount];
+            for (int s = 0; s < sources.size(); s++) {
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    int target = ordinals[s][ordinal];
+                    if (target >= 0) {
+                        byte[] name = sources.get(s).name(ordinal).getBytes(StandardCharsets.UTF_8);
+                        nameOffsets[target] = counter.count;
+                        nameLengths[target] = name.length;
+                        out.write(name);
+                    }
+                }
+            }
+            pad(out, counter, 8);
+
+            long docsOffset = counter.count;
+            for (int s = 0; s < sources.size(); s++) {
+                Layer source = sources.get(s);
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    int target = ordinals[s][ordinal];
+                    if (target >= 0) {
+                        out.writeInt(source.docId(ordinal));
+                        out.writeInt(source.length(ordinal));
+                        out.writeLong(source.modified(ordinal));
+                        out.writeLong(nameOffsets[target]);
+                        out.writeInt(nameLengths[target]);
+                        out.writeInt(0);
+                    }
+                }
+            }
+
+            int maxId = -1;
+            for (int s = 0; s < sources.size(); s++) {
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    maxId = Math.max(maxId, sources.get(s).docId(ordinal));
+                }
+            }
+            int[] liveSource = new int[maxId + 1];
+            int[] liveOrdinal = new int[maxId + 1];
+            Arrays.fill(liveSource, -1);
+            for (int s = 0; s < sources.size(); s++) {
+                for (int ordinal = 0; ordinal < ordinals[s].length; ordinal++) {
+                    if (ordinals[s][ordinal] >= 0) {
+                        int docId = sources.get(s).docId(ordinal);
+                        liveSource[docId] = s;
+                        liveOrdinal[docId] = ordinal;
+                    }
+                }
+            }
+
+            long[] termBlocks = new long[1024];
+            int termCount = 0;
+            IntList postings = new IntList(1024);
+            Iterator<String> terms = mergedTerms(sources);
+            while (terms.hasNext()) {
+                String term = terms.next();
+                postings.size = 0;
+                for (int s = 0; s < sources.size(); s++) {
+                    int source = s;
+                    sources.get(s).postings(term, (docId, ordinal, termFrequency) -> {
+                        if (liveSource[docId] == source && (ordinal < 0 || liveOrdinal[docId] == ordinal)) {
+                            postings.add(docId);
+                            postings.add(termFrequency);
+                        }
+                    });
+                }
+                if (postings.size == 0) {
+                    continue;
+                }
+                if (termCount == termBlocks.length) {
+                    termBlocks = Arrays.copyOf(termBlocks, termCount * 2);
+                }
+                termBlocks[termCount++] = counter.count;
+                byte[] bytes = term.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+                pad(out, counter, 4);
+                out.writeInt(postings.size / 2);
+                for (int i = 0; i < postings.size; i++) {
+                    out.writeInt(postings.values[i]);
+                }
+            }
+            pad(out, counter, 8);
+
+            long termIndexOffset = counter.count;
+            for (int i = 0; i < termCount; i++) {
+                out.writeLong(termBlocks[i]);
+            }
+            out.flush();
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(FORMAT).putInt(generation).putInt(docCount).putInt(termCount).putInt(0)
+                    .putLong(namesOffset).putLong(docsOffset).putLong(termIndexOffset);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return open(path);
+    }
+
+    private static Iterator<String> mergedTerms(List<Layer> sources) {
+        PriorityQueue<PeekingIterator> queue = new PriorityQueue<>();
+        for (Layer source : sources) {
+            PeekingIterator iterator = new PeekingIterator(source.terms());
+            if (iterator.head != null) {
+                queue.add(iterator);
+            }
+        }
+        return new Iterator<String>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public String next() {
+                if (queue.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                String term = queue.peek().head;
+                while (!queue.isEmpty() && queue.peek().head.equals(term)) {
+                    PeekingIterator iterator = queue.poll();
+                    if (iterator.advance()) {
+                        queue.add(iterator);
+                    }
+                }
+                return term;
+            }
+        };
+    }
+
+    private static long align(long position, int alignment) {
+        return (position + alignment - 1) / alignment * alignment;
+    }
+
+    private static void pad(DataOutputStream out, CountingOutputStream counter, int alignment) throws IOException {
+        while (counter.count % alignment != 0) {
+            out.write(0);
+        }
+    }
+
+    private static final class PeekingIterator implements Comparable<PeekingIterator> {
+
+        private final Iterator<String> iterator;
+        private String head;
+
+        PeekingIterator(Iterator<String> iterator) {
+            this.iterator = iterator;
+            advance();
+        }
+
+        boolean advance() {
+            head = iterator.hasNext() ? iterator.next() : null;
+            return head != null;
+        }
+
+        @Override
+        public int compareTo(PeekingIterator other) {
+            return head.compareTo(other.head);
+        }
+    }
+
+    /**
+     * Keeps track of the file position, which {@link DataOutputStream#size()} cannot do past 2 GB.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
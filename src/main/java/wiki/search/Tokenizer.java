@@ -0,0 +1,65 @@
+package wiki.search;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into lower-case terms: runs of letters and digits, except for Han, Hiragana, Katakana and Hangul
+ * characters, which are written without spaces and become one term each. Markdown syntax is dropped along with the
+ * rest of the punctuation.
+ */
+public final class Tokenizer {
+
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    public static void tokenize(String text, Consumer<String> terms) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder term = new StringBuilder();
+        int i = 0;
+        while (i < text.length()) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isIdeographic(codePoint)) {
+                emit(term, terms);
+                terms.accept(new String(Character.toChars(codePoint)));
+            } else if (Character.isLetterOrDigit(codePoint)) {
+                term.appendCodePoint(Character.toLowerCase(codePoint));
+            } else {
+                emit(term, terms);
+            }
+        }
+        emit(term, terms);
+    }
+
+    /**
+     * Term frequencies of a text, in order of first occurrence.
+     */
+    static Map<String, Integer> frequencies(String text) {
+        Map<String, Integer> frequencies = new LinkedHashMap<>();
+        tokenize(text, term -> frequencies.merge(term, 1, Integer::sum));
+        return frequencies;
+    }
+
+    private static void emit(StringBuilder term, Consumer<String> terms) {
+        if (term.length() > 0) {
+            if (term.length() <= MAX_TERM_LENGTH) {
+                terms.accept(term.toString());
+            }
+            term.setLength(0);
+        }
+    }
+
+    private static boolean isIdeographic(int codePoint) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(codePoint);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -22,13 +22,23 @@
                 <li><a href="/wiki/${page}">${page}</a></li>
             </#items>
         </ul>
+        <#if context.has_previous?? || context.next_page??>
+        <nav>
+            <#if context.has_previous??><a class="btn btn-outline-secondary btn-sm" href="/" role="button">First</a></#if>
+            <#if context.next_page??><a class="btn btn-outline-secondary btn-sm" href="/?after=${context.next_page?url('UTF-8')}" role="button">Next</a></#if>
+        </nav>
+        </#if>
     <#else>
         <p>The wiki is currently empty!</p>
     </#list>
-    <#if context.backup_gist_url?has_content>
+    <#if context.backup_location?has_content>
         <div class="alert alert-success" role="alert">
             Successfully created a backup:
-            <a href="${context.backup_gist_url}" class="alert-link">${context.backup_gist_url}</a>
+            <#if context.backup_location?starts_with("http")>
+            <a href="${context.backup_location}" class="alert-link">${context.backup_location}</a>
+            <#else>
+            <code>${context.backup_location}</code>
+            </#if>
         </div>
     <#else>
         <p>
@@ -15,6 +15,12 @@
         </h1>
     </div>
 
+    <#if context.id != -1>
+    <div class="col-md-12 mt-1" id="live-update" hidden>
+        <div class="alert alert-info">This page has changed. <a href="">Reload</a> to see the latest version.</div>
+    </div>
+    </#if>
+
     <div class="col-md-12 mt-1 clearfix">
     ${context.content}
     </div>
@@ -25,6 +31,7 @@
                 <input type="hidden" name="id" value="${context.id}">
                 <input type="hidden" name="title" value="${context.title}">
                 <input type="hidden" name="newPage" value="${context.newPage}">
+                <input type="hidden" name="version" value="${context.version?c}">
                 <textarea class="form-control" id="markdown" name="markdown" rows="15">${context.rawContent}</textarea>
             </div>
             <button type="submit" class="btn btn-primary">Save</button>
@@ -36,9 +43,24 @@
 
     <div class="col-md-12 mt-1">
         <hr class="mt-1">
-        <p class="small">Rendered: ${context.timestamp}</p>
+        <#if context.timestamp?has_content>
+            <p class="small">Last modified: ${context.timestamp}</p>
+        </#if>
     </div>
 
 </div>
 
+<#if context.id != -1>
+<script>
+    if (window.EventSource) {
+        new EventSource("/wiki/" + encodeURIComponent("${context.title?js_string}") + "/live").addEventListener("change", function (event) {
+            var change = JSON.parse(event.data);
+            if (change.change === "DELETED" || change.version > ${context.version?c}) {
+                document.getElementById("live-update").hidden = false;
+            }
+        });
+    }
+</script>
+</#if>
+
 <#include "footer.ftl">
\ No newline at end of file
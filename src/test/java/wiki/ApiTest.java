@@ -1,8 +1,13 @@
 package wiki;
 
+import io.vertx.core.CompositeFuture;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.Future;
+import io.vertx.core.MultiMap;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.Message;
+import io.vertx.core.http.HttpClient;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
@@ -19,6 +24,17 @@ import org.junit.runner.RunWith;
 import wiki.database.WikiDatabaseVerticle;
 import wiki.http.HttpServerVerticle;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+
 @RunWith(VertxUnitRunner.class)
 public class ApiTest {
 
@@ -31,7 +47,8 @@ public class ApiTest {
 
         JsonObject dbConf = new JsonObject()
                 .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true") //(1)我们使用不同的JDBC URL来使用内存中的数据库进行测试
-                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "");
 
         vertx.deployVerticle(new WikiDatabaseVerticle(),
                 new DeploymentOptions().setConfig(dbConf), context.asyncAssertSuccess());
@@ -121,4 +138,596 @@ public class ApiTest {
             async.complete();
         }, Future.failedFuture("Oh?"));
     }
+
+    @Test
+    public void rendered_pages_are_cached_and_invalidated(TestContext context) {
+        Async async = context.async();
+
+        webClient.get("/wiki/Cached").send(context.asyncAssertSuccess(miss -> {
+            context.assertTrue(miss.bodyAsString().contains("A new page"));
+
+            webClient.get("/wiki/Cached").send(context.asyncAssertSuccess(hit -> {
+                context.assertEquals(miss.bodyAsString(), hit.bodyAsString());
+
+                JsonObject page = new JsonObject()
+                        .put("name", "Cached")
+                        .put("markdown", "Fresh content");
+                webClient.post("/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created -> {
+
+                    webClient.get("/wiki/Cached").send(context.asyncAssertSuccess(fresh -> {
+                        context.assertTrue(fresh.bodyAsString().contains("Fresh content"));
+
+                        webClient.get("/api/stats").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(stats -> {
+                            JsonObject pages = stats.body().getJsonObject("caches").getJsonObject("pages");
+                            context.assertEquals(1L, pages.getLong("hits"));
+                            context.assertEquals(2L, pages.getLong("misses"));
+                            JsonObject markdown = stats.body().getJsonObject("caches").getJsonObject("markdown");
+                            context.assertEquals(2L, markdown.getLong("entries"));
+                            async.complete();
+                        }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    public void bulk_create_and_update(TestContext context) {
+        Async async = context.async();
+
+        JsonArray pages = new JsonArray();
+        for (int i = 0; i < 50; i++) {
+            pages.add(new JsonObject().put("name", "Bulk " + i).put("markdown", "Page " + i));
+        }
+        webClient.post("/api/pages/_bulk").as(BodyCodec.jsonObject()).sendJson(pages, context.asyncAssertSuccess(created -> {
+            context.assertEquals(201, created.statusCode());
+            context.assertEquals(50, created.body().getInteger("count"));
+
+            webClient.get("/api/pages").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(all -> {
+                JsonArray ids = all.body().getJsonArray("pages");
+                context.assertEquals(50, ids.size());
+                JsonArray updates = new JsonArray();
+                ids.forEach(page -> updates.add(new JsonObject()
+                        .put("id", ((JsonObject) page).getInteger("id"))
+                        .put("markdown", "Updated")));
+
+                webClient.put("/api/pages/_bulk").as(BodyCodec.jsonObject()).sendJson(updates, context.asyncAssertSuccess(updated -> {
+                    context.assertTrue(updated.body().getBoolean("success"));
+                    int id = ids.getJsonObject(0).getInteger("id");
+
+                    webClient.get("/api/pages/" + id).as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(page -> {
+                        context.assertEquals("Updated", page.body().getJsonObject("page").getString("markdown"));
+
+                        webClient.post("/api/pages/_bulk").as(BodyCodec.jsonObject())
+                                .sendJson(new JsonArray().add(new JsonObject().put("name", "No markdown")), context.asyncAssertSuccess(bad -> {
+                                    context.assertEquals(400, bad.statusCode());
+                                    async.complete();
+                                }));
+                    }));
+                }));
+            }));
+        }));
+    }
+
+    @Test
+    public void page_change_feed(TestContext context) {
+        Async async = context.async();
+
+        webClient.get("/api/changes?since=0&timeout=0").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(none -> {
+            context.assertEquals(0, none.body().getJsonArray("changes").size());
+            context.assertEquals(0L, none.body().getLong("next"));
+
+            webClient.get("/api/changes?since=0").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(polled -> {  //长轮询等到下一个变更
+                JsonArray changes = polled.body().getJsonArray("changes");
+                context.assertEquals(1, changes.size());
+                context.assertEquals(new JsonObject().put("sequence", 1L).put("change", "CREATED").put("id", 0).put("name", "Changed").put("version", 1), changes.getJsonObject(0));
+                context.assertEquals(1L, polled.body().getLong("next"));
+
+                JsonArray pages = new JsonArray()
+                        .add(new JsonObject().put("name", "Bulk 1").put("markdown", "Page 1"))
+                        .add(new JsonObject().put("name", "Bulk 2").put("markdown", "Page 2"));
+                webClient.post("/api/pages/_bulk").as(BodyCodec.jsonObject()).sendJson(pages, context.asyncAssertSuccess(created ->
+                        webClient.put("/api/pages/0").as(BodyCodec.jsonObject()).sendJsonObject(new JsonObject().put("markdown", "Changed again"), context.asyncAssertSuccess(saved ->
+                                webClient.delete("/api/pages/0").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(deleted ->
+                                        webClient.get("/api/changes?since=1&limit=3").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(first -> {
+                    JsonArray batch = first.body().getJsonArray("changes");
+                    context.assertEquals(3, batch.size());
+                    context.assertEquals("Bulk 1", batch.getJsonObject(0).getString("name"));  //批量创建的事件也带有id
+                    context.assertEquals(1, batch.getJsonObject(0).getInteger("id"));
+                    context.assertEquals(new JsonObject().put("sequence", 4L).put("change", "UPDATED").put("id", 0).put("name", "Changed").put("version", 2), batch.getJsonObject(2));
+                    context.assertEquals(4L, first.body().getLong("next"));
+
+                    webClient.get("/api/changes?since=4").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(rest -> {
+                        context.assertEquals(new JsonObject().put("sequence", 5L).put("change", "DELETED").put("id", 0).put("name", "Changed"), rest.body().getJsonArray("changes").getJsonObject(0));
+
+                        webClient.get("/api/changes?since=99").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(ahead -> {
+                            context.assertTrue(ahead.body().getBoolean("truncated"));  //序号超出缓冲区（如服务重启后）时需重新读取页面
+                            webClient.get("/api/changes?since=x").send(context.asyncAssertSuccess(bad -> {
+                                context.assertEquals(400, bad.statusCode());
+                                async.complete();
+                            }));
+                        }));
+                    }));
+                }))))))));
+            }));
+            vertx.setTimer(200, id -> webClient.post("/api/pages").as(BodyCodec.jsonObject())
+                    .sendJsonObject(new JsonObject().put("name", "Changed").put("markdown", "# Changed"), context.asyncAssertSuccess()));
+        }));
+    }
+
+    @Test
+    public void live_page_updates(TestContext context) {
+        Async async = context.async();
+
+        JsonObject httpConf = new JsonObject()
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8083)
+                .put(HttpServerVerticle.CONFIG_HTTP_LIVE_COALESCE_WINDOW, 500)
+                .put(HttpServerVerticle.CONFIG_HTTP_LIVE_MAX_CONNECTIONS, 1);
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf), context.asyncAssertSuccess(id ->
+                webClient.post("/api/pages").as(BodyCodec.jsonObject()).sendJsonObject(new JsonObject().put("name", "Live").put("markdown", "Version 1"), context.asyncAssertSuccess(created -> {
+            HttpClient client = vertx.createHttpClient();
+            client.get(8083, "localhost", "/wiki/Live/live", stream -> {
+                context.assertEquals(200, stream.statusCode());
+                context.assertTrue(stream.getHeader("Content-Type").startsWith("text/event-stream"));
+                Buffer received = Buffer.buffer();
+                stream.handler(chunk -> {
+                    received.appendBuffer(chunk);
+                    if (!received.toString().contains("event: change")) {
+                        return;
+                    }
+                    vertx.setTimer(700, t -> {  //合并窗口内的三次保存只产生一个事件，内容为最新版本
+                        String events = received.toString();
+                        context.assertEquals(events.indexOf("event: change"), events.lastIndexOf("event: change"));
+                        context.assertTrue(events.contains("\"version\":4"));
+                        client.close();
+                        async.complete();
+                    });
+                });
+
+                webClient.get(8083, "localhost", "/wiki/Live/live").send(context.asyncAssertSuccess(refused -> {  //超过连接数上限
+                    context.assertEquals(503, refused.statusCode());
+                    webClient.put("/api/pages/0").sendJsonObject(new JsonObject().put("markdown", "Version 2"), context.asyncAssertSuccess(v2 ->
+                            webClient.put("/api/pages/0").sendJsonObject(new JsonObject().put("markdown", "Version 3"), context.asyncAssertSuccess(v3 ->
+                                    webClient.put("/api/pages/0").sendJsonObject(new JsonObject().put("markdown", "Version 4"), context.asyncAssertSuccess())))));
+                }));
+            }).end();
+        }))));
+    }
+
+    @Test
+    public void suggest_and_paginate_page_names(TestContext context) {
+        Async async = context.async();
+
+        JsonArray pages = new JsonArray();
+        for (int i = 0; i < 150; i++) {
+            pages.add(new JsonObject().put("name", String.format("Page %03d", i)).put("markdown", "Page " + i));
+        }
+        webClient.post("/api/pages/_bulk").as(BodyCodec.jsonObject()).sendJson(pages, context.asyncAssertSuccess(created ->
+                webClient.get("/api/pages/suggest?prefix=page%2012&limit=3").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(suggested -> {
+                    JsonArray names = suggested.body().getJsonArray("pages");
+                    context.assertEquals(3, names.size());
+                    context.assertEquals("Page 120", names.getJsonObject(0).getString("name"));
+                    context.assertEquals("Page 122", names.getJsonObject(2).getString("name"));
+
+                    webClient.get("/").send(context.asyncAssertSuccess(first -> {
+                        String html = first.bodyAsString();
+                        context.assertTrue(html.contains("/wiki/Page 099"));
+                        context.assertFalse(html.contains("/wiki/Page 100"));
+                        context.assertTrue(html.contains("/?after=Page%20099"));
+
+                        webClient.get("/?after=Page%20099").send(context.asyncAssertSuccess(second -> {
+                            context.assertTrue(second.bodyAsString().contains("/wiki/Page 149"));
+                            context.assertFalse(second.bodyAsString().contains("/wiki/Page 099"));
+                            async.complete();
+                        }));
+                    }));
+                }))));
+    }
+
+    @Test
+    public void search_pages(TestContext context) {
+        Async async = context.async();
+
+        JsonArray pages = new JsonArray()
+                .add(new JsonObject().put("name", "Event bus").put("markdown", "Verticles exchange messages over the event bus"))
+                .add(new JsonObject().put("name", "Verticle").put("markdown", "The unit of deployment"));
+        webClient.post("/api/pages/_bulk").as(BodyCodec.jsonObject()).sendJson(pages, context.asyncAssertSuccess(created ->
+                webClient.get("/api/search?q=verticles%20bus&limit=5").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(found -> {
+                    context.assertEquals(200, found.statusCode());
+                    JsonArray results = found.body().getJsonArray("results");
+                    context.assertEquals(1, results.size());
+                    context.assertEquals("Event bus", results.getJsonObject(0).getString("name"));
+
+                    webClient.get("/api/search").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(missing -> {
+                        context.assertEquals(400, missing.statusCode());
+                        async.complete();
+                    }));
+                }))));
+    }
+
+    @Test
+    public void page_revisions(TestContext context) {
+        Async async = context.async();
+
+        JsonObject page = new JsonObject()
+                .put("name", "Revised")
+                .put("markdown", "First line\nSecond line");
+        webClient.post("/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created ->
+                webClient.get("/api/pages").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(list -> {
+                    int id = list.body().getJsonArray("pages").getJsonObject(0).getInteger("id");
+
+                    webClient.put("/api/pages/" + id).sendJsonObject(new JsonObject().put("markdown", "First line\nSecond line, revised"), context.asyncAssertSuccess(updated ->
+                            webClient.get("/api/pages/" + id + "/revisions").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(revisions -> {
+                                JsonArray history = revisions.body().getJsonArray("revisions");
+                                context.assertEquals(2, history.size());
+                                context.assertEquals(2, history.getJsonObject(0).getInteger("revision"));
+
+                                webClient.get("/api/pages/" + id + "/revisions/1").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(first -> {
+                                    context.assertEquals("First line\nSecond line", first.body().getJsonObject("revision").getString("markdown"));
+
+                                    webClient.get("/api/pages/" + id + "/diff?from=1&to=2").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(diff -> {
+                                        context.assertTrue(diff.body().getString("diff").contains("+Second line, revised\n"));
+
+                                        webClient.get("/api/pages/" + id + "/revisions/3").send(context.asyncAssertSuccess(missing -> {
+                                            context.assertEquals(404, missing.statusCode());
+                                            async.complete();
+                                        }));
+                                    }));
+                                }));
+                            }))));
+                }))));
+    }
+
+    @Test
+    public void conditional_updates(TestContext context) {
+        Async async = context.async();
+
+        JsonObject page = new JsonObject()
+                .put("name", "Contended")
+                .put("markdown", "Original");
+        webClient.post("/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created ->
+                webClient.get("/api/pages").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(list -> {
+                    int id = list.body().getJsonArray("pages").getJsonObject(0).getInteger("id");
+
+                    webClient.get("/api/pages/" + id).send(context.asyncAssertSuccess(fetched -> {
+                        String etag = fetched.getHeader("ETag");
+
+                        webClient.put("/api/pages/" + id).putHeader("If-Match", etag).as(BodyCodec.jsonObject())
+                                .sendJsonObject(new JsonObject().put("markdown", "First editor"), context.asyncAssertSuccess(first -> {
+                                    context.assertEquals(200, first.statusCode());
+                                    context.assertEquals(2, first.body().getInteger("version"));
+                                    context.assertNotEquals(etag, first.getHeader("ETag"));
+
+                                    webClient.put("/api/pages/" + id).putHeader("If-Match", etag).as(BodyCodec.jsonObject())
+                                            .sendJsonObject(new JsonObject().put("markdown", "Second editor"), context.asyncAssertSuccess(stale -> {
+                                                context.assertEquals(412, stale.statusCode());
+                                                context.assertEquals(2, stale.body().getInteger("version"));
+
+                                                webClient.put("/api/pages/" + id)
+                                                        .sendJsonObject(new JsonObject().put("markdown", "Third editor").put("version", 1), context.asyncAssertSuccess(conflict -> {
+                                                            context.assertEquals(409, conflict.statusCode());
+
+                                                            webClient.post("/save").sendForm(MultiMap.caseInsensitiveMultiMap()
+                                                                    .add("id", String.valueOf(id))
+                                                                    .add("title", "Contended")
+                                                                    .add("newPage", "no")
+                                                                    .add("version", "1")
+                                                                    .add("markdown", "Form editor"), context.asyncAssertSuccess(form -> {
+                                                                context.assertEquals(409, form.statusCode());
+
+                                                                webClient.get("/api/pages/" + id).as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(current -> {
+                                                                    context.assertEquals("First editor", current.body().getJsonObject("page").getString("markdown"));
+
+                                                                    webClient.delete("/api/pages/" + id).send(context.asyncAssertSuccess(deleted ->
+                                                                            webClient.post("/save").sendForm(MultiMap.caseInsensitiveMultiMap()
+                                                                                    .add("id", String.valueOf(id))
+                                                                                    .add("title", "Contended")
+                                                                                    .add("newPage", "no")
+                                                                                    .add("version", "2")
+                                                                                    .add("markdown", "Late editor"), context.asyncAssertSuccess(gone -> {
+                                                                                context.assertEquals(404, gone.statusCode());
+                                                                                async.complete();
+                                                                            }))));
+                                                                }));
+                                                            }));
+                                                        }));
+                                            }));
+                                }));
+                    }));
+                }))));
+    }
+
+    @Test
+    public void malformed_versions_are_rejected(TestContext context) {
+        Async async = context.async();
+
+        webClient.put("/api/pages/0").as(BodyCodec.jsonObject())
+                .sendJsonObject(new JsonObject().put("markdown", "Edited").put("version", "two"), context.asyncAssertSuccess(json -> {
+                    context.assertEquals(400, json.statusCode());
+                    context.assertFalse(json.body().getBoolean("success"));
+
+                    webClient.post("/save").as(BodyCodec.jsonObject()).sendForm(MultiMap.caseInsensitiveMultiMap()
+                            .add("id", "0")
+                            .add("title", "Malformed")
+                            .add("newPage", "no")
+                            .add("version", "two")
+                            .add("markdown", "Edited"), context.asyncAssertSuccess(form -> {
+                        context.assertEquals(400, form.statusCode());
+                        context.assertFalse(form.body().getBoolean("success"));
+                        async.complete();
+                    }));
+                }));
+    }
+
+    @Test
+    public void streaming_backup_to_file(TestContext context) {
+        Async async = context.async();
+
+        JsonObject httpConf = new JsonObject()
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8081)
+                .put(HttpServerVerticle.CONFIG_HTTP_BACKUP_SINK, "file")
+                .put(HttpServerVerticle.CONFIG_HTTP_BACKUP_DIRECTORY, "target/test-backups")
+                .put(HttpServerVerticle.CONFIG_HTTP_BACKUP_BATCH_SIZE, 3);
+
+        JsonArray pages = new JsonArray();
+        for (int i = 0; i < 10; i++) {
+            pages.add(new JsonObject().put("name", "Backup " + i).put("markdown", "Backed up " + i));
+        }
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf), context.asyncAssertSuccess(id ->
+                webClient.post("/api/pages/_bulk").sendJson(pages, context.asyncAssertSuccess(created ->
+                        webClient.post(8081, "localhost", "/api/backup").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(response -> {
+                            JsonObject backup = response.body().getJsonObject("backup");
+                            context.assertEquals(10L, backup.getLong("pages"));
+                            context.assertTrue(backup.getLong("archiveBytes") > 0);
+
+                            vertx.fileSystem().readFile(backup.getString("location"), context.asyncAssertSuccess(archive -> {
+                                try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                                        new GZIPInputStream(new ByteArrayInputStream(archive.getBytes())), StandardCharsets.UTF_8))) {
+                                    List<String> lines = reader.lines().collect(Collectors.toList());
+                                    context.assertEquals(10, lines.size());
+                                    context.assertEquals("Backed up 9", new JsonObject(lines.get(9)).getString("content"));
+                                } catch (IOException e) {
+                                    context.fail(e);
+                                }
+                                async.complete();
+                            }));
+                        }))))));
+    }
+
+    @Test
+    public void prometheus_metrics(TestContext context) {
+        Async async = context.async();
+
+        webClient.get("/wiki/Measured").send(context.asyncAssertSuccess(page ->
+                webClient.get("/api/pages").send(context.asyncAssertSuccess(pages ->
+                        webClient.get("/metrics").send(context.asyncAssertSuccess(response -> {
+                            context.assertEquals(200, response.statusCode());
+                            context.assertTrue(response.getHeader("Content-Type").startsWith("text/plain; version=0.0.4"));
+                            String metrics = response.bodyAsString();
+                            context.assertTrue(metrics.contains("# TYPE wiki_http_request_duration_seconds histogram"));
+                            context.assertTrue(metrics.contains("wiki_http_requests_total{method=\"GET\",route=\"/wiki/:page\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_http_request_duration_seconds_count{method=\"GET\",route=\"/api/pages\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_eventbus_roundtrip_seconds_count{action=\"fetchPage\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_db_query_seconds_count{query=\"FETCH_PAGES_PAGE\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_template_render_seconds_count{template=\"page.ftl\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_markdown_render_seconds_count 1"));
+                            context.assertTrue(metrics.contains("wiki_cache_misses_total{cache=\"pages\"} 1"));
+                            context.assertTrue(metrics.contains("wiki_db_pool_max_connections 4"));
+                            async.complete();
+                        }))))));
+    }
+
+    @Test
+    public void load_shedding(TestContext context) {
+        Async async = context.async();
+
+        JsonObject httpConf = new JsonObject()
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8082)
+                .put(HttpServerVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.stalled.queue")
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_INITIAL_LIMIT, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_MAX_LIMIT, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_QUEUE_SIZE, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_QUEUE_TIMEOUT, 100)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_RETRY_AFTER, 2);
+
+        List<Message<Object>> stalled = new ArrayList<>();
+        boolean[] recovered = new boolean[1];
+        Async received = context.async();
+        vertx.eventBus().consumer("wikidb.stalled.queue", message -> {  //不回复的数据库，直到恢复
+            if (recovered[0]) {
+                message.fail(500, "Recovered");
+            } else {
+                stalled.add(message);
+                if (stalled.size() == 1) {
+                    received.complete();
+                }
+            }
+        });
+
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf), context.asyncAssertSuccess(id -> {
+            Future<HttpResponse<Buffer>> first = Future.future();
+            webClient.get(8082, "localhost", "/api/pages").send(first.completer());
+
+            received.handler(v -> {  //第一个请求占用唯一的名额：第二个排队后超时，第三个因队列已满立即被拒绝
+                Future<HttpResponse<Buffer>> second = Future.future();
+                Future<HttpResponse<Buffer>> third = Future.future();
+                webClient.get(8082, "localhost", "/api/pages").send(second.completer());
+                webClient.get(8082, "localhost", "/wiki/Home").send(third.completer());
+                CompositeFuture.all(second, third).setHandler(context.asyncAssertSuccess(rejected -> {
+                    for (HttpResponse<Buffer> response : new ArrayList<HttpResponse<Buffer>>(rejected.list())) {
+                        context.assertEquals(503, response.statusCode());
+                        context.assertEquals("2", response.getHeader("Retry-After"));
+                    }
+
+                    webClient.get("/metrics").send(context.asyncAssertSuccess(saturated -> {  //指标在所有HTTP实例之间共享
+                        String metrics = saturated.bodyAsString();
+                        context.assertTrue(metrics.contains("wiki_http_admission_rejected_total{reason=\"queue_full\"} 1"));
+                        context.assertTrue(metrics.contains("wiki_http_admission_rejected_total{reason=\"queue_timeout\"} 1"));
+                        context.assertTrue(metrics.contains("wiki_http_admission_in_flight 1"));
+
+                        recovered[0] = true;
+                        stalled.forEach(message -> message.fail(500, "Recovered"));
+                        first.setHandler(context.asyncAssertSuccess(failed -> {
+                            context.assertEquals(500, failed.statusCode());
+                            webClient.get(8082, "localhost", "/api/pages").send(context.asyncAssertSuccess(admitted -> {
+                                context.assertEquals(500, admitted.statusCode());  //再次获准进入，由（失败的）数据库回答
+                                async.complete();
+                            }));
+                        }));
+                    }));
+                }));
+            });
+        }));
+    }
+
+    @Test
+    public void queued_post_keeps_its_body(TestContext context) {
+        Async async = context.async();
+
+        JsonObject httpConf = new JsonObject()
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8082)
+                .put(HttpServerVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.stalled.queue")
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_INITIAL_LIMIT, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_MAX_LIMIT, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_QUEUE_SIZE, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_QUEUE_TIMEOUT, 10000);
+
+        List<Message<JsonObject>> stalled = new ArrayList<>();
+        Async received = context.async(2);
+        vertx.eventBus().<JsonObject>consumer("wikidb.stalled.queue", message -> {
+            stalled.add(message);
+            received.countDown();
+        });
+
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf), context.asyncAssertSuccess(id -> {
+            webClient.get(8082, "localhost", "/api/pages").send(context.asyncAssertSuccess());
+            vertx.setTimer(200, t -> {  //第一个请求占着唯一的名额，POST排队时请求体已经到达
+                JsonObject page = new JsonObject()
+                        .put("name", "Queued")
+                        .put("markdown", "# Queued");
+                webClient.post(8082, "localhost", "/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created -> {
+                    context.assertEquals(201, created.statusCode());
+                    async.complete();
+                }));
+                vertx.setTimer(200, u -> stalled.get(0).fail(500, "Released"));
+            });
+            received.handler(v -> {  //获准进入后，请求体仍然完整地交给了数据库
+                JsonObject create = stalled.get(1).body();
+                context.assertEquals("Queued", create.getString("title"));
+                stalled.get(1).reply(null);
+            });
+        }));
+    }
+
+    @Test
+    public void stuck_database_calls_time_out(TestContext context) {
+        Async async = context.async();
+
+        JsonObject httpConf = new JsonObject()
+                .put(HttpServerVerticle.CONFIG_HTTP_SERVER_PORT, 8082)
+                .put(HttpServerVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.stalled.queue")
+                .put(HttpServerVerticle.CONFIG_WIKIDB_TIMEOUT, 200)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_INITIAL_LIMIT, 1)
+                .put(HttpServerVerticle.CONFIG_HTTP_ADMISSION_MAX_LIMIT, 1);
+        vertx.eventBus().consumer("wikidb.stalled.queue", message -> {  //从不回复
+        });
+
+        vertx.deployVerticle(new HttpServerVerticle(), new DeploymentOptions().setConfig(httpConf), context.asyncAssertSuccess(id ->
+                webClient.get(8082, "localhost", "/api/pages").send(context.asyncAssertSuccess(timedOut -> {
+                    context.assertEquals(500, timedOut.statusCode());  //超时按失败计，名额随之释放
+                    webClient.get(8082, "localhost", "/metrics").send(context.asyncAssertSuccess(metrics -> {
+                        context.assertTrue(metrics.bodyAsString().contains("wiki_http_admission_in_flight 0"));
+                        async.complete();
+                    }));
+                }))));
+    }
+
+    @Test
+    public void conditional_requests(TestContext context) {
+        Async async = context.async();
+
+        JsonObject page = new JsonObject()
+                .put("name", "Versioned")
+                .put("markdown", "Version 1");
+        webClient.post("/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created ->
+                webClient.get("/wiki/Versioned").send(context.asyncAssertSuccess(html -> {
+                    String htmlTag = html.getHeader("ETag");
+                    String lastModified = html.getHeader("Last-Modified");
+                    context.assertNotNull(htmlTag);
+                    context.assertNotNull(lastModified);
+
+                    webClient.get("/wiki/Versioned").putHeader("If-None-Match", htmlTag).send(context.asyncAssertSuccess(unchanged -> {
+                        context.assertEquals(304, unchanged.statusCode());
+                        context.assertNull(unchanged.body());
+
+                        webClient.get("/api/pages").as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(list -> {
+                            int id = list.body().getJsonArray("pages").getJsonObject(0).getInteger("id");
+
+                            webClient.get("/api/pages/" + id).as(BodyCodec.jsonObject()).send(context.asyncAssertSuccess(json -> {
+                                String jsonTag = json.getHeader("ETag");
+                                context.assertNotEquals(htmlTag, jsonTag);
+                                context.assertEquals(1, json.body().getJsonObject("page").getInteger("version"));
+
+                                webClient.get("/api/pages/" + id).putHeader("If-Modified-Since", lastModified).send(context.asyncAssertSuccess(since -> {
+                                    context.assertEquals(304, since.statusCode());
+
+                                    webClient.put("/api/pages/" + id).sendJsonObject(new JsonObject().put("markdown", "Version 2"), context.asyncAssertSuccess(updated ->
+                                            webClient.get("/wiki/Versioned").putHeader("If-None-Match", htmlTag).send(context.asyncAssertSuccess(changed -> {
+                                                context.assertEquals(200, changed.statusCode());
+                                                context.assertTrue(changed.bodyAsString().contains("Version 2"));
+                                                context.assertNotEquals(htmlTag, changed.getHeader("ETag"));
+
+                                                webClient.get("/api/pages/" + id).putHeader("If-None-Match", jsonTag).send(context.asyncAssertSuccess(stale -> {
+                                                    context.assertEquals(200, stale.statusCode());
+                                                    async.complete();
+                                                }));
+                                            }))));
+                                }));
+                            }));
+                        }));
+                    }));
+                }))));
+    }
+
+    @Test
+    public void compressed_responses(TestContext context) {
+        Async async = context.async();
+
+        JsonObject page = new JsonObject()
+                .put("name", "Compressed")
+                .put("markdown", "Some compressible content");
+        webClient.post("/api/pages").sendJsonObject(page, context.asyncAssertSuccess(created ->
+                webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "gzip").send(context.asyncAssertSuccess(rendered ->
+                        webClient.get("/wiki/Compressed").putHeader("Accept-Encoding", "gzip").send(context.asyncAssertSuccess(cached -> {
+                            context.assertEquals("gzip", cached.getHeader("Content-Encoding"));
+                            context.assertTrue(cached.getHeader("ETag").endsWith("-gzip\""));
+                            context.assertTrue(gunzip(cached.body().getBytes()).contains("Some compressible content"));
+                            context.assertEquals(gunzip(rendered.body().getBytes()), gunzip(cached.body().getBytes()));
+
+                            webClient.get("/wiki/Compressed").send(context.asyncAssertSuccess(identity -> {
+                                context.assertNull(identity.getHeader("Content-Encoding"));
+                                context.assertTrue(identity.bodyAsString().contains("Some compressible content"));
+
+                                webClient.get("/wiki/Compressed").putHeader("If-None-Match", cached.getHeader("ETag")).send(context.asyncAssertSuccess(unchanged -> {
+                                    context.assertEquals(304, unchanged.statusCode());
+
+                                    webClient.get("/api/pages").putHeader("Accept-Encoding", "gzip").send(context.asyncAssertSuccess(api -> {
+                                        context.assertEquals("gzip", api.getHeader("Content-Encoding"));
+                                        context.assertTrue(gunzip(api.body().getBytes()).contains("Compressed"));
+                                        async.complete();
+                                    }));
+                                }));
+                            }));
+                        }))))));
+    }
+
+    private String gunzip(byte[] bytes) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new ByteArrayInputStream(bytes)), StandardCharsets.UTF_8))) {
+            return reader.lines().collect(Collectors.joining("\n"));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
 }
@@ -1,7 +1,12 @@
 package wiki;
 
+import io.vertx.core.Context;
 import io.vertx.core.DeploymentOptions;
+import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.eventbus.MessageConsumer;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.ext.unit.Async;
 import io.vertx.ext.unit.TestContext;
@@ -10,8 +15,25 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import wiki.database.Page;
+import wiki.database.PageCodec;
+import wiki.database.ReadModelVerticle;
 import wiki.database.WikiDatabaseService;
 import wiki.database.WikiDatabaseVerticle;
+import wiki.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 @RunWith(VertxUnitRunner.class)
 public class DatabaseTest {
@@ -25,7 +47,8 @@ public class DatabaseTest {
 
         JsonObject conf = new JsonObject()  //(1)只覆盖一些verticle设置，其他的将具有默认值
                 .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
-                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4);
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "");
 
         vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf),
                 context.asyncAssertSuccess(id ->  //(2)asyncAssertSuccess有助于提供一个检查异步操作成功的处理程序。有一个没有参数的变体，和一个类似这样的变体，我们可以将结果链接到另一个处理程序
@@ -43,24 +66,32 @@ public class DatabaseTest {
 
         service.createPage("Test", "Some content", context.asyncAssertSuccess(v1 -> {
 
-            service.fetchPage("Test", context.asyncAssertSuccess(json1 -> {
-                context.assertTrue(json1.getBoolean("found"));
-                context.assertTrue(json1.containsKey("id"));
-                context.assertEquals("Some content", json1.getString("rawContent"));
+            service.fetchPage("Test", context.asyncAssertSuccess(page1 -> {
+                context.assertNotNull(page1);
+                context.assertTrue(page1.getId() >= 0);
+                context.assertEquals("Test", page1.getName());
+                context.assertEquals("Some content", page1.getContent());
+                context.assertEquals(1, page1.getVersion());
+                context.assertTrue(page1.getModified() > 0);
 
-                service.savePage(json1.getInteger("id"), "Yo!", context.asyncAssertSuccess(v2 -> {
+                service.savePage(page1.getId(), "Yo!", context.asyncAssertSuccess(v2 -> {
 
                     service.fetchAllPages(context.asyncAssertSuccess(array1 -> {
                         context.assertEquals(1, array1.size());
 
-                        service.fetchPage("Test", context.asyncAssertSuccess(json2 -> {
-                            context.assertEquals("Yo!", json2.getString("rawContent"));
+                        service.fetchPage("Test", context.asyncAssertSuccess(page2 -> {
+                            context.assertEquals("Yo!", page2.getContent());
+                            context.assertEquals(2, page2.getVersion());
 
-                            service.deletePage(json1.getInteger("id"), v3 -> {
+                            service.deletePage(page1.getId(), v3 -> {
 
                                 service.fetchAllPages(context.asyncAssertSuccess(array2 -> {
                                     context.assertTrue(array2.isEmpty());
-                                    async.complete();  //(1)这是唯一Async最终完成的地方。
+
+                                    service.fetchPage("Test", context.asyncAssertSuccess(missing -> {
+                                        context.assertNull(missing);
+                                        async.complete();  //(1)这是唯一Async最终完成的地方。
+                                    }));
                                 }));
                             });
                         }));
@@ -70,4 +101,757 @@ public class DatabaseTest {
         }));
         async.awaitSuccess(5000); //(2)这是退出测试用例方法并依赖于JUnit超时的替代方法。这里，测试用例线程上的执行将等待直到Async完成或超时时间段过去
     }
+
+    @Test
+    public void half_migrated_schema_is_completed(TestContext context) throws SQLException {
+        Async async = context.async();
+
+        Connection legacy = DriverManager.getConnection("jdbc:hsqldb:mem:legacydb", "SA", "");  //上次迁移只加上了Version列
+        try (Statement statement = legacy.createStatement()) {
+            statement.execute("create table Pages (Id integer identity primary key, Name varchar(255) unique, Content clob, Version integer default 1 not null)");
+            statement.execute("insert into Pages (Name, Content) values ('Legacy', 'Before versions')");
+        }
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:legacydb")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.legacy.queue");
+        vertx.undeploy(vertx.deploymentIDs().iterator().next(), context.asyncAssertSuccess(v ->  //共享的JDBC客户端关闭后，才会按新的URL重新创建
+                vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(deployment -> {
+                    WikiDatabaseService migrated = WikiDatabaseService.createProxy(vertx, "wikidb.legacy.queue");
+                    migrated.fetchPage("Legacy", context.asyncAssertSuccess(page -> {
+                        context.assertEquals("Before versions", page.getContent());
+                        context.assertEquals(1, page.getVersion());
+                        context.assertEquals(0L, page.getModified());
+                        async.complete();
+                    }));
+                }))));
+        async.awaitSuccess(5000);
+        try (Statement statement = legacy.createStatement()) {
+            statement.execute("shutdown");
+        }
+        legacy.close();
+    }
+
+    @Test
+    public void connections_are_released(TestContext context) {
+        Async async = context.async();
+
+        service.createPage("Test", "Some content", context.asyncAssertSuccess(v1 -> {
+            service.fetchAllPagesData(context.asyncAssertSuccess(pages -> {
+                context.assertEquals(1, pages.size());
+
+                service.fetchPageById(pages.get(0).getId(), context.asyncAssertSuccess(page -> {
+                    context.assertEquals("Some content", page.getContent());
+
+                    service.fetchPoolMetrics(context.asyncAssertSuccess(metrics -> {
+                        context.assertEquals(0, metrics.getInteger("active"));
+                        context.assertEquals(4, metrics.getInteger("idle"));
+                        context.assertTrue(metrics.getLong("acquired") >= 3);
+                        context.assertEquals(0L, metrics.getLong("leaksDetected"));
+                        async.complete();
+                    }));
+                }));
+            }));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void pinned_connections_pipeline_requests(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_MAX_POOL_SIZE, 4)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_PINNED_CONNECTIONS, 2)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.pinned.queue");
+
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(id -> {
+            WikiDatabaseService pinned = WikiDatabaseService.createProxy(vertx, "wikidb.pinned.queue");
+            Async created = context.async(10);
+            for (int i = 0; i < 10; i++) {
+                pinned.createPage("Page " + i, "Content " + i, context.asyncAssertSuccess(v -> created.countDown()));
+            }
+            created.handler(done -> pinned.fetchAllPages(context.asyncAssertSuccess(pages -> {
+                context.assertEquals(10, pages.size());
+
+                pinned.fetchPoolMetrics(context.asyncAssertSuccess(metrics -> {
+                    context.assertEquals(2, metrics.getInteger("pinned"));
+                    context.assertEquals(0, metrics.getInteger("active"));
+                    async.complete();
+                }));
+            })));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void paginate_and_stream_pages(TestContext context) {
+        Async async = context.async();
+
+        List<JsonObject> pages = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "Content " + i));
+        }
+        service.createPages(pages, context.asyncAssertSuccess(v -> {
+
+            service.fetchPagesPage(-1, 10, context.asyncAssertSuccess(first -> {
+                context.assertEquals(10, first.size());
+                int last = first.get(9).getId();
+
+                service.fetchPagesPage(last, 100, context.asyncAssertSuccess(rest -> {
+                    context.assertEquals(15, rest.size());
+                    context.assertTrue(rest.get(0).getId() > last);
+
+                    List<Page> streamed = new ArrayList<>();
+                    MessageConsumer<Object> consumer = vertx.eventBus().consumer("wiki.test.stream");
+                    consumer.handler(message -> {
+                        if (message.body() instanceof List) {
+                            for (Object page : (List<?>) message.body()) {
+                                streamed.add((Page) page);
+                            }
+                            message.reply(null);
+                        } else {
+                            context.assertTrue(((JsonObject) message.body()).getBoolean("end"));
+                            context.assertEquals(25, streamed.size());
+                            context.assertEquals("Content 24", streamed.get(24).getContent());
+                            context.assertEquals(1, streamed.get(24).getVersion());
+                            consumer.unregister();
+                            async.complete();
+                        }
+                    });
+                    service.streamPagesData("wiki.test.stream", 7, context.asyncAssertSuccess());
+                }));
+            }));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void page_codec_round_trip(TestContext context) {
+        PageCodec codec = new PageCodec();
+        Page page = new Page(300, "Ünïcode", "# Title\n\n" + new String(new char[200]).replace('\0', 'x'), 129, 1500000000000L);
+
+        Buffer buffer = Buffer.buffer();
+        codec.encodeToWire(buffer, page);
+        context.assertTrue(buffer.length() < page.toJson().encode().length());  //二进制编码比JSON文本更紧凑
+        Page decoded = codec.decodeFromWire(0, buffer);
+        context.assertEquals(page.toJson(), decoded.toJson());
+
+        List<Page> batch = new ArrayList<>();
+        batch.add(page);
+        batch.add(new Page(1, "Empty", null, 1, 0));
+        PageCodec.Batch batchCodec = new PageCodec.Batch();
+        Buffer batchBuffer = Buffer.buffer();
+        batchCodec.encodeToWire(batchBuffer, batch);
+        List<Page> decodedBatch = batchCodec.decodeFromWire(0, batchBuffer);
+        context.assertEquals(2, decodedBatch.size());
+        context.assertNull(decodedBatch.get(1).getContent());
+        context.assertEquals(page.toJson(), decodedBatch.get(0).toJson());
+    }
+
+    @Test
+    public void page_name_index(TestContext context) {
+        Async async = context.async();
+
+        List<JsonObject> pages = new ArrayList<>();
+        for (String name : new String[]{"banana", "Apple", "apricot", "Cherry", "avocado"}) {
+            pages.add(new JsonObject().put("name", name).put("markdown", name));
+        }
+        service.createPages(pages, context.asyncAssertSuccess(v1 ->
+                service.createPage("APPLE pie", "Dessert", context.asyncAssertSuccess(v2 ->
+                        service.fetchAllPages(context.asyncAssertSuccess(all -> {
+                            context.assertEquals("[\"Apple\",\"APPLE pie\",\"apricot\",\"avocado\",\"banana\",\"Cherry\"]", all.encode());
+
+                            service.fetchPageNames("ap", null, 10, context.asyncAssertSuccess(suggested -> {
+                                context.assertEquals(3, suggested.size());
+                                context.assertEquals("apricot", suggested.get(2).getName());
+
+                                service.deletePage(suggested.get(0).getId(), context.asyncAssertSuccess(v3 ->
+                                        service.fetchPageNames(null, "apricot", 2, context.asyncAssertSuccess(next -> {
+                                            context.assertEquals(2, next.size());
+                                            context.assertEquals("avocado", next.get(0).getName());
+                                            context.assertEquals("banana", next.get(1).getName());
+
+                                            service.fetchPageNames("a", null, 10, context.asyncAssertSuccess(remaining -> {
+                                                context.assertEquals(3, remaining.size());
+                                                context.assertEquals("APPLE pie", remaining.get(0).getName());
+                                                async.complete();
+                                            }));
+                                        }))));
+                            }));
+                        }))))));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void page_revisions(TestContext context) {
+        Async async = context.async();
+
+        service.createPage("History", revision(1), context.asyncAssertSuccess(v1 ->
+                service.fetchPage("History", context.asyncAssertSuccess(page -> {
+                    int id = page.getId();
+                    saveRevisions(context, id, 2, 20, () ->  //默认每16个修订保存一次完整快照，其余保存与上一修订的差异
+                            service.fetchRevisions(id, context.asyncAssertSuccess(history -> {
+                                context.assertEquals(20, history.size());
+                                context.assertEquals(20, history.get(0).getInteger("revision"));
+                                context.assertTrue(history.get(3).getBoolean("snapshot"));  //修订17
+                                context.assertFalse(history.get(4).getBoolean("snapshot"));
+                                context.assertTrue(history.get(19).getBoolean("snapshot"));
+
+                                service.fetchRevision(id, 16, context.asyncAssertSuccess(sixteen -> {
+                                    context.assertTrue(sixteen.getBoolean("found"));
+                                    context.assertEquals(revision(16), sixteen.getString("content"));
+
+                                    service.fetchRevision(id, 21, context.asyncAssertSuccess(missing -> {
+                                        context.assertFalse(missing.getBoolean("found"));
+
+                                        service.fetchRevisionDiff(id, 1, 2, context.asyncAssertSuccess(diff -> {
+                                            context.assertEquals("@@ -1,4 +1,5 @@\n # History\n-edited 1\n+edited 2\n unchanged\n item 1\n+item 2\n", diff.getString("diff"));
+
+                                            List<JsonObject> updates = new ArrayList<>();
+                                            updates.add(new JsonObject().put("id", id).put("markdown", revision(21)));
+                                            updates.add(new JsonObject().put("id", id).put("markdown", revision(22)));
+                                            service.savePages(updates, context.asyncAssertSuccess(v2 ->
+                                                    service.fetchRevision(id, 21, context.asyncAssertSuccess(bulk -> {
+                                                        context.assertEquals(revision(21), bulk.getString("content"));
+
+                                                        service.deletePage(id, context.asyncAssertSuccess(v3 ->
+                                                                service.fetchRevisions(id, context.asyncAssertSuccess(deleted -> {
+                                                                    context.assertTrue(deleted.isEmpty());
+                                                                    async.complete();
+                                                                }))));
+                                                    }))));
+                                        }));
+                                    }));
+                                }));
+                            })));
+                }))));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void bulk_creations_alongside_single_ones(TestContext context) {
+        Async async = context.async();
+
+        List<JsonObject> pages = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            pages.add(new JsonObject().put("name", "Bulk " + i).put("markdown", "bulk"));
+        }
+        Async created = context.async(11);
+        service.createPages(pages, context.asyncAssertSuccess(v -> created.countDown()));
+        for (int i = 0; i < 10; i++) {  //同时单独创建的页面不属于批次，不会被再次写入修订或索引
+            service.createPage("Single " + i, "single", context.asyncAssertSuccess(v -> created.countDown()));
+        }
+        created.handler(done -> service.search("single", 100, context.asyncAssertSuccess(singles -> {
+            context.assertEquals(10, singles.size());
+            service.search("bulk", 100, context.asyncAssertSuccess(bulk -> {
+                context.assertEquals(10, bulk.size());
+                Async checked = context.async(20);
+                singles.addAll(bulk);
+                singles.forEach(result -> service.fetchRevisions(result.getInteger("id"), context.asyncAssertSuccess(history -> {
+                    context.assertEquals(1, history.size());
+                    checked.countDown();
+                })));
+                checked.handler(v -> async.complete());
+            }));
+        })));
+        async.awaitSuccess(5000);
+    }
+
+    private static String revision(int n) {
+        StringBuilder content = new StringBuilder("# History\nedited ").append(n).append("\nunchanged");
+        for (int i = 1; i <= n; i++) {
+            content.append("\nitem ").append(i);
+        }
+        return content.toString();
+    }
+
+    private void saveRevisions(TestContext context, int id, int from, int to, Runnable done) {
+        if (from > to) {
+            done.run();
+            return;
+        }
+        service.savePage(id, revision(from), context.asyncAssertSuccess(v -> saveRevisions(context, id, from + 1, to, done)));
+    }
+
+    @Test
+    public void optimistic_concurrency(TestContext context) {
+        Async async = context.async();
+
+        service.createPage("Contended", "Original", context.asyncAssertSuccess(v1 ->
+                service.fetchPage("Contended", context.asyncAssertSuccess(page -> {
+                    int id = page.getId();
+
+                    service.savePageIfVersion(id, 1, "First editor", context.asyncAssertSuccess(first -> {
+                        context.assertTrue(first.getBoolean("saved"));
+                        context.assertEquals(2, first.getInteger("version"));
+
+                        service.savePageIfVersion(id, 1, "Second editor", context.asyncAssertSuccess(second -> {
+                            context.assertTrue(second.getBoolean("found"));
+                            context.assertFalse(second.getBoolean("saved"));  //第二个编辑者基于过期的版本1，不能覆盖
+                            context.assertEquals(2, second.getInteger("version"));
+
+                            service.fetchPage("Contended", context.asyncAssertSuccess(current -> {
+                                context.assertEquals("First editor", current.getContent());
+
+                                service.savePageIfVersion(id + 1, 1, "Nobody", context.asyncAssertSuccess(missing -> {
+                                    context.assertFalse(missing.getBoolean("found"));
+                                    async.complete();
+                                }));
+                            }));
+                        }));
+                    }));
+                }))));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void local_calls_bypass_the_event_bus(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.local.queue");
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(deployment -> {
+            WikiDatabaseService local = WikiDatabaseService.createLocalProxy(vertx, "wikidb.local.queue", 5000);
+            vertx.runOnContext(v -> {
+                Context caller = Vertx.currentContext();
+                local.createPage("Local", "Not encoded", context.asyncAssertSuccess(v1 ->
+                        local.fetchPage("Local", context.asyncAssertSuccess(page -> {
+                            context.assertEquals(caller, Vertx.currentContext());  //结果仍在调用者的上下文中处理
+                            context.assertEquals("Not encoded", page.getContent());
+
+                            vertx.undeploy(deployment, context.asyncAssertSuccess(v2 ->
+                                    local.fetchPage("Local", context.asyncAssertFailure(noHandlers -> async.complete()))));  //卸载后经事件总线，已没有服务
+                        }))));
+            });
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void instances_share_one_service(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.scaled.queue");
+        vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf).setInstances(4), context.asyncAssertSuccess(deployment -> {
+            WikiDatabaseService local = WikiDatabaseService.createLocalProxy(vertx, "wikidb.scaled.queue", 5000);
+            WikiDatabaseService remote = WikiDatabaseService.createProxy(vertx, "wikidb.scaled.queue");
+            Async created = context.async(20);
+            for (int i = 0; i < 20; i++) {
+                WikiDatabaseService client = i % 2 == 0 ? local : remote;  //请求分散到各实例，各实例共享同一个名称索引
+                client.createPage("Page " + i, "Content " + i, context.asyncAssertSuccess(v -> created.countDown()));
+            }
+            created.handler(done -> {
+                Async listed = context.async(8);
+                for (int i = 0; i < 8; i++) {
+                    (i % 2 == 0 ? local : remote).fetchAllPages(context.asyncAssertSuccess(pages -> {
+                        context.assertEquals(20, pages.size());
+                        listed.countDown();
+                    }));
+                }
+                listed.handler(v -> vertx.undeploy(deployment, context.asyncAssertSuccess(v2 ->
+                        local.fetchAllPages(context.asyncAssertFailure(noHandlers -> async.complete())))));
+            });
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void full_text_search(TestContext context) {
+        Async async = context.async();
+
+        List<JsonObject> pages = new ArrayList<>();
+        pages.add(new JsonObject().put("name", "Vert.x").put("markdown", "A toolkit for *reactive* applications on the JVM"));
+        pages.add(new JsonObject().put("name", "Reactive").put("markdown", "Reactive systems are responsive, resilient and elastic"));
+        pages.add(new JsonObject().put("name", "HSQLDB").put("markdown", "A relational database written in Java"));
+        service.createPages(pages, context.asyncAssertSuccess(v1 ->
+                service.search("reactive", 10, context.asyncAssertSuccess(results1 -> {
+                    context.assertEquals(2, results1.size());
+                    context.assertEquals("Reactive", results1.get(0).getString("name"));  //页面名称中的词权重更高
+
+                    service.createPage("Wiki", "A 维基 page about the database", context.asyncAssertSuccess(v2 ->
+                            service.search("维基 database", 10, context.asyncAssertSuccess(results2 -> {
+                                context.assertEquals(2, results2.size());
+                                context.assertEquals("Wiki", results2.get(0).getString("name"));
+                                int wikiId = results2.get(0).getInteger("id");
+                                int hsqldbId = results2.get(1).getInteger("id");
+
+                                service.savePage(hsqldbId, "An embedded SQL engine", context.asyncAssertSuccess(v3 ->
+                                        service.deletePage(wikiId, context.asyncAssertSuccess(v4 ->
+                                                service.search("database", 10, context.asyncAssertSuccess(results3 -> {
+                                                    context.assertTrue(results3.isEmpty());
+
+                                                    service.search("engine", 10, context.asyncAssertSuccess(results4 -> {
+                                                        context.assertEquals(1, results4.size());
+                                                        context.assertEquals("HSQLDB", results4.get(0).getString("name"));
+                                                        async.complete();
+                                                    }));
+                                                }))))));
+                            }))));
+                }))));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void search_ranking_after_edits(TestContext context) {
+        Async async = context.async();
+
+        List<JsonObject> pages = new ArrayList<>();
+        pages.add(new JsonObject().put("name", "Apple").put("markdown", "A fruit that grows on trees"));
+        pages.add(new JsonObject().put("name", "Banana").put("markdown", "fruit fruit fruit"));
+        pages.add(new JsonObject().put("name", "Notes").put("markdown", "Nothing yet"));
+        service.createPages(pages, context.asyncAssertSuccess(v1 ->
+                service.fetchPage("Notes", context.asyncAssertSuccess(notes ->
+                        edit(notes.getId(), 6, context, v2 ->
+                                service.search("fruit", 10, context.asyncAssertSuccess(results -> {
+                                    context.assertEquals(3, results.size());
+                                    context.assertEquals("Banana", results.get(0).getString("name"));  //旧版本的posting不计入文档频率，分数不会变为负数
+                                    results.forEach(result -> context.assertTrue(result.getFloat("score") > 0));
+                                    async.complete();
+                                })))))));
+        async.awaitSuccess(5000);
+    }
+
+    private void edit(int id, int times, TestContext context, Handler<Void> handler) {
+        if (times == 0) {
+            handler.handle(null);
+        } else {
+            service.savePage(id, "A note about fruit, edit " + times, context.asyncAssertSuccess(v -> edit(id, times - 1, context, handler)));
+        }
+    }
+
+    @Test
+    public void search_follows_concurrent_saves(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.concurrent.queue");
+        vertx.deployVerticle(WikiDatabaseVerticle.class.getName(), new DeploymentOptions().setConfig(conf).setInstances(4), context.asyncAssertSuccess(deployment -> {
+            WikiDatabaseService concurrent = WikiDatabaseService.createProxy(vertx, "wikidb.concurrent.queue");
+            concurrent.createPage("Contended", "edit0", context.asyncAssertSuccess(v -> concurrent.fetchPage("Contended", context.asyncAssertSuccess(page -> {
+                Async saved = context.async(20);
+                for (int i = 1; i <= 20; i++) {  //保存在各实例的事件循环上完成，顺序不定
+                    concurrent.savePage(page.getId(), "edit" + i, context.asyncAssertSuccess(v2 -> saved.countDown()));
+                }
+                saved.handler(done -> concurrent.fetchPage("Contended", context.asyncAssertSuccess(latest ->
+                        concurrent.search(latest.getContent(), 10, context.asyncAssertSuccess(results -> {
+                            context.assertEquals(1, results.size());  //索引的是最后提交的版本
+                            async.complete();
+                        })))));
+            }))));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void search_index_survives_redeployment(TestContext context) {
+        Async async = context.async();
+
+        File directory = new File("target/search-" + System.nanoTime());
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, directory.getPath())
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_FLUSH_THRESHOLD, 3)  //很小的阈值，以便写出并合并多个段文件
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.search.queue");
+        DeploymentOptions options = new DeploymentOptions().setConfig(conf);
+
+        List<JsonObject> pages = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            pages.add(new JsonObject().put("name", "Page " + i).put("markdown", i % 2 == 0 ? "even" : "odd"));
+        }
+        vertx.deployVerticle(new WikiDatabaseVerticle(), options, context.asyncAssertSuccess(first -> {
+            WikiDatabaseService persisted = WikiDatabaseService.createProxy(vertx, "wikidb.search.queue");
+            persisted.createPages(pages, context.asyncAssertSuccess(v -> {
+                Async created = context.async(20);
+                for (int i = 20; i < 40; i++) {
+                    persisted.createPage("Page " + i, i % 2 == 0 ? "even" : "odd", context.asyncAssertSuccess(v2 -> created.countDown()));
+                }
+                created.handler(done -> vertx.undeploy(first, context.asyncAssertSuccess(undeployed -> {
+                    context.assertTrue(new File(directory, "manifest.json").exists());
+
+                    vertx.deployVerticle(new WikiDatabaseVerticle(), options, context.asyncAssertSuccess(second -> {
+                        context.assertFalse(new File(directory, "manifest.json").exists());
+                        persisted.search("odd", 100, context.asyncAssertSuccess(results -> {
+                            context.assertEquals(20, results.size());
+                            vertx.undeploy(second, context.asyncAssertSuccess(v3 -> {
+                                delete(directory);
+                                async.complete();
+                            }));
+                        }));
+                    }));
+                })));
+            }));
+        }));
+        async.awaitSuccess(10000);
+    }
+
+    @Test
+    public void group_commit_coalesces_saves(TestContext context) throws SQLException {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_WRITE_BEHIND_WINDOW, 100)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.grouped.queue")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.grouped.events");
+        List<JsonObject> updates = new ArrayList<>();
+        vertx.eventBus().<JsonObject>consumer("wikidb.grouped.events", message -> {
+            if ("UPDATED".equals(message.body().getString("change"))) {
+                updates.add(message.body());
+            }
+        });
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(deployment -> {
+            WikiDatabaseService grouped = WikiDatabaseService.createProxy(vertx, "wikidb.grouped.queue");
+            Async created = context.async(2);
+            grouped.createPage("Grouped", "Version 1", context.asyncAssertSuccess(v -> created.countDown()));
+            grouped.createPage("Grouped", "Duplicate", context.asyncAssertFailure(duplicate -> created.countDown()));  //同一批次中失败的写入只影响其调用者
+            created.handler(done -> grouped.fetchPage("Grouped", context.asyncAssertSuccess(page -> {
+                context.assertEquals("Version 1", page.getContent());
+
+                Async saved = context.async(10);
+                for (int i = 2; i <= 11; i++) {
+                    grouped.savePage(page.getId(), "Version " + i, context.asyncAssertSuccess(v -> saved.countDown()));
+                }
+                saved.handler(v -> grouped.fetchPageById(page.getId(), context.asyncAssertSuccess(merged -> {
+                    context.assertEquals(2, merged.getVersion());  //窗口内对同一页面的保存合并为一个版本
+                    context.assertEquals("Version 11", merged.getContent());
+                    context.assertEquals(1, updates.size());  //合并的保存只发布一个事件
+                    context.assertEquals(2, updates.get(0).getInteger("version"));
+
+                    StringBuilder metrics = new StringBuilder();
+                    MetricsRegistry.get(vertx).writePrometheus(metrics);
+                    context.assertTrue(metrics.toString().contains("wiki_db_group_commit_coalesced_total 9"));
+                    context.assertTrue(metrics.toString().contains("wiki_db_group_commit_retried_total 2"));
+                    async.complete();
+                })));
+            })));
+        }));
+        async.awaitSuccess(5000);
+        try (Connection connection = DriverManager.getConnection("jdbc:hsqldb:mem:testdb", "SA", "");
+             Statement statement = connection.createStatement();
+             ResultSet delay = statement.executeQuery("select property_value from information_schema.system_properties where property_name = 'hsqldb.write_delay'")) {
+            context.assertTrue(delay.next());
+            context.assertEquals("false", delay.getString(1));  //成组提交的调用者只在提交写入磁盘后得到结果
+        }
+    }
+
+    @Test
+    public void read_model_follows_writes(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_JDBC_URL, "jdbc:hsqldb:mem:testdb;shutdown=true")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.written.queue")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.written.events")
+                .put(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_QUEUE, "wikidb.read.queue")
+                .put(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_EVENTS, "wikidb.read.events");
+        vertx.deployVerticle(new WikiDatabaseVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(deployment -> {
+            WikiDatabaseService written = WikiDatabaseService.createProxy(vertx, "wikidb.written.queue");
+            written.createPage("Loaded", "Before the read model", context.asyncAssertSuccess(v ->
+                    vertx.deployVerticle(new ReadModelVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(readModel -> {
+                WikiDatabaseService read = WikiDatabaseService.createProxy(vertx, "wikidb.read.queue");
+                read.fetchPage("Loaded", context.asyncAssertSuccess(loaded -> {
+                    context.assertEquals("Before the read model", loaded.getContent());  //启动时加载已有页面
+
+                    vertx.eventBus().<JsonObject>consumer("wikidb.read.events", event -> {  //读模型应用变更后才重新发布事件
+                        if (!"CREATED".equals(event.body().getString("change")) || !"Followed".equals(event.body().getString("name"))) {
+                            return;
+                        }
+                        read.fetchPageById(event.body().getInteger("id"), context.asyncAssertSuccess(followed -> {
+                            context.assertEquals("Written elsewhere", followed.getContent());
+
+                            read.savePage(followed.getId(), "Saved through the read model", context.asyncAssertSuccess(saved ->
+                                    read.fetchPageById(followed.getId(), context.asyncAssertSuccess(page -> {
+                                context.assertEquals("Saved through the read model", page.getContent());  //通过读模型写入后立即可读
+                                context.assertEquals(2, page.getVersion());
+
+                                read.deletePage(followed.getId(), context.asyncAssertSuccess(deleted ->
+                                        read.fetchPageById(followed.getId(), context.asyncAssertSuccess(gone -> {
+                                    context.assertNull(gone);
+                                    read.fetchAllPages(context.asyncAssertSuccess(names -> {
+                                        context.assertEquals(new JsonArray().add("Loaded"), names);
+
+                                        vertx.eventBus().<JsonObject>consumer("wikidb.read.events", republished -> {
+                                            if ("Loaded".equals(republished.body().getString("name"))) {
+                                                async.complete();
+                                            }
+                                        });
+                                        vertx.eventBus().publish("wikidb.written.events", new JsonObject()  //不带Id的事件（例如来自旧版本的服务）按名称读回
+                                                .put("sequence", 0L).put("change", "CREATED").put("name", "Loaded").put("version", 1));
+                                    }));
+                                }))));
+                            }))));
+                        }));
+                    });
+                    written.createPage("Followed", "Written elsewhere", context.asyncAssertSuccess());
+                }));
+            }))));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void read_model_falls_back_when_a_refresh_fails(TestContext context) {
+        Async async = context.async();
+
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.flaky.queue")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_EVENTS, "wikidb.flaky.events")
+                .put(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_QUEUE, "wikidb.fallback.queue")
+                .put(ReadModelVerticle.CONFIG_WIKIDB_READ_MODEL_EVENTS, "wikidb.fallback.events");
+        JsonObject page = new JsonObject().put("id", 1).put("name", "Flaky").put("content", "Read back").put("version", 1).put("modified", 0L);
+        int[] reads = new int[1];
+        vertx.eventBus().<JsonObject>consumer("wikidb.flaky.queue", message -> {  //第一次读回失败的数据库，没有已有页面
+            if ("streamPagesData".equals(message.headers().get("action"))) {
+                message.reply(null);
+                vertx.eventBus().send(message.body().getString("address"), new JsonObject().put("end", true));
+            } else if ("fetchPageById".equals(message.headers().get("action")) && reads[0]++ == 0) {
+                message.fail(500, "Unavailable");
+            } else {
+                message.reply(page);
+            }
+        });
+
+        vertx.deployVerticle(new ReadModelVerticle(), new DeploymentOptions().setConfig(conf), context.asyncAssertSuccess(readModel -> {
+            WikiDatabaseService read = WikiDatabaseService.createProxy(vertx, "wikidb.fallback.queue");
+            vertx.eventBus().<JsonObject>consumer("wikidb.fallback.events", event ->  //读回失败也重新发布事件，页面的读取转给数据库
+                    read.fetchPageById(1, context.asyncAssertSuccess(fallback -> {
+                        context.assertEquals("Read back", fallback.getContent());
+                        vertx.setTimer(500, t -> {  //之后的重试把页面读回副本
+                            int before = reads[0];
+                            read.fetchPage("Flaky", context.asyncAssertSuccess(copied -> {
+                                context.assertEquals("Read back", copied.getContent());
+                                context.assertEquals(before, reads[0]);
+                                async.complete();
+                            }));
+                        });
+                    })));
+            vertx.eventBus().publish("wikidb.flaky.events", new JsonObject()
+                    .put("sequence", 1L).put("change", "CREATED").put("id", 1).put("name", "Flaky").put("version", 1));
+        }));
+        async.awaitSuccess(5000);
+    }
+
+    @Test
+    public void log_structured_storage(TestContext context) throws Exception {
+        Async async = context.async();
+
+        File directory = new File("target/log-" + System.nanoTime());
+        JsonObject conf = new JsonObject()
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_STORAGE, "log")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_DIRECTORY, directory.getPath())
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SEGMENT_SIZE, 1024)  //很小的段文件，以便滚动并压缩多个段
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_REVISIONS, 3)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_LOG_SYNC_INTERVAL, 0)
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_SEARCH_DIRECTORY, "")
+                .put(WikiDatabaseVerticle.CONFIG_WIKIDB_QUEUE, "wikidb.log.queue");
+        DeploymentOptions options = new DeploymentOptions().setConfig(conf);
+        WikiDatabaseService log = WikiDatabaseService.createProxy(vertx, "wikidb.log.queue");
+
+        List<JsonObject> pages = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            pages.add(new JsonObject().put("name", "Page " + i).put("markdown", "Content " + i));
+        }
+        vertx.deployVerticle(new WikiDatabaseVerticle(), options, context.asyncAssertSuccess(first ->
+                log.createPages(pages, context.asyncAssertSuccess(v1 ->
+                        log.createPage("Page 0", "Duplicate", context.asyncAssertFailure(duplicate ->
+                                log.fetchPage("Page 0", context.asyncAssertSuccess(page0 -> {
+                                    Async saved = context.async(20);
+                                    for (int i = 0; i < 20; i++) {
+                                        log.savePage(page0.getId(), String.join("", Collections.nCopies(20, "Version " + i)), context.asyncAssertSuccess(v2 -> saved.countDown()));
+                                    }
+                                    saved.handler(done -> log.fetchRevisions(page0.getId(), context.asyncAssertSuccess(revisions -> {
+                                        context.assertEquals(3, revisions.size());  //只保留最近的3个版本
+                                        context.assertEquals(21, revisions.get(0).getInteger("revision"));
+
+                                        log.savePageIfVersion(page0.getId(), 1, "Stale", context.asyncAssertSuccess(conflict -> {
+                                            context.assertFalse(conflict.getBoolean("saved"));
+                                            context.assertEquals(21, conflict.getInteger("version"));
+
+                                            log.fetchPage("Page 1", context.asyncAssertSuccess(page1 ->
+                                                    log.deletePage(page1.getId(), context.asyncAssertSuccess(v3 ->
+                                                            awaitCompaction(log, context, v4 -> vertx.undeploy(first, context.asyncAssertSuccess(undeployed -> {
+                                                                tearLastRecord(directory, context);
+
+                                                                vertx.deployVerticle(new WikiDatabaseVerticle(), options, context.asyncAssertSuccess(second ->
+                                                                        log.fetchAllPages(context.asyncAssertSuccess(names -> {
+                                                                            context.assertEquals(4, names.size());
+                                                                            context.assertFalse(names.contains("Page 1"));
+
+                                                                            log.fetchPageById(page0.getId(), context.asyncAssertSuccess(recovered -> {
+                                                                                context.assertEquals(21, recovered.getVersion());
+                                                                                context.assertTrue(recovered.getContent().startsWith("Version "));
+
+                                                                                log.createPage("Page 1", "Recreated", context.asyncAssertSuccess(v5 ->
+                                                                                        log.fetchPage("Page 1", context.asyncAssertSuccess(recreated -> {
+                                                                                            context.assertNotEquals(page1.getId(), recreated.getId());  //已删除页面的Id不会重用
+                                                                                            context.assertEquals("Recreated", recreated.getContent());
+                                                                                            async.complete();
+                                                                                        }))));
+                                                                            }));
+                                                                        }))));
+                                                            })))))));
+                                        }));
+                                    })));
+                                }))))))));
+        async.awaitSuccess(10000);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private void awaitCompaction(WikiDatabaseService log, TestContext context, Handler<Void> handler) {
+        log.fetchPoolMetrics(context.asyncAssertSuccess(stats -> {
+            context.assertEquals("log", stats.getString("storage"));
+            if (stats.getLong("compactions") > 0) {
+                context.assertTrue(stats.getLong("reclaimedBytes") > 0);
+                handler.handle(null);
+            } else {
+                vertx.setTimer(20, id -> awaitCompaction(log, context, handler));
+            }
+        }));
+    }
+
+    /*
+     * Simulates a crash in the middle of an append: a record header after the last record, without its body.
+     */
+    private void tearLastRecord(File directory, TestContext context) {
+        File[] segments = directory.listFiles((dir, name) -> name.startsWith("segment-"));
+        context.assertTrue(segments != null && segments.length > 0);
+        Arrays.sort(segments);
+        try (RandomAccessFile file = new RandomAccessFile(segments[segments.length - 1], "rw")) {
+            int offset = 0;
+            while (offset + 8 <= file.length()) {
+                file.seek(offset);
+                int length = file.readInt();
+                if (length == 0) {
+                    break;
+                }
+                offset += 8 + length;
+            }
+            file.seek(offset);
+            file.writeInt(100);
+            file.writeInt(0xdeadbeef);
+        } catch (IOException e) {
+            context.fail(e);
+        }
+    }
 }